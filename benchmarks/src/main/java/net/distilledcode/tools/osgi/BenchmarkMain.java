@@ -0,0 +1,34 @@
+package net.distilledcode.tools.osgi;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, which reports allocation rates
+ * next to the timings, and writes the results to {@code target/jmh-result.json}
+ * so they can be compared between releases. Both defaults are only applied if
+ * no profiler or result file is given on the command line.
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (!arguments.contains("-prof") && !arguments.contains("-h") && !arguments.contains("-l")) {
+            arguments.add("-prof");
+            arguments.add("gc");
+        }
+        if (!arguments.contains("-rff")) {
+            arguments.add("-rf");
+            arguments.add("json");
+            arguments.add("-rff");
+            arguments.add("target/jmh-result.json");
+        }
+        Main.main(arguments.toArray(new String[0]));
+    }
+}
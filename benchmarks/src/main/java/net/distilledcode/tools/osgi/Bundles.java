@@ -0,0 +1,122 @@
+package net.distilledcode.tools.osgi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Locates the bundles used as benchmark input. They are copied to
+ * {@code target/bundles} by the build, another directory can be
+ * configured with the {@code benchmark.bundles} system property.
+ * <p>
+ * Bundles named {@code generated-<n>-old.jar} and {@code generated-<n>-new.jar}
+ * are generated on first use. They contain {@code n} components, each with a
+ * Service-Component descriptor, a MetaType descriptor and localized labels.
+ * In the new bundle every tenth component has a changed property, attribute
+ * default and label.
+ */
+final class Bundles {
+
+    private static final String DIRECTORY = System.getProperty("benchmark.bundles", "target/bundles");
+
+    private static final Pattern GENERATED = Pattern.compile("generated-(\\d+)-(old|new)\\.jar");
+
+    private static final String PACKAGE = "org.example.generated";
+
+    private Bundles() {
+    }
+
+    static File file(final String name) {
+        File file = new File(DIRECTORY, name);
+        Matcher generated = GENERATED.matcher(name);
+        if (!file.isFile() && generated.matches()) {
+            generate(file, Integer.parseInt(generated.group(1)), "new".equals(generated.group(2)));
+        }
+        if (!file.isFile()) {
+            throw new IllegalStateException("Benchmark bundle " + file.getAbsolutePath() + " does not exist, " +
+                    "run 'mvn package' or set the 'benchmark.bundles' system property");
+        }
+        return file;
+    }
+
+    // concurrent forks may generate the same bundle, so it is written to a temp file and moved into place
+    private static synchronized void generate(final File file, final int components, final boolean changed) {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Bundle-ManifestVersion", "2");
+        attributes.putValue("Bundle-SymbolicName", PACKAGE);
+        attributes.putValue("Bundle-Version", changed ? "1.1.0" : "1.0.0");
+        attributes.putValue("Service-Component", "OSGI-INF/*.xml");
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            try (OutputStream out = Files.newOutputStream(temp.toPath()); JarOutputStream jar = new JarOutputStream(out, manifest)) {
+                StringBuilder labels = new StringBuilder();
+                for (int i = 0; i < components; i++) {
+                    boolean componentChanged = changed && i % 10 == 0;
+                    String name = PACKAGE + ".Component" + i;
+                    write(jar, "OSGI-INF/" + name + ".xml", component(name, i, componentChanged));
+                    write(jar, "OSGI-INF/metatype/" + name + ".xml", metaType(name, componentChanged));
+                    labels.append(name).append(".name=Component ").append(i).append('\n')
+                            .append(name).append(".description=").append(componentChanged ? "Changed description" : "Description")
+                            .append(" of component ").append(i).append('\n');
+                }
+                write(jar, "OSGI-INF/l10n/bundle.properties", labels.toString());
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not generate " + file, e);
+        }
+    }
+
+    private static void write(final JarOutputStream jar, final String name, final String content) throws IOException {
+        jar.putNextEntry(new JarEntry(name));
+        jar.write(content.getBytes(StandardCharsets.UTF_8));
+        jar.closeEntry();
+    }
+
+    private static String component(final String name, final int index, final boolean changed) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<scr:component xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.2.0\" name=\"" + name + "\" " +
+                "configuration-policy=\"optional\" activate=\"activate\" deactivate=\"deactivate\">\n" +
+                "    <implementation class=\"" + name + "\"/>\n" +
+                "    <service>\n" +
+                "        <provide interface=\"" + PACKAGE + ".Service\"/>\n" +
+                "    </service>\n" +
+                "    <property name=\"service.ranking\" type=\"Integer\" value=\"" + index + "\"/>\n" +
+                "    <property name=\"timeout\" type=\"Long\" value=\"" + (changed ? 2000 : 1000) + "\"/>\n" +
+                "    <property name=\"names\" type=\"String\">\n        first\n        second\n    </property>\n" +
+                "    <reference name=\"dependency\" interface=\"" + PACKAGE + ".Dependency\" cardinality=\"0..n\" " +
+                "policy=\"dynamic\" bind=\"bindDependency\" unbind=\"unbindDependency\"/>\n" +
+                "</scr:component>\n";
+    }
+
+    private static String metaType(final String name, final boolean changed) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<metatype:MetaData xmlns:metatype=\"http://www.osgi.org/xmlns/metatype/v1.2.0\" localization=\"OSGI-INF/l10n/bundle\">\n" +
+                "    <OCD id=\"" + name + "\" name=\"%" + name + ".name\" description=\"%" + name + ".description\">\n" +
+                "        <AD id=\"timeout\" type=\"Long\" default=\"" + (changed ? 2000 : 1000) + "\" name=\"Timeout\"/>\n" +
+                "        <AD id=\"enabled\" type=\"Boolean\" default=\"true\" name=\"Enabled\"/>\n" +
+                "        <AD id=\"names\" type=\"String\" cardinality=\"10\" default=\"first,second\" name=\"Names\"/>\n" +
+                "        <AD id=\"mode\" type=\"String\" default=\"fast\" name=\"Mode\">\n" +
+                "            <Option value=\"fast\" label=\"Fast\"/>\n" +
+                "            <Option value=\"safe\" label=\"Safe\"/>\n" +
+                "        </AD>\n" +
+                "    </OCD>\n" +
+                "    <Designate pid=\"" + name + "\">\n" +
+                "        <Object ocdref=\"" + name + "\"/>\n" +
+                "    </Designate>\n" +
+                "</metatype:MetaData>\n";
+    }
+}
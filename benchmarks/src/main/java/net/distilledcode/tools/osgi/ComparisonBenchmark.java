@@ -0,0 +1,96 @@
+package net.distilledcode.tools.osgi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Comparison#visit(Comparison.Visitor)} over all components of
+ * a bundle pair, with a visitor that only consumes the events. The metadata of
+ * both bundles is read once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComparisonBenchmark {
+
+    @Param({"oak-core-1.7.8.jar:oak-core-1.7.9.jar", "generated-1000-old.jar:generated-1000-new.jar"})
+    public String bundlePair;
+
+    private MetadataDiff.BundleMetadata left;
+
+    private MetadataDiff.BundleMetadata right;
+
+    private List<String> classNames;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] names = bundlePair.split(":");
+        DiffOptions options = new DiffOptions();
+        left = MetadataDiff.BundleMetadata.read(Bundles.file(names[0]), options);
+        right = MetadataDiff.BundleMetadata.read(Bundles.file(names[1]), options);
+        classNames = new ArrayList<>(new TreeSet<>(Sets.union(left.getAllClasses(), right.getAllClasses())));
+    }
+
+    @Benchmark
+    public void visit(final Blackhole blackhole) {
+        Comparison.Visitor visitor = new ConsumingVisitor(blackhole);
+        for (final String className : classNames) {
+            Comparison.create(className, left, right).visit(visitor);
+        }
+    }
+
+    private static final class ConsumingVisitor implements Comparison.Visitor {
+
+        private final Blackhole blackhole;
+
+        ConsumingVisitor(final Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void enter(final String sectionName) {
+            blackhole.consume(sectionName);
+        }
+
+        @Override
+        public void leave(final String sectionName) {
+            blackhole.consume(sectionName);
+        }
+
+        @Override
+        public void added(final String name, final Object value) {
+            blackhole.consume(value);
+        }
+
+        @Override
+        public void changed(final String name, final Object leftValue, final Object rightValue) {
+            blackhole.consume(leftValue);
+            blackhole.consume(rightValue);
+        }
+
+        @Override
+        public void removed(final String name, final Object value) {
+            blackhole.consume(value);
+        }
+    }
+}
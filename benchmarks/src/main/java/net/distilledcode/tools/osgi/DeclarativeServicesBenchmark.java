@@ -0,0 +1,116 @@
+package net.distilledcode.tools.osgi;
+
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.xml.XmlHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+
+/**
+ * Measures reading Declarative Services metadata, both for a whole bundle and
+ * for a single Service-Component document (the first one of the bundle, or
+ * {@value #ENTRY} for oak-core). The {@code parseEntryWithNewParser}
+ * benchmark reproduces the former per-document setup (proxy bundle, parser
+ * factory lookup and parser creation) as a reference for the per-entry
+ * overhead avoided by {@code parseEntryWithReusedParser}. The {@code *Descriptions}
+ * and {@code parseEntryNative} benchmarks read the native model that is compared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeclarativeServicesBenchmark {
+
+    private static final String ENTRY = "OSGI-INF/org.apache.jackrabbit.oak.query.QueryEngineSettingsService.xml";
+
+    @Param({"oak-core-1.7.9.jar", "generated-1000-new.jar"})
+    public String bundleName;
+
+    private JarFile jarFile;
+
+    private Bundle bundle;
+
+    private BundleSource source;
+
+    private byte[] document;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        jarFile = new JarFile(Bundles.file(bundleName));
+        bundle = InvocationHandlers.getJarFileAsBundle(jarFile);
+        BundleIndex index = BundleIndex.create(jarFile);
+        source = index.getSource();
+        BundleEntry entry = index.getComponentDescriptors().stream()
+                .filter(descriptor -> descriptor.getName().equals(ENTRY))
+                .findFirst()
+                .orElse(index.getComponentDescriptors().get(0));
+        try (InputStream inputStream = index.getInputStream(entry)) {
+            document = inputStream.readAllBytes();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        jarFile.close();
+    }
+
+    @Benchmark
+    public Map<String, ComponentMetadata> readComponentMetadata() throws IOException {
+        return DeclarativeServices.readComponentMetadata(jarFile);
+    }
+
+    @Benchmark
+    public Map<String, ComponentDescription> readComponentDescriptions() throws IOException {
+        return DeclarativeServices.readComponentDescriptions(jarFile);
+    }
+
+    @Benchmark
+    public List<ComponentDescription> parseEntryNative() throws Exception {
+        return ComponentDescriptionParser.parse(new ByteArrayInputStream(document), source);
+    }
+
+    @Benchmark
+    public List<ComponentMetadata> parseEntryWithReusedParser() throws Exception {
+        return DeclarativeServices.parse(new ByteArrayInputStream(document), bundle);
+    }
+
+    @Benchmark
+    public List<ComponentMetadata> parseEntryWithNewParser() throws Exception {
+        Bundle bundle = InvocationHandlers.getJarFileAsBundle(jarFile);
+        XmlHandler handler = new XmlHandler(
+                bundle,
+                new SCRLogger(LoggerFactory.getLogger(DeclarativeServicesBenchmark.class)),
+                false,
+                false,
+                null);
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        SAXParser parser = factory.newSAXParser();
+        parser.parse(new ByteArrayInputStream(document), handler);
+        return handler.getComponentMetadataList();
+    }
+}
@@ -0,0 +1,62 @@
+package net.distilledcode.tools.osgi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+
+/**
+ * Measures calls through the proxy {@link Bundle} used while parsing
+ * Service-Component documents.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvocationHandlersBenchmark {
+
+    private JarFile jarFile;
+
+    private Bundle bundle;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        jarFile = new JarFile(Bundles.file("oak-core-1.7.9.jar"));
+        bundle = InvocationHandlers.getJarFileAsBundle(jarFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        jarFile.close();
+    }
+
+    @Benchmark
+    public String getSymbolicName() {
+        return bundle.getSymbolicName();
+    }
+
+    @Benchmark
+    public long getBundleId() {
+        return bundle.getBundleId();
+    }
+
+    @Benchmark
+    public Object getEntry() {
+        return bundle.getEntry("OSGI-INF/org.apache.jackrabbit.oak.query.QueryEngineSettingsService.xml");
+    }
+}
@@ -0,0 +1,74 @@
+package net.distilledcode.tools.osgi;
+
+import org.apache.felix.metatype.MetaData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+
+/**
+ * Measures reading MetaType metadata of a whole bundle, with and without
+ * resolving its localization properties, with felix MetaType and as the
+ * native model that is compared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetaTypeBenchmark {
+
+    @Param({"oak-core-1.7.9.jar", "generated-1000-new.jar"})
+    public String bundleName;
+
+    private JarFile jarFile;
+
+    private BundleIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        jarFile = new JarFile(Bundles.file(bundleName));
+        index = BundleIndex.create(jarFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        jarFile.close();
+    }
+
+    @Benchmark
+    public Map<String, MetaData> readMetaData() {
+        return MetaType.readMetaData(index);
+    }
+
+    @Benchmark
+    public Map<String, MetaTypeDescription> readMetaTypeDescriptions() {
+        return MetaType.readMetaTypeDescriptions(index);
+    }
+
+    @Benchmark
+    public LocalizationStore readMetaTypeDescriptionsAndLocalizations() {
+        return LocalizationStore.read(index, MetaType.readMetaTypeDescriptions(index));
+    }
+
+    @Benchmark
+    public Map<String, Properties> readMetaDataAndLocalizationProperties() {
+        return MetaType.readLocalizationProperties(index, MetaType.readMetaData(index));
+    }
+}
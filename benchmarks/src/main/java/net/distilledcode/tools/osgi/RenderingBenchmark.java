@@ -0,0 +1,67 @@
+package net.distilledcode.tools.osgi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rendering the events of a bundle pair diff. The events are recorded
+ * once per trial and replayed into a visitor that writes to a discarding writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderingBenchmark {
+
+    @Param({"oak-core-1.7.8.jar:oak-core-1.7.9.jar", "generated-1000-old.jar:generated-1000-new.jar"})
+    public String bundlePair;
+
+    private RecordingVisitor events;
+
+    private PrintWriter out;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] names = bundlePair.split(":");
+        DiffOptions options = new DiffOptions();
+        MetadataDiff.BundleMetadata left = MetadataDiff.BundleMetadata.read(Bundles.file(names[0]), options);
+        MetadataDiff.BundleMetadata right = MetadataDiff.BundleMetadata.read(Bundles.file(names[1]), options);
+        events = new RecordingVisitor();
+        for (final String className : new TreeSet<>(Sets.union(left.getAllClasses(), right.getAllClasses()))) {
+            Comparison.create(className, left, right).visit(events);
+        }
+        out = new PrintWriter(Writer.nullWriter());
+    }
+
+    @Benchmark
+    public boolean printingVisitor() {
+        PrintingVisitor visitor = new PrintingVisitor(out);
+        events.replay(visitor);
+        return visitor.hasPrintedSomething();
+    }
+
+    @Benchmark
+    public boolean jsonVisitor() {
+        JsonVisitor visitor = new JsonVisitor(out, false);
+        events.replay(visitor);
+        return visitor.hasPrintedSomething();
+    }
+}
@@ -0,0 +1,273 @@
+package net.distilledcode.tools.osgi.maven;
+
+import net.distilledcode.tools.osgi.ComponentFilter;
+import net.distilledcode.tools.osgi.DiffOptions;
+import net.distilledcode.tools.osgi.MemoryMetadataCache;
+import net.distilledcode.tools.osgi.MetadataCache;
+import net.distilledcode.tools.osgi.MetadataDiff;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.VersionRangeRequest;
+import org.eclipse.aether.resolution.VersionRangeResolutionException;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.InvalidVersionSpecificationException;
+import org.eclipse.aether.version.Version;
+
+import javax.annotation.CheckForNull;
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Diffs the bundle built by the current module against its previous release.
+ * The baseline is read through a {@link MetadataCache} shared by all builds and
+ * a {@link MemoryMetadataCache} shared by all modules of a build, so a baseline
+ * is parsed once and then only deserialized or looked up. The mojo is thread
+ * safe, so the modules of a parallel build ({@code -T}) are diffed concurrently.
+ */
+@Mojo(name = "baseline", defaultPhase = LifecyclePhase.VERIFY, threadSafe = true)
+public class BaselineMojo extends AbstractMojo {
+
+    private static final String REPORT_FILE = "osgi-ds-metatype-diff.txt";
+
+    // lives as long as the plugin's class realm, i.e. the whole build
+    private static final MemoryMetadataCache BASELINES = new MemoryMetadataCache(MemoryMetadataCache.DEFAULT_MAX_ENTRIES);
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${session}", readonly = true, required = true)
+    private MavenSession session;
+
+    @Inject
+    private RepositorySystem repositorySystem;
+
+    /**
+     * The version to diff against. Defaults to the highest release below the project version.
+     */
+    @Parameter(property = "osgi-ds-metatype-diff.baselineVersion")
+    private String baselineVersion;
+
+    /**
+     * The directory parsed baselines are cached in, keyed by their content.
+     */
+    @Parameter(property = "osgi-ds-metatype-diff.cacheDirectory",
+            defaultValue = "${settings.localRepository}/.cache/osgi-ds-metatype-diff")
+    private File cacheDirectory;
+
+    /**
+     * Only compare components whose PID or name matches one of these globs.
+     */
+    @Parameter
+    private List<String> includes = Collections.emptyList();
+
+    /**
+     * Do not compare components whose PID or name matches one of these globs.
+     */
+    @Parameter
+    private List<String> excludes = Collections.emptyList();
+
+    /**
+     * The number of threads comparing components. Defaults to one in parallel
+     * builds, where modules are diffed concurrently, and to the number of
+     * processors otherwise.
+     */
+    @Parameter(property = "osgi-ds-metatype-diff.threads", defaultValue = "0")
+    private int threads;
+
+    @Parameter(property = "osgi-ds-metatype-diff.failOnDifferences", defaultValue = "false")
+    private boolean failOnDifferences;
+
+    @Parameter(property = "osgi-ds-metatype-diff.skip", defaultValue = "false")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip) {
+            getLog().info("Skipping metadata diff");
+            return;
+        }
+        File bundle = project.getArtifact().getFile();
+        if (bundle == null || !bundle.isFile() || !bundle.getName().endsWith(".jar")) {
+            getLog().debug("No bundle was built, skipping metadata diff");
+            return;
+        }
+        File baseline = resolveBaseline();
+        if (baseline == null) {
+            getLog().info("No baseline release of " + project.getGroupId() + ":" + project.getArtifactId() + " found");
+            return;
+        }
+
+        DiffOptions options = new DiffOptions()
+                .setParallelism(getParallelism())
+                .setFilter(new ComponentFilter(includes, excludes));
+        DiffOptions baselineOptions = new DiffOptions()
+                .setFilter(options.getFilter())
+                .setCache(createCache())
+                .setMemoryCache(BASELINES);
+
+        MetadataDiff.BundleMetadata left;
+        MetadataDiff.BundleMetadata right;
+        try {
+            CompletableFuture<MetadataDiff.BundleMetadata> baselineMetadata =
+                    CompletableFuture.supplyAsync(() -> read(baseline, baselineOptions));
+            right = MetadataDiff.BundleMetadata.read(bundle, options);
+            left = baselineMetadata.join();
+        } catch (IOException | UncheckedIOException | CompletionException e) {
+            throw new MojoExecutionException("Could not read " + bundle + " or its baseline " + baseline, e);
+        }
+
+        StringWriter report = new StringWriter();
+        PrintWriter out = new PrintWriter(report);
+        boolean differences = MetadataDiff.diff(left, right, out, options.getParallelism());
+        out.flush();
+        if (!differences) {
+            getLog().info("No differences found between " + baseline.getName() + " and " + bundle.getName());
+            return;
+        }
+
+        File reportFile = new File(project.getBuild().getDirectory(), REPORT_FILE);
+        try {
+            Files.write(reportFile.toPath(), report.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            getLog().warn("Could not write " + reportFile, e);
+        }
+        getLog().warn("Metadata of " + bundle.getName() + " differs from " + baseline.getName() + ":");
+        for (final String line : report.toString().split("\\R")) {
+            getLog().warn(line);
+        }
+        if (failOnDifferences) {
+            throw new MojoFailureException("Metadata differs from " + baseline.getName() + ", see " + reportFile);
+        }
+    }
+
+    // through the project's repositories, which only go remote if their metadata is due for an update
+    @CheckForNull
+    private File resolveBaseline() throws MojoExecutionException {
+        String version = baselineVersion;
+        if (version == null) {
+            version = findPreviousRelease();
+            if (version == null) {
+                return null;
+            }
+        }
+        Artifact artifact = new DefaultArtifact(project.getGroupId(), project.getArtifactId(), "jar", version);
+        try {
+            return repositorySystem.resolveArtifact(session.getRepositorySession(),
+                    new ArtifactRequest(artifact, project.getRemoteProjectRepositories(), null)).getArtifact().getFile();
+        } catch (ArtifactResolutionException e) {
+            throw new MojoExecutionException("Could not resolve baseline " + artifact, e);
+        }
+    }
+
+    // the version range only covers versions listed in repository metadata, which
+    // is not written for artifacts downloaded as dependencies, so the local
+    // repository is listed as well
+    @CheckForNull
+    private String findPreviousRelease() throws MojoExecutionException {
+        GenericVersionScheme scheme = new GenericVersionScheme();
+        Artifact range = new DefaultArtifact(project.getGroupId(), project.getArtifactId(), "jar", "(," + project.getVersion() + ")");
+        List<Version> versions;
+        Version current;
+        try {
+            versions = new ArrayList<>(repositorySystem.resolveVersionRange(session.getRepositorySession(),
+                    new VersionRangeRequest(range, project.getRemoteProjectRepositories(), null)).getVersions());
+            current = scheme.parseVersion(project.getVersion());
+        } catch (VersionRangeResolutionException | InvalidVersionSpecificationException e) {
+            throw new MojoExecutionException("Could not resolve versions of " + range, e);
+        }
+        versions.addAll(listLocalVersions(session.getRepositorySession(), project.getGroupId(), project.getArtifactId(), getLog()));
+        return findPreviousRelease(versions, current);
+    }
+
+    /**
+     * @return the highest release in {@code versions} below {@code current}, or {@code null} if there is none
+     */
+    @CheckForNull
+    static String findPreviousRelease(final Collection<Version> versions, final Version current) {
+        Version previous = null;
+        for (final Version version : versions) {
+            if (!version.toString().endsWith("-SNAPSHOT") && version.compareTo(current) < 0
+                    && (previous == null || version.compareTo(previous) > 0)) {
+                previous = version;
+            }
+        }
+        return previous == null ? null : previous.toString();
+    }
+
+    /**
+     * @return the versions of the artifact whose jar is in the local repository
+     */
+    static List<Version> listLocalVersions(final RepositorySystemSession repositorySession, final String groupId,
+                                           final String artifactId, final Log log) {
+        GenericVersionScheme scheme = new GenericVersionScheme();
+        File baseDirectory = repositorySession.getLocalRepository().getBasedir();
+        File[] directories = new File(baseDirectory, groupId.replace('.', '/') + '/' + artifactId)
+                .listFiles(File::isDirectory);
+        if (directories == null) {
+            return Collections.emptyList();
+        }
+        List<Version> versions = new ArrayList<>();
+        for (final File directory : directories) {
+            Artifact artifact = new DefaultArtifact(groupId, artifactId, "jar", directory.getName());
+            String path = repositorySession.getLocalRepositoryManager().getPathForLocalArtifact(artifact);
+            if (new File(baseDirectory, path).isFile()) {
+                try {
+                    versions.add(scheme.parseVersion(directory.getName()));
+                } catch (InvalidVersionSpecificationException e) {
+                    log.debug("Ignoring version " + directory.getName(), e);
+                }
+            }
+        }
+        return versions;
+    }
+
+    private int getParallelism() {
+        if (threads > 0) {
+            return threads;
+        }
+        return session.isParallel() ? 1 : Runtime.getRuntime().availableProcessors();
+    }
+
+    @CheckForNull
+    private MetadataCache createCache() {
+        try {
+            return new MetadataCache(cacheDirectory);
+        } catch (IOException e) {
+            getLog().warn("Cannot use cache directory " + cacheDirectory + ", baselines are parsed on every build", e);
+            return null;
+        }
+    }
+
+    private static MetadataDiff.BundleMetadata read(final File bundle, final DiffOptions options) {
+        try {
+            return MetadataDiff.BundleMetadata.read(bundle, options);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package net.distilledcode.tools.osgi.maven;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.internal.impl.SimpleLocalRepositoryManagerFactory;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.Version;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BaselineMojoTest {
+
+    private static final GenericVersionScheme SCHEME = new GenericVersionScheme();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsHighestReleaseBelowCurrentVersion() throws Exception {
+        List<Version> versions = versions("1.0", "1.10", "1.2", "1.11-SNAPSHOT", "1.11", "2.0");
+
+        assertThat(BaselineMojo.findPreviousRelease(versions, SCHEME.parseVersion("1.11-SNAPSHOT")), equalTo("1.10"));
+        assertThat(BaselineMojo.findPreviousRelease(versions, SCHEME.parseVersion("1.11")), equalTo("1.10"));
+        assertThat(BaselineMojo.findPreviousRelease(versions, SCHEME.parseVersion("3")), equalTo("2.0"));
+        assertThat(BaselineMojo.findPreviousRelease(versions, SCHEME.parseVersion("1.0")), nullValue());
+        assertThat(BaselineMojo.findPreviousRelease(Collections.emptyList(), SCHEME.parseVersion("1.0")), nullValue());
+    }
+
+    @Test
+    public void listsLocalVersionsWithJar() throws Exception {
+        File repository = folder.newFolder("repository");
+        jar(repository, "1.0");
+        jar(repository, "1.1-SNAPSHOT");
+        // only the pom was downloaded, e.g. as the parent of another artifact
+        File pomOnly = new File(repository, "org/example/bundle/1.2");
+        pomOnly.mkdirs();
+        new File(pomOnly, "bundle-1.2.pom").createNewFile();
+
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        session.setLocalRepositoryManager(new SimpleLocalRepositoryManagerFactory()
+                .newInstance(session, new LocalRepository(repository)));
+
+        Set<String> versions = new TreeSet<>();
+        for (final Version version : BaselineMojo.listLocalVersions(session, "org.example", "bundle", new SystemStreamLog())) {
+            versions.add(version.toString());
+        }
+        assertThat(versions, equalTo(new TreeSet<>(List.of("1.0", "1.1-SNAPSHOT"))));
+        assertThat(BaselineMojo.listLocalVersions(session, "org.example", "other", new SystemStreamLog()), equalTo(Collections.emptyList()));
+    }
+
+    private static void jar(final File repository, final String version) throws IOException {
+        File directory = new File(repository, "org/example/bundle/" + version);
+        directory.mkdirs();
+        new File(directory, "bundle-" + version + ".jar").createNewFile();
+    }
+
+    private static List<Version> versions(final String... versions) throws Exception {
+        List<Version> parsed = new ArrayList<>();
+        for (final String version : versions) {
+            parsed.add(SCHEME.parseVersion(version));
+        }
+        return parsed;
+    }
+}
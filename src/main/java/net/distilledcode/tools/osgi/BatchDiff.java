@@ -0,0 +1,237 @@
+package net.distilledcode.tools.osgi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Manifest;
+
+/**
+ * Diffs many bundle pairs in one JVM. Bundles from the left and right side
+ * are paired by their {@code Bundle-SymbolicName} and each pair is diffed on
+ * a bounded worker pool. The per-pair reports are aggregated in symbolic name
+ * order, so the output does not depend on scheduling.
+ * <p>
+ * Pairs are submitted in that order as well, with at most twice as many pairs
+ * in flight as there are workers, and each report is released once printed, so
+ * only the reports of the pairs in flight are held in memory. The report of a
+ * single pair is buffered until all of its components are compared.
+ */
+public class BatchDiff {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchDiff.class);
+
+    private static final String BUNDLE_SYMBOLIC_NAME = "Bundle-SymbolicName";
+
+    /**
+     * Diffs all bundles in {@code left} against the bundles with the same
+     * symbolic name in {@code right}, diffing up to {@link DiffOptions#getParallelism()}
+     * pairs concurrently.
+     *
+     * @return {@code true} if any pair differs or any bundle has no counterpart
+     */
+    public static boolean diff(final List<File> left, final List<File> right,
+                               final DiffOptions options, final PrintWriter out) throws IOException {
+        Map<String, File> leftBundles = bySymbolicName(left);
+        Map<String, File> rightBundles = bySymbolicName(right);
+
+        List<String> pairs = new ArrayList<>(new TreeSet<>(Sets.intersection(leftBundles.keySet(), rightBundles.keySet())));
+        // pairs submitted but not printed yet, in symbolic name order
+        Deque<Map.Entry<String, Future<RecordingVisitor>>> inFlight = new ArrayDeque<>();
+        int maxInFlight = 2 * options.getParallelism();
+        ExecutorService executor = Executors.newFixedThreadPool(options.getParallelism());
+        try {
+            JsonVisitor json = options.getFormat() == OutputFormat.TEXT ? null : new JsonVisitor(out, options.getFormat() == OutputFormat.JSON);
+            int differing = 0;
+            Iterator<String> next = pairs.iterator();
+            while (next.hasNext() || !inFlight.isEmpty()) {
+                while (inFlight.size() < maxInFlight && next.hasNext()) {
+                    String symbolicName = next.next();
+                    File leftFile = leftBundles.get(symbolicName);
+                    File rightFile = rightBundles.get(symbolicName);
+                    inFlight.add(new SimpleImmutableEntry<>(symbolicName, executor.submit(() -> diffPair(leftFile, rightFile, options))));
+                }
+                Map.Entry<String, Future<RecordingVisitor>> entry = inFlight.remove();
+                RecordingVisitor report = getReport(entry.getKey(), entry.getValue());
+                if (report == null) {
+                    continue;
+                }
+                differing++;
+                Timings.Timer timer = Timings.start(Timings.Phase.OUTPUT, entry.getKey(), null, null);
+                try {
+                    if (json != null) {
+                        json.setBundle(entry.getKey());
+                        report.replay(json);
+                    } else {
+                        out.append("Bundle ").append(entry.getKey()).append(": ")
+                                .append(leftBundles.get(entry.getKey()).getPath()).append(" <-> ")
+                                .append(rightBundles.get(entry.getKey()).getPath()).println();
+                        out.println();
+                        report.replay(new PrintingVisitor(out));
+                    }
+                } finally {
+                    timer.close();
+                }
+            }
+
+            if (json != null) {
+                int onlyLeft = emitUnpaired(json, false, leftBundles, rightBundles);
+                int onlyRight = emitUnpaired(json, true, rightBundles, leftBundles);
+                json.close();
+                return differing + onlyLeft + onlyRight > 0;
+            }
+
+            int onlyLeft = printUnpaired(out, "Only in old: ", leftBundles, rightBundles);
+            int onlyRight = printUnpaired(out, "Only in new: ", rightBundles, leftBundles);
+
+            out.append("Compared ").print(pairs.size());
+            out.append(" bundle pairs, ").print(differing);
+            out.append(" with differences, ").print(onlyLeft);
+            out.append(" only in old, ").print(onlyRight);
+            out.println(" only in new");
+            out.flush();
+            return differing + onlyLeft + onlyRight > 0;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Expands a command line argument into a list of bundle files. The argument
+     * may be a directory, whose {@code *.jar} files are used, or a list of
+     * files separated by {@link File#pathSeparator}. Exploded bundles are
+     * used as they are.
+     */
+    public static List<File> listBundles(final String argument) {
+        return listBundles(argument, null);
+    }
+
+    /**
+     * @param workingDirectory the directory relative paths are resolved against,
+     *                         or {@code null} for the working directory of this process
+     */
+    static List<File> listBundles(final String argument, @CheckForNull final File workingDirectory) {
+        List<File> bundles = new ArrayList<>();
+        for (final String path : argument.split(File.pathSeparator)) {
+            if (path.isEmpty()) {
+                continue;
+            }
+            File file = resolve(workingDirectory, path);
+            if (file.isDirectory() && !DirectoryBundleSource.isBundle(file)) {
+                File[] jars = file.listFiles((dir, name) -> name.endsWith(".jar"));
+                if (jars != null) {
+                    Arrays.sort(jars);
+                    bundles.addAll(Arrays.asList(jars));
+                }
+            } else {
+                bundles.add(file);
+            }
+        }
+        return bundles;
+    }
+
+    static File resolve(@CheckForNull final File workingDirectory, final String path) {
+        File file = new File(path);
+        return workingDirectory == null || file.isAbsolute() ? file : new File(workingDirectory, path);
+    }
+
+    @CheckForNull
+    private static RecordingVisitor diffPair(final File left, final File right, final DiffOptions options) throws IOException {
+        RecordingVisitor report = new RecordingVisitor();
+        boolean differences = MetadataDiff.diffBundles(left, right, options, report, 1);
+        return differences ? report : null;
+    }
+
+    @CheckForNull
+    private static RecordingVisitor getReport(final String symbolicName, final Future<RecordingVisitor> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while diffing bundle '" + symbolicName + "'", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not diff bundle '" + symbolicName + "'", e.getCause());
+        }
+    }
+
+    private static int printUnpaired(final PrintWriter out, final String prefix, final Map<String, File> bundles, final Map<String, File> others) {
+        int count = 0;
+        for (final Map.Entry<String, File> entry : bundles.entrySet()) {
+            if (!others.containsKey(entry.getKey())) {
+                out.append(prefix).append(entry.getKey()).append(" (").append(entry.getValue().getPath()).println(")");
+                count++;
+            }
+        }
+        if (count > 0) {
+            out.println();
+        }
+        return count;
+    }
+
+    // bundles without counterpart are reported as a removed or added "bundle" value without section path
+    private static int emitUnpaired(final JsonVisitor json, final boolean added, final Map<String, File> bundles, final Map<String, File> others) {
+        int count = 0;
+        for (final Map.Entry<String, File> entry : bundles.entrySet()) {
+            if (!others.containsKey(entry.getKey())) {
+                json.setBundle(entry.getKey());
+                if (added) {
+                    json.added("bundle", entry.getValue().getPath());
+                } else {
+                    json.removed("bundle", entry.getValue().getPath());
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Map<String, File> bySymbolicName(final List<File> bundles) throws IOException {
+        Map<String, File> bySymbolicName = new TreeMap<>();
+        for (final File bundle : bundles) {
+            String symbolicName = getSymbolicName(bundle);
+            if (symbolicName == null) {
+                LOG.warn("Ignoring '{}', it has no '{}' header.", bundle, BUNDLE_SYMBOLIC_NAME);
+                continue;
+            }
+            File previous = bySymbolicName.put(symbolicName, bundle);
+            if (previous != null && !Objects.equals(previous, bundle)) {
+                throw new IOException("Bundles '" + previous + "' and '" + bundle + "' have the same symbolic name '" + symbolicName + "'");
+            }
+        }
+        return bySymbolicName;
+    }
+
+    @CheckForNull
+    static String getSymbolicName(final File bundle) throws IOException {
+        try (BundleSource source = BundleSource.open(bundle, new DiffOptions())) {
+            Manifest manifest = source.getManifest();
+            if (manifest == null) {
+                return null;
+            }
+            String symbolicName = manifest.getMainAttributes().getValue(BUNDLE_SYMBOLIC_NAME);
+            if (symbolicName == null) {
+                return null;
+            }
+            int parameters = symbolicName.indexOf(';');
+            return (parameters < 0 ? symbolicName : symbolicName.substring(0, parameters)).trim();
+        }
+    }
+}
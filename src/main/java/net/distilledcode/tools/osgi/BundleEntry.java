@@ -0,0 +1,49 @@
+package net.distilledcode.tools.osgi;
+
+/**
+ * A file entry of a {@link BundleSource}. Sizes and checksums are taken from
+ * the source's directory (e.g. the zip central directory) without reading the
+ * entry's content.
+ */
+public class BundleEntry {
+
+    static final long UNKNOWN = -1;
+
+    private final String name;
+
+    private final long size;
+
+    private final long crc;
+
+    public BundleEntry(final String name, final long size, final long crc) {
+        this.name = name;
+        this.size = size;
+        this.crc = crc;
+    }
+
+    /**
+     * @return the path of the entry relative to the bundle root, using '/' as separator
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the uncompressed size of the entry, or {@code -1} if unknown
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the CRC-32 of the uncompressed entry, or {@code -1} if unknown
+     */
+    public long getCrc() {
+        return crc;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,278 @@
+package net.distilledcode.tools.osgi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Index of the metadata related entries of a bundle, built from a single pass
+ * over the entries of its {@link BundleSource}.
+ * <p>
+ * Entries are classified as Declarative Services descriptors (as referenced by
+ * the {@code Service-Component} header, including wildcards in the last path
+ * segment), MetaType descriptors ({@code OSGI-INF/metatype/*.xml}) and
+ * {@code .properties} files, which may hold MetaType localizations.
+ * <p>
+ * Exploded bundles (see {@link BundleSource#isExploded()}) are not enumerated:
+ * descriptors are looked up by their paths and directories, and properties
+ * files only when they are requested.
+ */
+public class BundleIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BundleIndex.class);
+
+    static final String SERVICE_COMPONENT = "Service-Component";
+
+    static final String METATYPE_DIRECTORY = "OSGI-INF/metatype/";
+
+    private final BundleSource source;
+
+    private final Manifest manifest;
+
+    private final List<BundleEntry> componentDescriptors;
+
+    private final List<BundleEntry> metaTypeDescriptors;
+
+    // null if properties files are looked up in the source when requested
+    private final Map<String, BundleEntry> propertiesFiles;
+
+    private BundleIndex(final BundleSource source, final Manifest manifest, final List<BundleEntry> componentDescriptors,
+                        final List<BundleEntry> metaTypeDescriptors, @CheckForNull final Map<String, BundleEntry> propertiesFiles) {
+        this.source = source;
+        this.manifest = manifest;
+        this.componentDescriptors = Collections.unmodifiableList(componentDescriptors);
+        this.metaTypeDescriptors = Collections.unmodifiableList(metaTypeDescriptors);
+        this.propertiesFiles = propertiesFiles == null ? null : Collections.unmodifiableMap(propertiesFiles);
+    }
+
+    public static BundleIndex create(final JarFile jarFile) throws IOException {
+        return create(new JarFileBundleSource(jarFile));
+    }
+
+    public static BundleIndex create(final BundleSource source) throws IOException {
+        Timings.Timer timer = Timings.start(Timings.Phase.INDEX, source.getName(), null, null);
+        try {
+            return index(source);
+        } finally {
+            timer.close();
+        }
+    }
+
+    private static BundleIndex index(final BundleSource source) throws IOException {
+        Manifest manifest = source.getManifest();
+        if (manifest == null) {
+            throw new IOException("Bundle at " + source.getName() + " does not contain the mandatory manifest file");
+        }
+
+        String serviceComponents = manifest.getMainAttributes().getValue(SERVICE_COMPONENT);
+        Map<String, List<BundleEntry>> componentDescriptorsByPath = new LinkedHashMap<>();
+        Map<String, Pattern> wildcardPaths = new HashMap<>();
+        if (serviceComponents != null) {
+            for (final String path : parseServiceComponentHeader(serviceComponents)) {
+                componentDescriptorsByPath.put(path, new ArrayList<>(1));
+                if (path.indexOf('*') >= 0) {
+                    wildcardPaths.put(path, toPattern(path));
+                }
+            }
+        }
+
+        List<BundleEntry> metaTypeDescriptors = new ArrayList<>();
+        if (source.isExploded()) {
+            for (final Map.Entry<String, List<BundleEntry>> path : componentDescriptorsByPath.entrySet()) {
+                Pattern wildcard = wildcardPaths.get(path.getKey());
+                if (wildcard == null) {
+                    BundleEntry entry = source.getEntry(path.getKey());
+                    if (entry != null) {
+                        path.getValue().add(entry);
+                    }
+                } else {
+                    String directory = getDirectory(path.getKey());
+                    source.forEachEntry(directory, name -> wildcard.matcher(directory + name).matches(), path.getValue()::add);
+                }
+            }
+            source.forEachEntry(METATYPE_DIRECTORY, name -> name.endsWith(".xml"), metaTypeDescriptors::add);
+            metaTypeDescriptors.sort(Comparator.comparing(BundleEntry::getName));
+            return new BundleIndex(source, manifest, collectComponentDescriptors(source, componentDescriptorsByPath),
+                    metaTypeDescriptors, null);
+        }
+
+        Map<String, BundleEntry> propertiesFiles = new HashMap<>();
+        source.forEachEntry(entry -> {
+            String name = entry.getName();
+            List<BundleEntry> componentDescriptors = componentDescriptorsByPath.get(name);
+            if (componentDescriptors != null) {
+                componentDescriptors.add(entry);
+            }
+            if (!wildcardPaths.isEmpty()) {
+                for (final Map.Entry<String, Pattern> wildcardPath : wildcardPaths.entrySet()) {
+                    if (wildcardPath.getValue().matcher(name).matches()) {
+                        componentDescriptorsByPath.get(wildcardPath.getKey()).add(entry);
+                    }
+                }
+            }
+            if (name.startsWith(METATYPE_DIRECTORY) && name.endsWith(".xml")) {
+                metaTypeDescriptors.add(entry);
+            } else if (name.endsWith(".properties")) {
+                propertiesFiles.put(name, entry);
+            }
+        });
+
+        return new BundleIndex(source, manifest, collectComponentDescriptors(source, componentDescriptorsByPath),
+                metaTypeDescriptors, propertiesFiles);
+    }
+
+    /**
+     * @return a copy of this index without the component and MetaType descriptors in {@code paths}
+     */
+    public BundleIndex withoutDescriptors(final Set<String> paths) {
+        if (paths.isEmpty()) {
+            return this;
+        }
+        return new BundleIndex(source, manifest,
+                componentDescriptors.stream().filter(entry -> !paths.contains(entry.getName())).collect(Collectors.toList()),
+                metaTypeDescriptors.stream().filter(entry -> !paths.contains(entry.getName())).collect(Collectors.toList()),
+                propertiesFiles);
+    }
+
+    public BundleSource getSource() {
+        return source;
+    }
+
+    public String getName() {
+        return source.getName();
+    }
+
+    public Manifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * @return {@code true} if the bundle's manifest contains a {@code Service-Component} header
+     */
+    public boolean hasServiceComponentHeader() {
+        return manifest.getMainAttributes().getValue(SERVICE_COMPONENT) != null;
+    }
+
+    /**
+     * @return the Declarative Services descriptors in the order of the {@code Service-Component} header
+     */
+    public List<BundleEntry> getComponentDescriptors() {
+        return componentDescriptors;
+    }
+
+    /**
+     * @return the MetaType descriptors in jar order, or in name order for exploded bundles
+     */
+    public List<BundleEntry> getMetaTypeDescriptors() {
+        return metaTypeDescriptors;
+    }
+
+    @CheckForNull
+    public BundleEntry getPropertiesFile(final String path) {
+        if (propertiesFiles != null) {
+            return propertiesFiles.get(path);
+        }
+        try {
+            return path.endsWith(".properties") ? source.getEntry(path) : null;
+        } catch (IOException e) {
+            LOG.warn("Error looking up '{}' in '{}'", path, source.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the paths and entries of the localization resources of {@code prefix}, i.e.
+     *         {@code <prefix>.properties} and its locale variants such as {@code <prefix>_de.properties}
+     */
+    public Map<String, BundleEntry> getLocalizationFiles(final String prefix) {
+        Map<String, BundleEntry> files = new TreeMap<>();
+        if (propertiesFiles == null) {
+            String directory = getDirectory(prefix);
+            String baseName = prefix.substring(directory.length());
+            try {
+                source.forEachEntry(directory, name -> name.endsWith(".properties") && isLocalizationFile(baseName, name),
+                        entry -> files.put(entry.getName(), entry));
+            } catch (IOException e) {
+                LOG.warn("Error listing the localization files '{}' in '{}'", prefix, source.getName(), e);
+            }
+            return files;
+        }
+        for (final Map.Entry<String, BundleEntry> file : propertiesFiles.entrySet()) {
+            if (isLocalizationFile(prefix, file.getKey())) {
+                files.put(file.getKey(), file.getValue());
+            }
+        }
+        return files;
+    }
+
+    // path is a properties file
+    private static boolean isLocalizationFile(final String prefix, final String path) {
+        // a prefix ending in .properties, a common mistake, names no localization file
+        return path.startsWith(prefix) && path.length() > prefix.length()
+                && (path.length() == prefix.length() + ".properties".length() || path.charAt(prefix.length()) == '_');
+    }
+
+    private static String getDirectory(final String path) {
+        return path.substring(0, path.lastIndexOf('/') + 1);
+    }
+
+    public InputStream getInputStream(final BundleEntry entry) throws IOException {
+        return source.getInputStream(entry);
+    }
+
+    static List<String> parseServiceComponentHeader(final String header) {
+        List<String> paths = new ArrayList<>();
+        for (final String clause : header.split(",")) {
+            int parameters = clause.indexOf(';');
+            String path = (parameters < 0 ? clause : clause.substring(0, parameters)).trim();
+            if (!path.isEmpty()) {
+                paths.add(path.startsWith("/") ? path.substring(1) : path);
+            }
+        }
+        return paths;
+    }
+
+    // wildcards are only allowed in the last path segment and never match across directories
+    private static Pattern toPattern(final String path) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = path.indexOf('*'); i >= 0; i = path.indexOf('*', start)) {
+            regex.append(Pattern.quote(path.substring(start, i))).append("[^/]*");
+            start = i + 1;
+        }
+        regex.append(Pattern.quote(path.substring(start)));
+        return Pattern.compile(regex.toString());
+    }
+
+    private static List<BundleEntry> collectComponentDescriptors(final BundleSource source, final Map<String, List<BundleEntry>> componentDescriptorsByPath) {
+        Map<String, BundleEntry> componentDescriptors = new LinkedHashMap<>();
+        for (final Map.Entry<String, List<BundleEntry>> entry : componentDescriptorsByPath.entrySet()) {
+            List<BundleEntry> matches = entry.getValue();
+            if (matches.isEmpty()) {
+                LOG.warn("The Service-Component '{}' in '{}' does not match any entry.", entry.getKey(), source.getName());
+                continue;
+            }
+            matches.sort(Comparator.comparing(BundleEntry::getName));
+            for (final BundleEntry match : matches) {
+                componentDescriptors.putIfAbsent(match.getName(), match);
+            }
+        }
+        return new ArrayList<>(componentDescriptors.values());
+    }
+}
@@ -0,0 +1,536 @@
+package net.distilledcode.tools.osgi;
+
+import net.distilledcode.tools.osgi.ComponentDescription.Reference;
+import net.distilledcode.tools.osgi.ComponentDescription.Scope;
+import net.distilledcode.tools.osgi.ComponentDescription.Service;
+import net.distilledcode.tools.osgi.MetaTypeDescription.AttributeDefinition;
+import net.distilledcode.tools.osgi.MetaTypeDescription.Designate;
+import net.distilledcode.tools.osgi.MetaTypeDescription.ObjectClassDefinition;
+
+import javax.annotation.CheckForNull;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of {@link MetadataDiff.BundleMetadata}, used by {@link MetadataCache}.
+ * <p>
+ * The {@link ComponentDescription}s and {@link MetaTypeDescription}s are written field
+ * by field. All strings are written once to a string table, as length prefixed UTF-8,
+ * and referenced by index. Property values are tagged with their type, as the type of
+ * a value is part of the diff output.
+ */
+class BundleMetadataSerializer {
+
+    static final int FORMAT_VERSION = 3;
+
+    private static final int MAGIC = 0x4f444d44; // "ODMD"
+
+    private static final int NULL = -1;
+
+    // property value tags, arrays are primitive except for strings
+    private static final int STRING = 0;
+    private static final int BOOLEAN = 1;
+    private static final int BYTE = 2;
+    private static final int SHORT = 3;
+    private static final int INTEGER = 4;
+    private static final int LONG = 5;
+    private static final int FLOAT = 6;
+    private static final int DOUBLE = 7;
+    private static final int CHARACTER = 8;
+    private static final int ARRAY = 16;
+
+    private static final Scope[] SCOPES = Scope.values();
+
+    static void write(final MetadataDiff.BundleMetadata bundleMetadata, final DataOutputStream out) throws IOException {
+        List<ComponentDescription> components = unique(bundleMetadata.getDeclarativeServicesMap().values());
+        List<MetaTypeDescription> metaTypes = unique(bundleMetadata.getMetaTypeMap().values());
+        LocalizationStore localizations = bundleMetadata.getLocalizations();
+
+        // the body is written first, so that the string table only holds the strings it references
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Writer writer = new Writer(new DataOutputStream(buffer));
+        writer.out.writeInt(components.size());
+        for (final ComponentDescription component : components) {
+            writer.writeComponent(component);
+        }
+        writer.out.writeInt(metaTypes.size());
+        for (final MetaTypeDescription metaType : metaTypes) {
+            writer.writeMetaType(metaType);
+        }
+
+        // localization resources are stored unparsed, like in the bundle
+        writer.out.writeInt(localizations == null ? NULL : localizations.getPrefixes().size());
+        if (localizations != null) {
+            for (final Map.Entry<String, String> entry : localizations.getPrefixes().entrySet()) {
+                writer.writeString(entry.getKey());
+                writer.writeString(entry.getValue());
+            }
+            writer.out.writeInt(localizations.getResources().size());
+            for (final Map.Entry<String, byte[]> entry : localizations.getResources().entrySet()) {
+                writer.writeString(entry.getKey());
+                writer.out.writeInt(entry.getValue().length);
+                writer.out.write(entry.getValue());
+            }
+        }
+        writer.out.flush();
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(writer.strings.size());
+        for (final String string : writer.strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        buffer.writeTo(out);
+    }
+
+    /**
+     * @return the deserialized metadata, or {@code null} if the data was written in an unsupported format
+     */
+    @CheckForNull
+    static MetadataDiff.BundleMetadata read(final DataInputStream in, final boolean resolveFromLocalizationProperties) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        // all strings are read from the table, so canonicalizing it covers the whole bundle
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            strings[i] = StringPool.SHARED.intern(new String(bytes, StandardCharsets.UTF_8));
+        }
+        Reader reader = new Reader(in, strings);
+
+        int componentCount = in.readInt();
+        List<ComponentDescription> components = new ArrayList<>(componentCount);
+        for (int i = 0; i < componentCount; i++) {
+            components.add(reader.readComponent());
+        }
+
+        int metaTypeCount = in.readInt();
+        List<MetaTypeDescription> metaTypes = new ArrayList<>(metaTypeCount);
+        for (int i = 0; i < metaTypeCount; i++) {
+            metaTypes.add(reader.readMetaType());
+        }
+
+        LocalizationStore localizations = null;
+        int prefixCount = in.readInt();
+        if (prefixCount != NULL) {
+            Map<String, String> prefixes = new HashMap<>();
+            for (int i = 0; i < prefixCount; i++) {
+                prefixes.put(reader.readString(), reader.readString());
+            }
+            int resourceCount = in.readInt();
+            Map<String, byte[]> resources = new HashMap<>();
+            for (int i = 0; i < resourceCount; i++) {
+                String path = reader.readString();
+                byte[] content = new byte[in.readInt()];
+                in.readFully(content);
+                resources.put(path, content);
+            }
+            localizations = new LocalizationStore(prefixes, resources);
+        }
+
+        return new MetadataDiff.BundleMetadata(
+                DeclarativeServices.toComponentDescriptionMap(components),
+                MetaType.toMetaTypeDescriptionMap(metaTypes),
+                resolveFromLocalizationProperties ? localizations : null);
+    }
+
+    private static <T> List<T> unique(final Collection<T> values) {
+        Map<T, Boolean> unique = new IdentityHashMap<>();
+        List<T> list = new ArrayList<>();
+        for (final T value : values) {
+            if (unique.put(value, Boolean.TRUE) == null) {
+                list.add(value);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Writes the body and collects the string table it refers to.
+     */
+    private static final class Writer {
+
+        private final DataOutputStream out;
+
+        // string -> index, in the order of first use
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+
+        Writer(final DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeComponent(final ComponentDescription component) throws IOException {
+            writeString(component.getName());
+            out.writeBoolean(component.isEnabled());
+            out.writeBoolean(component.isConfigurationPidDeclared());
+            writeStrings(component.getConfigurationPid().toArray(new String[0]));
+            writeString(component.getConfigurationPolicy());
+            writeString(component.getActivate());
+            writeString(component.getModified());
+            writeString(component.getDeactivate());
+            writeString(component.getFactoryIdentifier());
+            out.writeInt(component.getProperties().size());
+            for (final Map.Entry<String, Object> property : component.getProperties().entrySet()) {
+                writeString(property.getKey());
+                writeValue(property.getValue());
+            }
+            Service service = component.getService();
+            out.writeBoolean(service != null);
+            if (service != null) {
+                out.writeByte(service.getScope().ordinal());
+                writeStrings(service.getProvides());
+            }
+            out.writeInt(component.getReferences().size());
+            for (final Reference reference : component.getReferences()) {
+                writeString(reference.getName());
+                writeString(reference.getInterface());
+                writeString(reference.getCardinality());
+                writeString(reference.getBind());
+                writeString(reference.getUnbind());
+                writeString(reference.getUpdated());
+                writeString(reference.getField());
+                writeString(reference.getFieldOption());
+                writeString(reference.getCollectionType());
+            }
+            writeString(component.getImplementationClassName());
+        }
+
+        void writeMetaType(final MetaTypeDescription metaType) throws IOException {
+            writeString(metaType.getNamespace());
+            writeString(metaType.getLocalePrefix());
+            out.writeInt(metaType.getObjectClassDefinitions().size());
+            for (final ObjectClassDefinition ocd : metaType.getObjectClassDefinitions().values()) {
+                writeString(ocd.getId());
+                writeString(ocd.getName());
+                writeString(ocd.getDescription());
+                out.writeInt(ocd.getAttributeDefinitions().size());
+                for (final AttributeDefinition ad : ocd.getAttributeDefinitions().values()) {
+                    writeString(ad.getId());
+                    writeString(ad.getName());
+                    writeString(ad.getDescription());
+                    out.writeInt(ad.getType());
+                    out.writeInt(ad.getCardinality());
+                    writeStrings(ad.getDefaultValue());
+                    writeString(ad.getMin());
+                    writeString(ad.getMax());
+                    writeStrings(ad.getOptionLabels());
+                    writeStrings(ad.getOptionValues());
+                }
+            }
+            out.writeInt(metaType.getDesignates().size());
+            for (final Designate designate : metaType.getDesignates()) {
+                writeString(designate.getPid());
+                writeString(designate.getFactoryPid());
+                writeString(designate.getBundleLocation());
+                out.writeBoolean(designate.isMerge());
+                out.writeBoolean(designate.isOptional());
+                writeString(designate.getOcdRef());
+            }
+        }
+
+        private void writeValue(final Object value) throws IOException {
+            if (value instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof Byte) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) value);
+            } else if (value instanceof Short) {
+                out.writeByte(SHORT);
+                out.writeShort((Short) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Character) {
+                out.writeByte(CHARACTER);
+                out.writeChar((Character) value);
+            } else if (value instanceof String[]) {
+                out.writeByte(ARRAY | STRING);
+                writeStrings((String[]) value);
+            } else if (value instanceof boolean[]) {
+                boolean[] array = (boolean[]) value;
+                out.writeByte(ARRAY | BOOLEAN);
+                out.writeInt(array.length);
+                for (final boolean element : array) {
+                    out.writeBoolean(element);
+                }
+            } else if (value instanceof byte[]) {
+                byte[] array = (byte[]) value;
+                out.writeByte(ARRAY | BYTE);
+                out.writeInt(array.length);
+                out.write(array);
+            } else if (value instanceof short[]) {
+                short[] array = (short[]) value;
+                out.writeByte(ARRAY | SHORT);
+                out.writeInt(array.length);
+                for (final short element : array) {
+                    out.writeShort(element);
+                }
+            } else if (value instanceof int[]) {
+                int[] array = (int[]) value;
+                out.writeByte(ARRAY | INTEGER);
+                out.writeInt(array.length);
+                for (final int element : array) {
+                    out.writeInt(element);
+                }
+            } else if (value instanceof long[]) {
+                long[] array = (long[]) value;
+                out.writeByte(ARRAY | LONG);
+                out.writeInt(array.length);
+                for (final long element : array) {
+                    out.writeLong(element);
+                }
+            } else if (value instanceof float[]) {
+                float[] array = (float[]) value;
+                out.writeByte(ARRAY | FLOAT);
+                out.writeInt(array.length);
+                for (final float element : array) {
+                    out.writeFloat(element);
+                }
+            } else if (value instanceof double[]) {
+                double[] array = (double[]) value;
+                out.writeByte(ARRAY | DOUBLE);
+                out.writeInt(array.length);
+                for (final double element : array) {
+                    out.writeDouble(element);
+                }
+            } else if (value instanceof char[]) {
+                char[] array = (char[]) value;
+                out.writeByte(ARRAY | CHARACTER);
+                out.writeInt(array.length);
+                for (final char element : array) {
+                    out.writeChar(element);
+                }
+            } else {
+                throw new IOException("Unsupported property value type " + value.getClass().getName());
+            }
+        }
+
+        void writeString(@CheckForNull final String string) throws IOException {
+            if (string == null) {
+                out.writeInt(NULL);
+                return;
+            }
+            Integer index = strings.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.put(string, index);
+            }
+            out.writeInt(index);
+        }
+
+        private void writeStrings(@CheckForNull final String[] values) throws IOException {
+            out.writeInt(values == null ? NULL : values.length);
+            if (values != null) {
+                for (final String value : values) {
+                    writeString(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the body, resolving strings from the string table.
+     */
+    private static final class Reader {
+
+        private final DataInputStream in;
+
+        private final String[] strings;
+
+        Reader(final DataInputStream in, final String[] strings) {
+            this.in = in;
+            this.strings = strings;
+        }
+
+        ComponentDescription readComponent() throws IOException {
+            String name = readString();
+            boolean enabled = in.readBoolean();
+            boolean configurationPidDeclared = in.readBoolean();
+            String[] configurationPid = readStrings();
+            // the type of the list is part of the diff output
+            List<String> configurationPids = configurationPidDeclared
+                    ? new ArrayList<>(Arrays.asList(configurationPid))
+                    : Collections.singletonList(configurationPid[0]);
+            String configurationPolicy = readString();
+            String activate = readString();
+            String modified = readString();
+            String deactivate = readString();
+            String factoryIdentifier = readString();
+            int propertyCount = in.readInt();
+            Map<String, Object> properties = new LinkedHashMap<>();
+            for (int i = 0; i < propertyCount; i++) {
+                properties.put(readString(), readValue());
+            }
+            Service service = null;
+            if (in.readBoolean()) {
+                Scope scope = SCOPES[in.readByte()];
+                service = new Service(scope, readStrings());
+            }
+            int referenceCount = in.readInt();
+            List<Reference> references = new ArrayList<>(referenceCount);
+            for (int i = 0; i < referenceCount; i++) {
+                references.add(new Reference(readString(), readString(), readString(), readString(), readString(),
+                        readString(), readString(), readString(), readString()));
+            }
+            return new ComponentDescription(name, enabled, configurationPids, configurationPidDeclared, configurationPolicy,
+                    activate, modified, deactivate, factoryIdentifier, properties, service, references, readString());
+        }
+
+        MetaTypeDescription readMetaType() throws IOException {
+            String namespace = readString();
+            String localePrefix = readString();
+            int ocdCount = in.readInt();
+            Map<String, ObjectClassDefinition> ocds = new LinkedHashMap<>();
+            for (int i = 0; i < ocdCount; i++) {
+                String id = readString();
+                String name = readString();
+                String description = readString();
+                int adCount = in.readInt();
+                Map<String, AttributeDefinition> ads = new LinkedHashMap<>();
+                for (int j = 0; j < adCount; j++) {
+                    AttributeDefinition ad = new AttributeDefinition(readString(), readString(), readString(),
+                            in.readInt(), in.readInt(), readStrings(), readString(), readString(), readStrings(), readStrings());
+                    ads.put(ad.getId(), ad);
+                }
+                ocds.put(id, new ObjectClassDefinition(id, name, description, ads));
+            }
+            int designateCount = in.readInt();
+            List<Designate> designates = new ArrayList<>(designateCount);
+            for (int i = 0; i < designateCount; i++) {
+                designates.add(new Designate(readString(), readString(), readString(),
+                        in.readBoolean(), in.readBoolean(), readString()));
+            }
+            return new MetaTypeDescription(namespace, localePrefix, ocds, designates);
+        }
+
+        private Object readValue() throws IOException {
+            int tag = in.readByte();
+            switch (tag) {
+                case STRING:
+                    return readString();
+                case BOOLEAN:
+                    return in.readBoolean();
+                case BYTE:
+                    return in.readByte();
+                case SHORT:
+                    return in.readShort();
+                case INTEGER:
+                    return in.readInt();
+                case LONG:
+                    return in.readLong();
+                case FLOAT:
+                    return in.readFloat();
+                case DOUBLE:
+                    return in.readDouble();
+                case CHARACTER:
+                    return in.readChar();
+                case ARRAY | STRING:
+                    return readStrings();
+                case ARRAY | BOOLEAN: {
+                    boolean[] array = new boolean[in.readInt()];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = in.readBoolean();
+                    }
+                    return array;
+                }
+                case ARRAY | BYTE: {
+                    byte[] array = new byte[in.readInt()];
+                    in.readFully(array);
+                    return array;
+                }
+                case ARRAY | SHORT: {
+                    short[] array = new short[in.readInt()];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = in.readShort();
+                    }
+                    return array;
+                }
+                case ARRAY | INTEGER: {
+                    int[] array = new int[in.readInt()];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = in.readInt();
+                    }
+                    return array;
+                }
+                case ARRAY | LONG: {
+                    long[] array = new long[in.readInt()];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = in.readLong();
+                    }
+                    return array;
+                }
+                case ARRAY | FLOAT: {
+                    float[] array = new float[in.readInt()];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = in.readFloat();
+                    }
+                    return array;
+                }
+                case ARRAY | DOUBLE: {
+                    double[] array = new double[in.readInt()];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = in.readDouble();
+                    }
+                    return array;
+                }
+                case ARRAY | CHARACTER: {
+                    char[] array = new char[in.readInt()];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = in.readChar();
+                    }
+                    return array;
+                }
+                default:
+                    throw new IOException("Unsupported property value tag " + tag);
+            }
+        }
+
+        @CheckForNull
+        String readString() throws IOException {
+            int index = in.readInt();
+            return index == NULL ? null : strings[index];
+        }
+
+        @CheckForNull
+        private String[] readStrings() throws IOException {
+            int length = in.readInt();
+            if (length == NULL) {
+                return null;
+            }
+            String[] values = new String[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = readString();
+            }
+            return values;
+        }
+    }
+}
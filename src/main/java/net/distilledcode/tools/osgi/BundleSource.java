@@ -0,0 +1,75 @@
+package net.distilledcode.tools.osgi;
+
+import javax.annotation.CheckForNull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Read access to the entries of a bundle, independent of how the bundle is
+ * stored. Implementations must allow concurrent reads of different entries.
+ */
+public interface BundleSource extends Closeable {
+
+    /**
+     * Opens a bundle jar, or an exploded bundle if {@code file} is a directory.
+     */
+    static BundleSource open(File file, DiffOptions options) throws IOException {
+        if (file.isDirectory()) {
+            return new DirectoryBundleSource(file.toPath());
+        }
+        return options.isMemoryMapped() ? new MappedBundleSource(file) : new JarFileBundleSource(new JarFile(file));
+    }
+
+    /**
+     * @return the location of the bundle, e.g. the path of its jar file
+     */
+    String getName();
+
+    @CheckForNull
+    Manifest getManifest() throws IOException;
+
+    /**
+     * Passes every file entry of the bundle to {@code consumer}, directories are skipped.
+     */
+    void forEachEntry(Consumer<BundleEntry> consumer) throws IOException;
+
+    /**
+     * Passes the file entries directly in {@code directory}, e.g. {@code OSGI-INF/metatype/},
+     * whose file name matches {@code fileName} to {@code consumer}.
+     */
+    default void forEachEntry(String directory, Predicate<String> fileName, Consumer<BundleEntry> consumer) throws IOException {
+        forEachEntry(entry -> {
+            String name = entry.getName();
+            if (name.startsWith(directory) && name.indexOf('/', directory.length()) < 0
+                    && fileName.test(name.substring(directory.length()))) {
+                consumer.accept(entry);
+            }
+        });
+    }
+
+    /**
+     * @return {@code true} if entries are looked up individually or per directory
+     *         rather than by enumerating all entries, e.g. because the bundle is a
+     *         directory tree rather than an archive with a central directory
+     */
+    default boolean isExploded() {
+        return false;
+    }
+
+    @CheckForNull
+    BundleEntry getEntry(String path) throws IOException;
+
+    InputStream getInputStream(BundleEntry entry) throws IOException;
+
+    /**
+     * @return a URL to the entry's content, as returned by {@code Bundle#getEntry(String)}
+     */
+    URL getEntryUrl(BundleEntry entry) throws IOException;
+}
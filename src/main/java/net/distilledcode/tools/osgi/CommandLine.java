@@ -0,0 +1,250 @@
+package net.distilledcode.tools.osgi;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parsed command line arguments of {@link MetadataDiff#main(String[])}.
+ */
+class CommandLine {
+
+    private static final long MEGABYTE = 1024 * 1024;
+
+    static final String USAGE = "Usage: java -jar osgi-ds-metatype-diff.jar [options] <oldBundle> <newBundle>\n" +
+            "       java -jar osgi-ds-metatype-diff.jar [options] <oldDirectory|oldBundles> <newDirectory|newBundles>\n" +
+            "       java -jar osgi-ds-metatype-diff.jar --watch [options] <oldBundle> <newBundle>\n" +
+            "       java -jar osgi-ds-metatype-diff.jar --series [--history] [options] <bundle1> <bundle2> ... <bundleN>\n" +
+            "       java -jar osgi-ds-metatype-diff.jar " + DiffDaemon.OPTION + " <socket> [--memory-cache <n>]\n" +
+            "       java -jar osgi-ds-metatype-diff.jar " + DiffClient.OPTION + " <socket> [options] <old> <new>\n" +
+            "\n" +
+            "A bundle may be a jar or an exploded bundle directory, e.g. target/classes.\n" +
+            "Bundle lists are separated by '" + File.pathSeparator + "'. When directories or lists are given,\n" +
+            "bundles are paired by their Bundle-SymbolicName and diffed in one batch.\n" +
+            "A series diffs each version against the next one, in the given order.\n" +
+            "With --watch, the diff is printed again whenever one of the two bundles changes.\n" +
+            "\n" +
+            "Options:\n" +
+            "    --threads <n>       number of threads reading bundles and comparing components, or bundle pairs in batch and series mode\n" +
+            "    --history           group a series by component instead of by version step\n" +
+            "    --streaming         parse and compare one component at a time to bound memory, ignores caches\n" +
+            "    --mmap              read bundles through memory-mapped files\n" +
+            "    --timings           print the time spent per phase and the slowest descriptors to stderr\n" +
+            "    --format <format>   text (default), json or ndjson\n" +
+            "    --output <file>     write the report to <file> instead of stdout\n" +
+            "    --include <glob>    only compare components whose PID or name matches <glob>, may be repeated\n" +
+            "    --exclude <glob>    do not compare components whose PID or name matches <glob>, may be repeated\n" +
+            "    --locale <tag>      also compare MetaType labels localized for <tag>, e.g. de-CH, may be repeated\n" +
+            "    --verify-unchanged  compare the content of descriptors with equal size and CRC before skipping them\n" +
+            "    --cache <dir>       cache parsed metadata in <dir>, keyed by bundle content\n" +
+            "    --cache-size <mb>   maximum size of the cache directory, defaults to " + MetadataCache.DEFAULT_MAX_SIZE / MEGABYTE;
+
+    private final DiffOptions options = new DiffOptions().setParallelism(Runtime.getRuntime().availableProcessors());
+
+    private final List<String> arguments = new ArrayList<>();
+
+    private final List<String> includes = new ArrayList<>();
+
+    private final List<String> excludes = new ArrayList<>();
+
+    private final List<Locale> locales = new ArrayList<>();
+
+    private boolean timings;
+
+    private boolean series;
+
+    private boolean history;
+
+    private boolean watch;
+
+    private File cacheDirectory;
+
+    private File output;
+
+    private long cacheSize = MetadataCache.DEFAULT_MAX_SIZE;
+
+    private final File workingDirectory;
+
+    private CommandLine(@CheckForNull final File workingDirectory) {
+        this.workingDirectory = workingDirectory;
+    }
+
+    static CommandLine parse(final String[] args) {
+        return parse(args, null);
+    }
+
+    /**
+     * @param workingDirectory the directory relative paths are resolved against,
+     *                         or {@code null} for the working directory of this process
+     */
+    static CommandLine parse(final String[] args, @CheckForNull final File workingDirectory) {
+        CommandLine commandLine = new CommandLine(workingDirectory);
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--threads":
+                    commandLine.options.setParallelism(positiveInt(arg, value(args, ++i, arg)));
+                    break;
+                case "--streaming":
+                    commandLine.options.setStreaming(true);
+                    break;
+                case "--mmap":
+                    commandLine.options.setMemoryMapped(true);
+                    break;
+                case "--timings":
+                    commandLine.timings = true;
+                    break;
+                case "--series":
+                    commandLine.series = true;
+                    break;
+                case "--history":
+                    commandLine.history = true;
+                    break;
+                case "--watch":
+                    commandLine.watch = true;
+                    break;
+                case "--format":
+                    commandLine.options.setFormat(OutputFormat.parse(value(args, ++i, arg)));
+                    break;
+                case "--output":
+                    commandLine.output = commandLine.resolve(value(args, ++i, arg));
+                    break;
+                case "--include":
+                    commandLine.includes.add(value(args, ++i, arg));
+                    break;
+                case "--exclude":
+                    commandLine.excludes.add(value(args, ++i, arg));
+                    break;
+                case "--locale":
+                    commandLine.locales.add(Locale.forLanguageTag(value(args, ++i, arg).replace('_', '-')));
+                    break;
+                case "--verify-unchanged":
+                    commandLine.options.setVerifyUnchangedDescriptors(true);
+                    break;
+                case "--cache":
+                    commandLine.cacheDirectory = commandLine.resolve(value(args, ++i, arg));
+                    break;
+                case "--cache-size":
+                    commandLine.cacheSize = positiveInt(arg, value(args, ++i, arg)) * MEGABYTE;
+                    break;
+                default:
+                    if (arg.startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option '" + arg + "'");
+                    }
+                    commandLine.arguments.add(arg);
+            }
+        }
+        if (commandLine.history && !commandLine.series) {
+            throw new IllegalArgumentException("Option '--history' requires '--series'");
+        }
+        if (commandLine.watch && commandLine.series) {
+            throw new IllegalArgumentException("Option '--watch' cannot be combined with '--series'");
+        }
+        if (commandLine.series && commandLine.arguments.size() < 2) {
+            throw new IllegalArgumentException("Expected at least two bundle arguments, got " + commandLine.arguments.size());
+        }
+        if (!commandLine.series && commandLine.arguments.size() != 2) {
+            throw new IllegalArgumentException("Expected exactly two bundle arguments, got " + commandLine.arguments.size());
+        }
+        if (!commandLine.includes.isEmpty() || !commandLine.excludes.isEmpty()) {
+            commandLine.options.setFilter(new ComponentFilter(commandLine.includes, commandLine.excludes));
+        }
+        if (!commandLine.locales.isEmpty()) {
+            commandLine.options.setLocales(commandLine.locales);
+        }
+        if (commandLine.cacheDirectory != null) {
+            try {
+                commandLine.options.setCache(new MetadataCache(commandLine.cacheDirectory, commandLine.cacheSize));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot use cache directory '" + commandLine.cacheDirectory + "': " + e.getMessage(), e);
+            }
+        }
+        return commandLine;
+    }
+
+    DiffOptions getOptions() {
+        return options;
+    }
+
+    boolean isTimings() {
+        return timings;
+    }
+
+    boolean isSeries() {
+        return series;
+    }
+
+    boolean isHistory() {
+        return history;
+    }
+
+    boolean isWatch() {
+        return watch;
+    }
+
+    /**
+     * @return the file the report is written to, or {@code null} for the output of the caller
+     */
+    @CheckForNull
+    File getOutput() {
+        return output;
+    }
+
+    /**
+     * @return the bundles of a series, in the given order
+     */
+    List<File> getSeries() {
+        List<File> bundles = new ArrayList<>();
+        for (final String argument : arguments) {
+            bundles.addAll(listBundles(argument));
+        }
+        return bundles;
+    }
+
+    String getLeft() {
+        return arguments.get(0);
+    }
+
+    String getRight() {
+        return arguments.get(1);
+    }
+
+    boolean isBatch() {
+        return isBatchArgument(getLeft()) || isBatchArgument(getRight());
+    }
+
+    File resolve(final String path) {
+        return BatchDiff.resolve(workingDirectory, path);
+    }
+
+    List<File> listBundles(final String argument) {
+        return BatchDiff.listBundles(argument, workingDirectory);
+    }
+
+    private boolean isBatchArgument(final String argument) {
+        File file = resolve(argument);
+        return argument.contains(File.pathSeparator) || file.isDirectory() && !DirectoryBundleSource.isBundle(file);
+    }
+
+    private static String value(final String[] args, final int index, final String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Option '" + option + "' requires a value");
+        }
+        return args[index];
+    }
+
+    static int positiveInt(final String option, final String value) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("Option '" + option + "' requires a positive number, got '" + value + "'");
+    }
+}
@@ -1,26 +1,30 @@
 package net.distilledcode.tools.osgi;
 
-import org.apache.felix.metatype.AD;
-import org.apache.felix.metatype.Designate;
-import org.apache.felix.metatype.MetaData;
-import org.apache.felix.metatype.OCD;
-import org.apache.felix.scr.impl.metadata.ComponentMetadata;
-import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
-import org.apache.felix.scr.impl.metadata.ServiceMetadata;
+import net.distilledcode.tools.osgi.ComponentDescription.Reference;
+import net.distilledcode.tools.osgi.ComponentDescription.Service;
+import net.distilledcode.tools.osgi.MetaTypeDescription.AttributeDefinition;
+import net.distilledcode.tools.osgi.MetaTypeDescription.Designate;
+import net.distilledcode.tools.osgi.MetaTypeDescription.ObjectClassDefinition;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.beans.Introspector;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
+/**
+ * Compares the metadata of one component in two bundles. The compared attributes
+ * of each kind of metadata are listed once in the static {@code *_ATTRIBUTES}
+ * tables, in the order in which they are reported; comparing an attribute does
+ * not allocate unless its value has to be boxed or localized.
+ */
 public class Comparison {
 
     public interface Visitor {
@@ -31,32 +35,112 @@ public class Comparison {
         void removed(String name, Object value);
     }
 
-    private String className;
-    private final ComponentMetadata leftDS;
-    private final ComponentMetadata rightDS;
-    private final MetaData leftMT;
-    private final MetaData rightMT;
-    private final Properties leftMTLocalizationProperties;
-    private final Properties rightMTLocalizationProperties;
+    // dsVersion is not compared
+    private static final List<Attribute<ComponentDescription>> DS_ATTRIBUTES = List.of(
+            value("name", ComponentDescription::getName),
+            value("enabled", ComponentDescription::isEnabled),
+            value("configurationPid", ComponentDescription::getConfigurationPid),
+            value("configurationPolicy", ComponentDescription::getConfigurationPolicy),
+            value("activate", ComponentDescription::getActivate),
+            value("modified", ComponentDescription::getModified),
+            value("deactivate", ComponentDescription::getDeactivate),
+            value("factoryIdentifier", ComponentDescription::getFactoryIdentifier),
+            value("serviceScope", ComponentDescription::getServiceScope));
 
-    private Comparison(final String className, final ComponentMetadata leftDS, final ComponentMetadata rightDS, final MetaData leftMT, final MetaData rightMT, final Properties leftMTLocalizationProperties, final Properties rightMTLocalizationProperties) {
+    private static final List<Attribute<Service>> SERVICE_ATTRIBUTES = List.of(
+            value("scope", Service::getScope),
+            value("interface", Service::getProvides));
+
+    private static final List<Attribute<Reference>> REFERENCE_ATTRIBUTES = List.of(
+            value("name", Reference::getName),
+            value("interface", Reference::getInterface),
+            value("cardinality", Reference::getCardinality),
+            value("bind", Reference::getBind),
+            value("unbind", Reference::getUnbind),
+            value("updated", Reference::getUpdated),
+            value("field", Reference::getField),
+            value("field-option", Reference::getFieldOption),
+            value("field-collection-type", Reference::getCollectionType));
+
+    private static final List<Attribute<ComponentDescription>> IMPLEMENTATION_ATTRIBUTES = List.of(
+            value("class", ComponentDescription::getImplementationClassName));
+
+    // localePrefix is not compared
+    private static final List<Attribute<MetaTypeDescription>> METATYPE_ATTRIBUTES = List.of(
+            value("namespace", MetaTypeDescription::getNamespace));
+
+    private static final List<Attribute<Designate>> DESIGNATE_ATTRIBUTES = List.of(
+            value("pid", Designate::getPid),
+            value("factoryPid", Designate::getFactoryPid),
+            value("bundleLocation", Designate::getBundleLocation),
+            value("merge", Designate::isMerge),
+            value("optional", Designate::isOptional),
+            value("ocdRef", Designate::getOcdRef));
+
+    private static final List<Attribute<ObjectClassDefinition>> OCD_ATTRIBUTES = List.of(
+            value("id", ObjectClassDefinition::getId),
+            localized("name", ObjectClassDefinition::getName),
+            localized("description", ObjectClassDefinition::getDescription));
+
+    private static final List<Attribute<AttributeDefinition>> AD_ATTRIBUTES = List.of(
+            value("id", AttributeDefinition::getId),
+            localized("name", AttributeDefinition::getName),
+            localized("description", AttributeDefinition::getDescription),
+            value("type", AttributeDefinition::getType),
+            value("cardinality", AttributeDefinition::getCardinality),
+            value("defaultValue", AttributeDefinition::getDefaultValue),
+            value("min", AttributeDefinition::getMin),
+            value("max", AttributeDefinition::getMax),
+            localizedValues("optionLabels", AttributeDefinition::getOptionLabels),
+            value("optionValues", AttributeDefinition::getOptionValues));
+
+    private final String className;
+    private final ComponentDescription leftDS;
+    private final ComponentDescription rightDS;
+    private final MetaTypeDescription leftMT;
+    private final MetaTypeDescription rightMT;
+    private final List<Locale> locales;
+    // the default localization followed by one per locale
+    private final Properties[] leftMTLocalizationProperties;
+    private final Properties[] rightMTLocalizationProperties;
+
+    private Comparison(final String className, final ComponentDescription leftDS, final ComponentDescription rightDS, final MetaTypeDescription leftMT, final MetaTypeDescription rightMT, final List<Locale> locales, final Properties[] leftMTLocalizationProperties, final Properties[] rightMTLocalizationProperties) {
         this.className = className;
         this.leftDS = leftDS;
         this.rightDS = rightDS;
         this.leftMT = leftMT;
         this.rightMT = rightMT;
+        this.locales = locales;
         this.rightMTLocalizationProperties = rightMTLocalizationProperties;
         this.leftMTLocalizationProperties = leftMTLocalizationProperties;
     }
 
     public static Comparison create(final String className, final MetadataDiff.BundleMetadata left, final MetadataDiff.BundleMetadata right) {
+        return create(className, left, right, Collections.emptyList());
+    }
+
+    /**
+     * Creates a comparison that reports localized MetaType values in the default
+     * localization and, where they differ from it, in each of {@code locales}.
+     */
+    public static Comparison create(final String className, final MetadataDiff.BundleMetadata left, final MetadataDiff.BundleMetadata right, final List<Locale> locales) {
         return new Comparison(className,
                 left.getDeclarativeServices(className),
                 right.getDeclarativeServices(className),
                 left.getMetaType(className),
                 right.getMetaType(className),
-                left.getMetaTypeLocalizationProperties(className),
-                right.getMetaTypeLocalizationProperties(className));
+                locales,
+                localizationProperties(className, left, locales),
+                localizationProperties(className, right, locales));
+    }
+
+    private static Properties[] localizationProperties(final String className, final MetadataDiff.BundleMetadata metadata, final List<Locale> locales) {
+        Properties[] properties = new Properties[locales.size() + 1];
+        properties[0] = metadata.getMetaTypeLocalizationProperties(className);
+        for (int i = 0; i < locales.size(); i++) {
+            properties[i + 1] = metadata.getMetaTypeLocalizationProperties(className, locales.get(i));
+        }
+        return properties;
     }
 
     public void visit(Visitor visitor) {
@@ -68,160 +152,147 @@ public class Comparison {
 
     private void visitMetaType(final Visitor visitor, String pid) {
         visitor.enter("MetaType");
-        visitMetaTypeAttributes(visitor, leftMT, rightMT);
-        visitAsMap(visitor, "Designates", leftMT, rightMT,
-                getDesignatesForPid(pid).andThen(fromCollectionToMap(MetaType::getDesignatePidOrFactoryPid)),
-                Comparison::visitDesignate);
-        visitAsMap(visitor, "ObjectClassDefinitions", leftMT, rightMT,
-                Comparison.toOCDMap(pid),
-                visitOCD());
+        visitSection(visitor, "Attributes", METATYPE_ATTRIBUTES, leftMT, rightMT);
+        visitAsMap(visitor, "Designates", designatesForPid(leftMT, pid), designatesForPid(rightMT, pid),
+                this::visitDesignate);
+        visitAsMap(visitor, "ObjectClassDefinitions", ocdsForPid(leftMT, pid), ocdsForPid(rightMT, pid),
+                this::visitOCD);
         visitor.leave("MetaType");
     }
 
-    @SuppressWarnings("unchecked")
-    private static Function<MetaData, List<Designate>> getDesignatesForPid(String pid) {
-        return metaData -> MetaType.designatesStream(metaData)
-                .filter(d -> MetaType.getDesignatePidOrFactoryPid(d).equals(pid))
-                .collect(Collectors.toList());
+    private static Map<String, Designate> designatesForPid(@CheckForNull final MetaTypeDescription metaType, final String pid) {
+        Map<String, Designate> designates = new HashMap<>();
+        if (metaType != null) {
+            for (final Designate designate : metaType.getDesignates()) {
+                String designatePid = designate.getPidOrFactoryPid();
+                if (designatePid.equals(pid)) {
+                    putUnique(designates, designatePid, designate);
+                }
+            }
+        }
+        return designates;
     }
 
-    private static void visitMetaTypeAttributes(final Visitor visitor, final MetaData leftMT, final MetaData rightMT) {
-        visitor.enter("Attributes");
-        visitValue(visitor, "namespace", MetaData::getNamespace, leftMT, rightMT);
-        // visitValue(visitor, "localePrefix", MetaData::getLocalePrefix, leftMT, rightMT);
-        visitor.leave("Attributes");
+    // OCDs without a designate for the PID are keyed by null
+    private static Map<String, ObjectClassDefinition> ocdsForPid(@CheckForNull final MetaTypeDescription metaType, final String pid) {
+        if (metaType == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Designate> designates = designatesForPid(metaType, pid);
+        Map<String, String> ocdRefToPid = new HashMap<>();
+        for (final Designate designate : designates.values()) {
+            putUnique(ocdRefToPid, designate.getOcdRef(), designate.getPidOrFactoryPid());
+        }
+        Map<String, ObjectClassDefinition> ocdsByPid = new HashMap<>();
+        for (final ObjectClassDefinition ocd : metaType.getObjectClassDefinitions().values()) {
+            putUnique(ocdsByPid, ocdRefToPid.get(ocd.getId()), ocd);
+        }
+        return ocdsByPid;
     }
 
-    private static void visitDesignate(final Visitor visitor, final String name, final Designate left, final Designate right) {
-        visitor.enter(name);
-        visitValue(visitor, "pid", Designate::getPid, left, right);
-        visitValue(visitor, "factoryPid", Designate::getFactoryPid, left, right);
-        visitValue(visitor, "bundleLocation", Designate::getBundleLocation, left, right);
-        visitValue(visitor, "merge", Designate::isMerge, left, right);
-        visitValue(visitor, "optional", Designate::isOptional, left, right);
-        visitValue(visitor, "ocdRef", d -> d.getObject().getOcdRef(), left, right);
-        visitor.leave(name);
+    private void visitDesignate(final Visitor visitor, final String name, final Designate left, final Designate right) {
+        visitSection(visitor, name, DESIGNATE_ATTRIBUTES, left, right);
     }
 
-    @SuppressWarnings("unchecked")
-    private static Function<MetaData, Map<String, OCD>> toOCDMap(String pid) {
-        return metaData -> {
-            List<Designate> designates = getDesignatesForPid(pid).apply(metaData);
-            Map<String, OCD> ocds = metaData.getObjectClassDefinitions();
-            // if OCDs without AD children in metatype < 1.3 then ocds = null
-            if (ocds == null) {
-                return Collections.emptyMap();
-            }
-            Function<Designate, String> toOcdRef = d -> d.getObject().getOcdRef();
-            Map<String, String> ocdRefToPid = designates.stream()
-                .collect(Collectors.toMap(toOcdRef, MetaType::getDesignatePidOrFactoryPid));
-            return fromCollectionToMap((Function<OCD, String>) ocd -> ocdRefToPid.get(ocd.getID())).apply(ocds.values());
-        };
+    private void visitOCD(final Visitor visitor, final String name, final ObjectClassDefinition left, final ObjectClassDefinition right) {
+        visitor.enter(name);
+        visitAttributes(visitor, OCD_ATTRIBUTES, left, right);
+        visitAsMap(visitor, "Attribute Definitions",
+                left == null ? null : left.getAttributeDefinitions(),
+                right == null ? null : right.getAttributeDefinitions(),
+                this::visitAttributeDefinition);
+        visitor.leave(name);
     }
 
-    @SuppressWarnings("unchecked")
-    private VisitorFunction<OCD> visitOCD() {
-        return new VisitorFunction<OCD>() {
-            @Override
-            public void apply(Visitor visitor, String name, OCD left, OCD right) {
-                visitor.enter(name);
-                // optionally resolve 
-                visitValue(visitor, "id", OCD::getID, left, right);
-                visitLocalizedValue(visitor, "name", OCD::getName, left, right);
-                visitLocalizedValue(visitor, "description", OCD::getDescription, left, right);
-                visitAsMap(visitor, "Attribute Definitions", left, right,
-                        ocd -> (Map<String, AD>)ocd.getAttributeDefinitions(),
-                        visitAttributeDefinition());
-                visitor.leave(name);
-            }
-        };
-    }
-    
-    private VisitorFunction<AD> visitAttributeDefinition() {
-        return new VisitorFunction<AD>() {
-            @Override
-            public void apply(Visitor visitor, String name, AD left, AD right) {
-                visitor.enter(name);
-                visitValue(visitor, "id", AD::getID, left, right);
-                visitLocalizedValue(visitor, "name", AD::getName, left, right);
-                visitLocalizedValue(visitor, "description", AD::getDescription, left, right);
-                visitValue(visitor, "type", AD::getType, left, right);
-                visitValue(visitor, "cardinality", AD::getCardinality, left, right);
-                visitValue(visitor, "defaultValue", AD::getDefaultValue, left, right);
-                visitValue(visitor, "min", AD::getMin, left, right);
-                visitValue(visitor, "max", AD::getMax, left, right);
-                visitLocalizedValues(visitor, "optionLabels", AD::getOptionLabels, left, right);
-                visitValue(visitor, "optionValues", AD::getOptionValues, left, right);
-                visitor.leave(name);
-            }
-        };
+    private void visitAttributeDefinition(final Visitor visitor, final String name, final AttributeDefinition left, final AttributeDefinition right) {
+        visitSection(visitor, name, AD_ATTRIBUTES, left, right);
     }
 
     private void visitDS(final Visitor visitor) {
         visitor.enter("Declarative Services");
-        visitDSAttributes(visitor, leftDS, rightDS);
-        visitAsMap(visitor, "Properties", leftDS, rightDS, ComponentMetadata::getProperties, Comparison::visitValue);
-        visitDSService(visitor, valueOrNull(leftDS, ComponentMetadata::getServiceMetadata), valueOrNull(rightDS, ComponentMetadata::getServiceMetadata));
-        visitAsMap(visitor, "References", leftDS, rightDS,
-                Comparison.<ComponentMetadata, List<ReferenceMetadata>>tryAll(ComponentMetadata::getDependencies, m -> Collections.emptyList())
-                        .andThen(fromCollectionToMap(rm -> Introspector.decapitalize(rm.getName()))),
-                Comparison::visitDSReference);
-        visitDSImplementation(visitor, leftDS, rightDS);
+        visitSection(visitor, "Attributes", DS_ATTRIBUTES, leftDS, rightDS);
+        visitAsMap(visitor, "Properties",
+                leftDS == null ? null : leftDS.getProperties(),
+                rightDS == null ? null : rightDS.getProperties(),
+                Comparison::visitValue);
+        visitSection(visitor, "Service", SERVICE_ATTRIBUTES,
+                leftDS == null ? null : leftDS.getService(),
+                rightDS == null ? null : rightDS.getService());
+        visitAsMap(visitor, "References", referencesByName(leftDS), referencesByName(rightDS),
+                this::visitDSReference);
+        visitSection(visitor, "Implementation", IMPLEMENTATION_ATTRIBUTES, leftDS, rightDS);
         visitor.leave("Declarative Services");
     }
 
-    private void visitDSAttributes(final Visitor visitor, final ComponentMetadata leftDS, final ComponentMetadata rightDS) {
-        visitor.enter("Attributes");
-        // visitValue(visitor, "dsVersion", ComponentMetadata::getDSVersion, leftDS, rightDS);
-        visitValue(visitor, "name", ComponentMetadata::getName, leftDS, rightDS);
-        visitValue(visitor, "enabled", ComponentMetadata::isEnabled, leftDS, rightDS);
-        visitValue(visitor, "configurationPid", ComponentMetadata::getConfigurationPid, leftDS, rightDS);
-        visitValue(visitor, "configurationPolicy", ComponentMetadata::getConfigurationPolicy, leftDS, rightDS);
-        visitValue(visitor, "activate", ComponentMetadata::getActivate, leftDS, rightDS);
-        visitValue(visitor, "modified", ComponentMetadata::getModified, leftDS, rightDS);
-        visitValue(visitor, "deactivate", ComponentMetadata::getDeactivate, leftDS, rightDS);
-        visitValue(visitor, "factoryIdentifier", ComponentMetadata::getFactoryIdentifier, leftDS, rightDS);
-        visitValue(visitor, "serviceScope", ComponentMetadata::getServiceScope, leftDS, rightDS);
-        visitor.leave("Attributes");
+    private static Map<String, Reference> referencesByName(@CheckForNull final ComponentDescription component) {
+        if (component == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Reference> references = new HashMap<>();
+        for (final Reference reference : component.getReferences()) {
+            putUnique(references, Introspector.decapitalize(reference.getName()), reference);
+        }
+        return references;
     }
 
-    private static void visitDSReference(final Visitor visitor, String name, final ReferenceMetadata left, final ReferenceMetadata right) {
-        visitor.enter(name);
-        visitValue(visitor, "name", ReferenceMetadata::getName, left, right);
-        visitValue(visitor, "interface", ReferenceMetadata::getInterface, left, right);
-        visitValue(visitor, "cardinality", ReferenceMetadata::getCardinality, left, right);
-        visitValue(visitor, "bind", ReferenceMetadata::getBind, left, right);
-        visitValue(visitor, "unbind", ReferenceMetadata::getUnbind, left, right);
-        visitValue(visitor, "updated", ReferenceMetadata::getUpdated, left, right);
-        visitValue(visitor, "field", ReferenceMetadata::getField, left, right);
-        visitValue(visitor, "field-option", ReferenceMetadata::getFieldOption, left, right);
-        visitValue(visitor, "field-collection-type", ReferenceMetadata::getCollectionType, left, right);
-        visitor.leave(name);
+    private void visitDSReference(final Visitor visitor, final String name, final Reference left, final Reference right) {
+        visitSection(visitor, name, REFERENCE_ATTRIBUTES, left, right);
     }
 
-    private void visitDSService(final Visitor visitor, final ServiceMetadata left, final ServiceMetadata right) {
-        visitor.enter("Service");
-        visitValue(visitor, "scope", ServiceMetadata::getScope, left, right);
-        visitValue(visitor, "interface", ServiceMetadata::getProvides, left, right);
-        visitor.leave("Service");
+    private <S> void visitSection(final Visitor visitor, final String sectionName, final List<Attribute<S>> attributes, final S left, final S right) {
+        visitor.enter(sectionName);
+        visitAttributes(visitor, attributes, left, right);
+        visitor.leave(sectionName);
     }
 
-    private void visitDSImplementation(final Visitor visitor, final ComponentMetadata leftDS, final ComponentMetadata rightDS) {
-        visitor.enter("Implementation");
-        visitValue(visitor, "class", ComponentMetadata::getImplementationClassName, leftDS, rightDS);
-        visitor.leave("Implementation");
+    private <S> void visitAttributes(final Visitor visitor, final List<Attribute<S>> attributes, @CheckForNull final S left, @CheckForNull final S right) {
+        for (int i = 0; i < attributes.size(); i++) {
+            Attribute<S> attribute = attributes.get(i);
+            Object leftValue = left == null ? null : attribute.getter.apply(left);
+            Object rightValue = right == null ? null : attribute.getter.apply(right);
+            switch (attribute.kind) {
+                case VALUE:
+                    visitValue(visitor, attribute.name, leftValue, rightValue);
+                    break;
+                case LOCALIZED:
+                    visitLocalizedValue(visitor, attribute.name, (String) leftValue, (String) rightValue);
+                    break;
+                case LOCALIZED_VALUES:
+                    visitLocalizedValues(visitor, attribute.name, (String[]) leftValue, (String[]) rightValue);
+                    break;
+            }
+        }
     }
-    
-    private <S> void visitLocalizedValues(final Visitor visitor, String name, final Function<S, String[]> fn, final S left, final S right) {
-        visitValue(visitor, name, localizedValuesOrNull(left, fn, leftMTLocalizationProperties), localizedValuesOrNull(right, fn, rightMTLocalizationProperties));
+
+    // differences of a locale that equal those of the default localization are only reported once
+    private void visitLocalizedValues(final Visitor visitor, final String name, final String[] left, final String[] right) {
+        String[] leftDefault = localizedValues(left, leftMTLocalizationProperties[0]);
+        String[] rightDefault = localizedValues(right, rightMTLocalizationProperties[0]);
+        visitValue(visitor, name, leftDefault, rightDefault);
+        for (int i = 1; i < leftMTLocalizationProperties.length; i++) {
+            String[] leftValues = localizedValues(left, leftMTLocalizationProperties[i]);
+            String[] rightValues = localizedValues(right, rightMTLocalizationProperties[i]);
+            if (!Arrays.equals(leftValues, leftDefault) || !Arrays.equals(rightValues, rightDefault)) {
+                visitValue(visitor, localizedName(name, i), leftValues, rightValues);
+            }
+        }
     }
 
-    private <S> void visitLocalizedValue(final Visitor visitor, String name, final Function<S, String> fn, final S left, final S right) {
-        visitValue(visitor, name, localizedValueOrNull(left, fn, leftMTLocalizationProperties), localizedValueOrNull(right, fn, rightMTLocalizationProperties));
+    private void visitLocalizedValue(final Visitor visitor, final String name, final String left, final String right) {
+        String leftDefault = localizedValue(left, leftMTLocalizationProperties[0]);
+        String rightDefault = localizedValue(right, rightMTLocalizationProperties[0]);
+        visitValue(visitor, name, leftDefault, rightDefault);
+        for (int i = 1; i < leftMTLocalizationProperties.length; i++) {
+            String leftValue = localizedValue(left, leftMTLocalizationProperties[i]);
+            String rightValue = localizedValue(right, rightMTLocalizationProperties[i]);
+            if (!Objects.equals(leftValue, leftDefault) || !Objects.equals(rightValue, rightDefault)) {
+                visitValue(visitor, localizedName(name, i), leftValue, rightValue);
+            }
+        }
     }
 
-    private static <S, T> void visitValue(final Visitor visitor, String name, final Function<S, T> fn, final S left, final S right) {
-        visitValue(visitor, name, valueOrNull(left, fn), valueOrNull(right, fn));
+    private String localizedName(final String name, final int localization) {
+        return name + "[" + locales.get(localization - 1).toLanguageTag() + "]";
     }
 
     private static <T> void visitValue(final Visitor visitor, final String name, final T leftValue, final T rightValue) {
@@ -237,19 +308,18 @@ public class Comparison {
         }
     }
 
+    // values of typed properties may be arrays of primitives
     private static <T> boolean equalValue(@Nonnull final T leftValue, @Nonnull final T rightValue) {
-        if (leftValue.getClass().isArray() && rightValue.getClass().isArray()) {
-            return Arrays.equals((Object[])leftValue, (Object[])rightValue);
-        }
-        return leftValue.equals(rightValue);
+        return Objects.deepEquals(leftValue, rightValue);
     }
 
-    private static <S, T> void visitAsMap(final Visitor visitor, final String sectionName, final S left, final S right, final Function<S, Map<String, T>> toMap, final VisitorFunction<T> visitEntry) {
-        Map<String, T> leftMap = valueOrDefault(left, toMap, Collections.emptyMap());
-        Map<String, T> rightMap = valueOrDefault(right, toMap, Collections.emptyMap());
+    private static <T> void visitAsMap(final Visitor visitor, final String sectionName, @CheckForNull final Map<String, T> left,
+                                       @CheckForNull final Map<String, T> right, final VisitorFunction<T> visitEntry) {
+        Map<String, T> leftMap = left == null ? Collections.emptyMap() : left;
+        Map<String, T> rightMap = right == null ? Collections.emptyMap() : right;
         visitor.enter(sectionName);
         for (final String name : Sets.union(leftMap.keySet(), rightMap.keySet())) {
-            visitEntry.apply(visitor, name, valueOrNull(leftMap, m -> m.get(name)), valueOrNull(rightMap, m -> m.get(name)));
+            visitEntry.apply(visitor, name, leftMap.get(name), rightMap.get(name));
         }
         visitor.leave(sectionName);
     }
@@ -259,24 +329,25 @@ public class Comparison {
         void apply(Visitor visitor, String name, T left, T right);
     }
 
-    private static <S> String[] localizedValuesOrNull(final S object, final Function<S, String[]> fn, Properties properties) {
-        String[] values = nullSafe(fn).apply(object);
-        if (values != null) {
-            List<String> localizedValues = new LinkedList<>();
-            for (String value : values) {
-                localizedValues.add(localizedValue(value, properties));
-            }
-            return localizedValues.toArray(new String[localizedValues.size()]);
-        } else {
+    // the array is only copied if one of its values is localized
+    @CheckForNull
+    private static String[] localizedValues(@CheckForNull final String[] values, @CheckForNull final Properties properties) {
+        if (values == null) {
             return null;
         }
+        String[] localizedValues = values;
+        for (int i = 0; i < values.length; i++) {
+            String localizedValue = localizedValue(values[i], properties);
+            if (localizedValue != values[i]) {
+                if (localizedValues == values) {
+                    localizedValues = values.clone();
+                }
+                localizedValues[i] = localizedValue;
+            }
+        }
+        return localizedValues;
     }
-    
-    private static <S> String localizedValueOrNull(final S object, final Function<S, String> fn, Properties properties) {
-        String value = nullSafe(fn).apply(object);
-        return localizedValue(value, properties);
-    }
-    
+
     private static String localizedValue(String valueToLocalize, Properties properties) {
         if (valueToLocalize != null && valueToLocalize.startsWith("%") && properties != null) {
             String resolvedValue = properties.getProperty(valueToLocalize.substring(1));
@@ -284,31 +355,44 @@ public class Comparison {
         }
         return valueToLocalize;
     }
-    
-    private static <S, T> T valueOrNull(final S object, final Function<S, T> fn) {
-        return nullSafe(fn).apply(object);
+
+    // same semantics as Collectors.toMap(), which the comparison used to build its maps with
+    private static <T> void putUnique(final Map<String, T> map, final String key, final T value) {
+        T previous = map.putIfAbsent(key, Objects.requireNonNull(value));
+        if (previous != null) {
+            throw new IllegalStateException("Duplicate key " + key);
+        }
     }
 
-    private static <S, T> T valueOrDefault(final S object, final Function<S, T> fn, final T defaultValue) {
-        return tryAll(nullSafe(fn), s -> defaultValue).apply(object);
+    private static <S> Attribute<S> value(final String name, final Function<S, ?> getter) {
+        return new Attribute<>(name, Attribute.Kind.VALUE, getter);
     }
 
-    @SafeVarargs
-    private static <S, T> Function<S, T> tryAll(Function<S, T>... functions) {
-        return s -> Arrays.stream(functions)
-                .flatMap(fn -> {
-                    T result = fn.apply(s);
-                    return result != null ? Stream.of(result) : Stream.empty();
-                })
-                .findFirst()
-                .orElse(null);
+    private static <S> Attribute<S> localized(final String name, final Function<S, String> getter) {
+        return new Attribute<>(name, Attribute.Kind.LOCALIZED, getter);
     }
 
-    private static <S, T> Function<S, T> nullSafe(final Function<S, T> fn) {
-        return s -> s != null ? fn.apply(s) : null;
+    private static <S> Attribute<S> localizedValues(final String name, final Function<S, String[]> getter) {
+        return new Attribute<>(name, Attribute.Kind.LOCALIZED_VALUES, getter);
     }
 
-    private static <T> Function<Collection<T>, Map<String, T>> fromCollectionToMap(final Function<T, String> keyMapper) {
-        return list -> list.stream().collect(Collectors.toMap(keyMapper, Function.identity()));
+    /**
+     * A compared attribute: its name in the report, how its value is compared and how it is read.
+     */
+    private static final class Attribute<S> {
+
+        enum Kind { VALUE, LOCALIZED, LOCALIZED_VALUES }
+
+        private final String name;
+
+        private final Kind kind;
+
+        private final Function<S, ?> getter;
+
+        Attribute(final String name, final Kind kind, final Function<S, ?> getter) {
+            this.name = name;
+            this.kind = kind;
+            this.getter = getter;
+        }
     }
 }
@@ -0,0 +1,347 @@
+package net.distilledcode.tools.osgi;
+
+import javax.annotation.CheckForNull;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The compared metadata of a validated Declarative Services component, as read by
+ * {@link ComponentDescriptionParser}. Defaults are already applied, values have
+ * the types felix SCR gives them, e.g. configuration PIDs are a list and typed
+ * properties are boxed values or primitive arrays, so both read alike in a report.
+ * <p>
+ * Instances are immutable. Arrays are returned as they are held and must not be
+ * modified, the configuration PID list is not wrapped as its type is reported.
+ */
+public final class ComponentDescription {
+
+    /**
+     * The scope of a provided service, named like the {@code ServiceScope} of felix SCR.
+     */
+    public enum Scope {
+        singleton, bundle, prototype
+    }
+
+    private final String name;
+
+    private final boolean enabled;
+
+    private final List<String> configurationPid;
+
+    private final boolean configurationPidDeclared;
+
+    private final String configurationPolicy;
+
+    private final String activate;
+
+    private final String modified;
+
+    private final String deactivate;
+
+    private final String factoryIdentifier;
+
+    private final Map<String, Object> properties;
+
+    private final Service service;
+
+    private final List<Reference> references;
+
+    private final String implementationClassName;
+
+    ComponentDescription(final String name, final boolean enabled, final List<String> configurationPid,
+                         final boolean configurationPidDeclared, final String configurationPolicy,
+                         @CheckForNull final String activate, @CheckForNull final String modified,
+                         @CheckForNull final String deactivate, @CheckForNull final String factoryIdentifier,
+                         final Map<String, Object> properties, @CheckForNull final Service service,
+                         final List<Reference> references, final String implementationClassName) {
+        this.name = name;
+        this.enabled = enabled;
+        this.configurationPid = configurationPid;
+        this.configurationPidDeclared = configurationPidDeclared;
+        this.configurationPolicy = configurationPolicy;
+        this.activate = activate;
+        this.modified = modified;
+        this.deactivate = deactivate;
+        this.factoryIdentifier = factoryIdentifier;
+        this.properties = properties.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(properties);
+        this.service = service;
+        this.references = references.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(references);
+        this.implementationClassName = implementationClassName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the declared configuration PIDs with {@code $} replaced by the name,
+     *         or a singleton list of the name if none is declared
+     */
+    public List<String> getConfigurationPid() {
+        return configurationPid;
+    }
+
+    public boolean isConfigurationPidDeclared() {
+        return configurationPidDeclared;
+    }
+
+    public String getConfigurationPolicy() {
+        return configurationPolicy;
+    }
+
+    @CheckForNull
+    public String getActivate() {
+        return activate;
+    }
+
+    @CheckForNull
+    public String getModified() {
+        return modified;
+    }
+
+    @CheckForNull
+    public String getDeactivate() {
+        return deactivate;
+    }
+
+    @CheckForNull
+    public String getFactoryIdentifier() {
+        return factoryIdentifier;
+    }
+
+    public Scope getServiceScope() {
+        return service == null ? Scope.singleton : service.getScope();
+    }
+
+    public Map<String, Object> getProperties() {
+        return properties;
+    }
+
+    @CheckForNull
+    public Service getService() {
+        return service;
+    }
+
+    public List<Reference> getReferences() {
+        return references;
+    }
+
+    public String getImplementationClassName() {
+        return implementationClassName;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ComponentDescription)) {
+            return false;
+        }
+        ComponentDescription that = (ComponentDescription) other;
+        return enabled == that.enabled
+                && name.equals(that.name)
+                && configurationPid.equals(that.configurationPid)
+                && configurationPidDeclared == that.configurationPidDeclared
+                && configurationPolicy.equals(that.configurationPolicy)
+                && Objects.equals(activate, that.activate)
+                && Objects.equals(modified, that.modified)
+                && Objects.equals(deactivate, that.deactivate)
+                && Objects.equals(factoryIdentifier, that.factoryIdentifier)
+                && equalProperties(properties, that.properties)
+                && Objects.equals(service, that.service)
+                && references.equals(that.references)
+                && implementationClassName.equals(that.implementationClassName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, configurationPid, implementationClassName);
+    }
+
+    @Override
+    public String toString() {
+        return "ComponentDescription[" + name + "]";
+    }
+
+    // property values may be arrays
+    private static boolean equalProperties(final Map<String, Object> left, final Map<String, Object> right) {
+        if (!left.keySet().equals(right.keySet())) {
+            return false;
+        }
+        for (final Map.Entry<String, Object> entry : left.entrySet()) {
+            if (!Objects.deepEquals(entry.getValue(), right.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The {@code service} element of a component.
+     */
+    public static final class Service {
+
+        private final Scope scope;
+
+        private final String[] provides;
+
+        Service(final Scope scope, final String[] provides) {
+            this.scope = scope;
+            this.provides = provides;
+        }
+
+        public Scope getScope() {
+            return scope;
+        }
+
+        public String[] getProvides() {
+            return provides;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Service)) {
+                return false;
+            }
+            Service that = (Service) other;
+            return scope == that.scope && Arrays.equals(provides, that.provides);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * scope.hashCode() + Arrays.hashCode(provides);
+        }
+
+        @Override
+        public String toString() {
+            return "Service" + Arrays.toString(provides);
+        }
+    }
+
+    /**
+     * A {@code reference} element of a component.
+     */
+    public static final class Reference {
+
+        private final String name;
+
+        private final String interfaceName;
+
+        private final String cardinality;
+
+        private final String bind;
+
+        private final String unbind;
+
+        private final String updated;
+
+        private final String field;
+
+        private final String fieldOption;
+
+        private final String collectionType;
+
+        Reference(final String name, final String interfaceName, final String cardinality,
+                  @CheckForNull final String bind, @CheckForNull final String unbind, @CheckForNull final String updated,
+                  @CheckForNull final String field, @CheckForNull final String fieldOption, @CheckForNull final String collectionType) {
+            this.name = name;
+            this.interfaceName = interfaceName;
+            this.cardinality = cardinality;
+            this.bind = bind;
+            this.unbind = unbind;
+            this.updated = updated;
+            this.field = field;
+            this.fieldOption = fieldOption;
+            this.collectionType = collectionType;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getInterface() {
+            return interfaceName;
+        }
+
+        public String getCardinality() {
+            return cardinality;
+        }
+
+        @CheckForNull
+        public String getBind() {
+            return bind;
+        }
+
+        @CheckForNull
+        public String getUnbind() {
+            return unbind;
+        }
+
+        @CheckForNull
+        public String getUpdated() {
+            return updated;
+        }
+
+        @CheckForNull
+        public String getField() {
+            return field;
+        }
+
+        /**
+         * @return the field option, only defaulted if a field is declared
+         */
+        @CheckForNull
+        public String getFieldOption() {
+            return fieldOption;
+        }
+
+        /**
+         * @return the collection type of a field or constructor parameter
+         */
+        @CheckForNull
+        public String getCollectionType() {
+            return collectionType;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Reference)) {
+                return false;
+            }
+            Reference that = (Reference) other;
+            return name.equals(that.name)
+                    && interfaceName.equals(that.interfaceName)
+                    && cardinality.equals(that.cardinality)
+                    && Objects.equals(bind, that.bind)
+                    && Objects.equals(unbind, that.unbind)
+                    && Objects.equals(updated, that.updated)
+                    && Objects.equals(field, that.field)
+                    && Objects.equals(fieldOption, that.fieldOption)
+                    && Objects.equals(collectionType, that.collectionType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, interfaceName);
+        }
+
+        @Override
+        public String toString() {
+            return "Reference[" + name + "]";
+        }
+    }
+}
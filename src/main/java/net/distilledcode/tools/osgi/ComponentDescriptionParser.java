@@ -0,0 +1,868 @@
+package net.distilledcode.tools.osgi;
+
+import org.osgi.service.component.ComponentException;
+
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * Reads the components of a Service-Component XML document into {@link ComponentDescription}s
+ * with a single StAX pass. Elements are interpreted and components validated like felix SCR's
+ * {@code XmlHandler} and {@code ComponentMetadata} do, including the DS version rules, so a
+ * descriptor yields the same values and fails in the same cases. Felix SCR remains available
+ * through {@link DeclarativeServices#readComponentMetadata(BundleIndex)} as the reference.
+ * <p>
+ * Attribute values are canonicalized through {@link StringPool#SHARED}.
+ */
+final class ComponentDescriptionParser {
+
+    static final String NAMESPACE_1_0 = "http://www.osgi.org/xmlns/scr/v1.0.0";
+
+    private static final String NAMESPACE_EXTENSIONS = "http://felix.apache.org/xmlns/scr/extensions/v1.0.0";
+
+    // in the order of felix SCR's DSVersion, the felix variants only add extensions
+    private static final int DS10 = 0;
+    private static final int DS11 = 1;
+    private static final int DS11_FELIX = 2;
+    private static final int DS12 = 3;
+    private static final int DS12_FELIX = 4;
+    private static final int DS13 = 5;
+    private static final int DS14 = 6;
+    private static final int DS15 = 7;
+
+    private static final Map<String, Integer> VERSIONS = new HashMap<>();
+
+    static {
+        VERSIONS.put("", DS10);
+        VERSIONS.put(NAMESPACE_1_0, DS10);
+        VERSIONS.put("http://www.osgi.org/xmlns/scr/v1.1.0", DS11);
+        VERSIONS.put("http://felix.apache.org/xmlns/scr/v1.1.0-felix", DS11_FELIX);
+        VERSIONS.put("http://www.osgi.org/xmlns/scr/v1.2.0", DS12);
+        VERSIONS.put("http://felix.apache.org/xmlns/scr/v1.2.0-felix", DS12_FELIX);
+        VERSIONS.put("http://www.osgi.org/xmlns/scr/v1.3.0", DS13);
+        VERSIONS.put("http://www.osgi.org/xmlns/scr/v1.4.0", DS14);
+        VERSIONS.put("http://www.osgi.org/xmlns/scr/v1.5.0", DS15);
+    }
+
+    private static final Set<String> CONFIGURATION_POLICIES = new HashSet<>(Arrays.asList("ignore", "optional", "require"));
+
+    private static final Set<String> CARDINALITIES = new HashSet<>(Arrays.asList("0..1", "0..n", "1..1", "1..n"));
+
+    private static final Set<String> POLICIES = new HashSet<>(Arrays.asList("static", "dynamic"));
+
+    private static final Set<String> POLICY_OPTIONS = new HashSet<>(Arrays.asList("reluctant", "greedy"));
+
+    private static final Set<String> REFERENCE_SCOPES = new HashSet<>(Arrays.asList("bundle", "prototype", "prototype_required"));
+
+    private static final Set<String> FIELD_OPTIONS = new HashSet<>(Arrays.asList("update", "replace"));
+
+    private static final Set<String> COLLECTION_TYPES = new HashSet<>(Arrays.asList("service", "properties", "reference", "serviceobjects", "tuple"));
+
+    private final XMLStreamReader reader;
+
+    private final BundleSource source;
+
+    private final StringPool pool = StringPool.SHARED;
+
+    private final List<Component> components = new ArrayList<>();
+
+    private boolean firstElement = true;
+
+    // the namespace of unqualified elements if the document is a single unqualified component
+    private String overrideNamespace;
+
+    private boolean inComponent;
+
+    private Component component;
+
+    // like in felix SCR, a service is only replaced by the next service element, even in another component
+    private Service service;
+
+    private Property pendingProperty;
+
+    private boolean pendingFactoryProperty;
+
+    private StringBuilder text;
+
+    private ComponentDescriptionParser(final XMLStreamReader reader, final BundleSource source) {
+        this.reader = reader;
+        this.source = source;
+    }
+
+    /**
+     * Parses and validates the components of a single document.
+     *
+     * @param source the bundle of the document, {@code properties} elements are read from it
+     * @throws IOException if the document or a properties entry cannot be read
+     * @throws XMLStreamException if the document cannot be parsed
+     * @throws ComponentException if a component is invalid
+     */
+    static List<ComponentDescription> parse(final InputStream inputStream, final BundleSource source) throws IOException, XMLStreamException {
+        XMLStreamReader reader = XmlStreams.open(inputStream);
+        ComponentDescriptionParser parser = new ComponentDescriptionParser(reader, source);
+        try {
+            parser.read();
+        } finally {
+            reader.close();
+        }
+        List<ComponentDescription> descriptions = new ArrayList<>(parser.components.size());
+        for (final Component parsed : parser.components) {
+            descriptions.add(parsed.validate());
+        }
+        return descriptions;
+    }
+
+    /**
+     * Scans a document for the bundle entries its {@code properties} and {@code factory-properties}
+     * elements read, without parsing the components.
+     *
+     * @return the paths of the referenced entries, in document order
+     * @throws XMLStreamException if the document cannot be parsed
+     */
+    static Set<String> readPropertiesEntries(final InputStream inputStream) throws XMLStreamException {
+        Set<String> entries = new LinkedHashSet<>();
+        XMLStreamReader reader = XmlStreams.open(inputStream);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                        && ("properties".equals(reader.getLocalName()) || "factory-properties".equals(reader.getLocalName()))) {
+                    String entry = reader.getAttributeValue(null, "entry");
+                    if (entry != null) {
+                        entries.add(entry);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    private void read() throws IOException, XMLStreamException {
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    startElement();
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (pendingProperty != null) {
+                        if (text == null) {
+                            text = new StringBuilder();
+                        }
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void startElement() throws IOException, XMLStreamException {
+        String element = reader.getLocalName();
+        if (firstElement) {
+            firstElement = false;
+            if ("component".equals(element) && namespace().isEmpty()) {
+                overrideNamespace = NAMESPACE_1_0;
+            }
+        }
+        Integer version = VERSIONS.get(normalizedNamespace());
+        if (version == null) {
+            return;
+        }
+        if ("component".equals(element)) {
+            inComponent = true;
+            component = new Component(version);
+            component.name = attribute("name");
+            if (attribute("enabled") != null) {
+                component.enabled = "true".equals(attribute("enabled"));
+            }
+            if (attribute("immediate") != null) {
+                component.immediate = "true".equals(attribute("immediate"));
+            }
+            component.factory = attribute("factory");
+            component.configurationPolicy = attribute("configuration-policy");
+            component.activate = attribute("activate");
+            component.deactivate = attribute("deactivate");
+            component.modified = attribute("modified");
+            String configurationPid = attribute("configuration-pid");
+            if (configurationPid != null) {
+                component.configurationPid = new ArrayList<>(Arrays.asList(pool.intern(configurationPid.split(" "))));
+            }
+            component.configurableServiceProperties = "true".equals(attribute(NAMESPACE_EXTENSIONS, "configurableServiceProperties"));
+            component.persistentFactoryComponent = "true".equals(attribute(NAMESPACE_EXTENSIONS, "persistentFactoryComponent"));
+            component.obsoleteFactoryComponentFactory = attribute(NAMESPACE_EXTENSIONS, "obsoleteFactoryComponentFactory") != null;
+            component.configureWithInterfaces = "true".equals(attribute(NAMESPACE_EXTENSIONS, "configureWithInterfaces"));
+            component.activationFields = attribute("activation-fields") != null;
+            component.init = attribute("init");
+            components.add(component);
+        } else if (!inComponent) {
+            return;
+        } else if ("implementation".equals(element)) {
+            component.duplicateImplementation |= component.implementationClassName != null;
+            component.implementationClassName = attribute("class");
+        } else if ("property".equals(element) || "factory-property".equals(element)) {
+            Property property = new Property(attribute("name"), attribute("type"), false);
+            String value = attribute("value");
+            if (value != null) {
+                property.value = value;
+                component.add(property, "factory-property".equals(element));
+            } else {
+                pendingProperty = property;
+                pendingFactoryProperty = "factory-property".equals(element);
+            }
+        } else if ("properties".equals(element) || "factory-properties".equals(element)) {
+            for (final Map.Entry<Object, Object> entry : readPropertiesEntry(attribute("entry")).entrySet()) {
+                Property property = new Property(pool.intern(String.valueOf(entry.getKey())), null, false);
+                property.value = pool.intern(String.valueOf(entry.getValue()));
+                component.add(property, "factory-properties".equals(element));
+            }
+        } else if ("service".equals(element)) {
+            service = new Service();
+            if (attribute("servicefactory") != null) {
+                service.serviceFactory = "true".equals(attribute("servicefactory"));
+            }
+            service.scopeName = attribute("scope");
+            component.duplicateService |= component.service != null;
+            component.service = service;
+        } else if ("provide".equals(element)) {
+            if (service == null) {
+                throw new XMLStreamException("provide element outside of a service element", reader.getLocation());
+            }
+            service.provides.add(attribute("interface"));
+        } else if ("reference".equals(element)) {
+            Reference reference = new Reference();
+            reference.name = attribute("name");
+            reference.interfaceName = attribute("interface");
+            reference.cardinality = attribute("cardinality");
+            reference.policy = attribute("policy");
+            reference.policyOption = attribute("policy-option");
+            reference.scopeName = attribute("scope");
+            String target = attribute("target");
+            if (target != null) {
+                Property property = new Property(pool.intern((reference.name == null ? reference.interfaceName : reference.name) + ".target"), null, true);
+                property.value = target;
+                component.add(property, false);
+            }
+            reference.bind = attribute("bind");
+            reference.updated = attribute("updated");
+            reference.unbind = attribute("unbind");
+            reference.field = attribute("field");
+            reference.fieldOption = attribute("field-option");
+            reference.collectionType = attribute("field-collection-type");
+            reference.parameter = attribute("parameter");
+            component.references.add(reference);
+        }
+    }
+
+    private void endElement() {
+        if (!NAMESPACE_1_0.equals(normalizedNamespace())) {
+            return;
+        }
+        String element = reader.getLocalName();
+        if ("component".equals(element)) {
+            inComponent = false;
+        } else if (pendingProperty != null
+                && ("property".equals(element) && !pendingFactoryProperty || "factory-property".equals(element) && pendingFactoryProperty)) {
+            if (text != null) {
+                pendingProperty.values = values(text.toString());
+                text = null;
+                component.add(pendingProperty, pendingFactoryProperty);
+            }
+            pendingProperty = null;
+        }
+    }
+
+    private Properties readPropertiesEntry(@CheckForNull final String path) throws IOException, XMLStreamException {
+        if (path == null) {
+            throw new XMLStreamException("Missing entry attribute of properties element", reader.getLocation());
+        }
+        BundleEntry entry = source.getEntry(path);
+        if (entry == null) {
+            throw new XMLStreamException("Missing bundle entry " + path, reader.getLocation());
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = source.getInputStream(entry)) {
+            properties.load(inputStream);
+        }
+        return properties;
+    }
+
+    // the lines of a property element's text, trimmed and without empty lines
+    private String[] values(final String text) {
+        List<String> values = new ArrayList<>();
+        StringTokenizer lines = new StringTokenizer(text, "\r\n");
+        while (lines.hasMoreTokens()) {
+            String value = lines.nextToken().trim();
+            if (!value.isEmpty()) {
+                values.add(pool.intern(value));
+            }
+        }
+        return values.toArray(new String[0]);
+    }
+
+    private String namespace() {
+        String namespace = reader.getNamespaceURI();
+        return namespace == null ? "" : namespace;
+    }
+
+    // unqualified elements of a component belong to the 1.0.0 namespace
+    private String normalizedNamespace() {
+        String namespace = namespace();
+        if (overrideNamespace != null && namespace.isEmpty()) {
+            namespace = overrideNamespace;
+        }
+        if (inComponent && namespace.isEmpty()) {
+            namespace = NAMESPACE_1_0;
+        }
+        return namespace;
+    }
+
+    @CheckForNull
+    private String attribute(final String name) {
+        return attribute("", name);
+    }
+
+    @CheckForNull
+    private String attribute(final String namespace, final String name) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String attributeNamespace = reader.getAttributeNamespace(i);
+            if (name.equals(reader.getAttributeLocalName(i))
+                    && namespace.equals(attributeNamespace == null ? "" : attributeNamespace)) {
+                return pool.intern(reader.getAttributeValue(i));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A component as declared, until it is validated.
+     */
+    private static final class Component {
+
+        private final int version;
+
+        private String name;
+
+        private boolean enabled = true;
+
+        private Boolean immediate;
+
+        private String factory;
+
+        private String configurationPolicy;
+
+        private String activate;
+
+        private String deactivate;
+
+        private String modified;
+
+        private List<String> configurationPid;
+
+        private boolean configurableServiceProperties;
+
+        private boolean persistentFactoryComponent;
+
+        private boolean obsoleteFactoryComponentFactory;
+
+        private boolean configureWithInterfaces;
+
+        private boolean activationFields;
+
+        private String init;
+
+        private String implementationClassName;
+
+        private boolean duplicateImplementation;
+
+        private final List<Property> properties = new ArrayList<>();
+
+        private final List<Property> factoryProperties = new ArrayList<>();
+
+        private Service service;
+
+        private boolean duplicateService;
+
+        private final List<Reference> references = new ArrayList<>();
+
+        Component(final int version) {
+            this.version = version;
+        }
+
+        void add(final Property property, final boolean factoryProperty) {
+            (factoryProperty ? factoryProperties : properties).add(property);
+        }
+
+        boolean isDS(final int minimum) {
+            return version >= minimum;
+        }
+
+        ComponentDescription validate() {
+            if (name == null) {
+                if (!isDS(DS11)) {
+                    throw new ComponentException("The component name has not been set");
+                }
+                name = implementationClassName;
+            }
+            if (implementationClassName == null) {
+                throw failure("Implementation class name missing");
+            }
+            if (duplicateImplementation) {
+                throw failure("Implementation element must occur exactly once");
+            }
+
+            if (configurationPolicy == null) {
+                configurationPolicy = "optional";
+            } else if (!isDS(DS11)) {
+                throw failure("configuration-policy declaration requires DS 1.1 or later namespace");
+            } else if (!CONFIGURATION_POLICIES.contains(configurationPolicy)) {
+                throw failure("configuration-policy must be one of " + CONFIGURATION_POLICIES);
+            }
+            if (activate == null) {
+                activate = "activate";
+            } else if (!isDS(DS11)) {
+                throw failure("activate method declaration requires DS 1.1 or later namespace");
+            }
+            if (deactivate == null) {
+                deactivate = "deactivate";
+            } else if (!isDS(DS11)) {
+                throw failure("deactivate method declaration requires DS 1.1 or later namespace");
+            }
+            if (modified != null && !isDS(DS11)) {
+                throw failure("modified method declaration requires DS 1.1 or later namespace");
+            }
+
+            boolean configurationPidDeclared = configurationPid != null;
+            if (!configurationPidDeclared) {
+                configurationPid = Collections.singletonList(name);
+            } else {
+                validateConfigurationPid();
+            }
+
+            Map<String, Object> propertyValues = new HashMap<>();
+            for (final Property property : properties) {
+                Object value = property.validate(this);
+                if (isDS(DS15) && property.referenceTarget) {
+                    propertyValues.putIfAbsent(property.name, value);
+                } else {
+                    propertyValues.put(property.name, value);
+                }
+            }
+            if (!isDS(DS14) && !factoryProperties.isEmpty()) {
+                throw failure("Use of factory properties requires DS 1.4 or later namespace");
+            }
+            if (isDS(DS14) && factory != null) {
+                for (final Property property : factoryProperties) {
+                    property.validate(this);
+                }
+            }
+
+            if (duplicateService) {
+                throw failure("Service element must occur at most once");
+            }
+            ComponentDescription.Service validatedService = service == null ? null : service.validate(this);
+
+            List<ComponentDescription.Reference> validatedReferences = new ArrayList<>(references.size());
+            Set<String> referenceNames = new HashSet<>();
+            for (final Reference reference : references) {
+                validatedReferences.add(reference.validate(this));
+                if (!referenceNames.add(reference.name)) {
+                    throw failure("Detected duplicate reference name: ''" + reference.name + "''");
+                }
+            }
+
+            if (immediate != null) {
+                if (immediate && factory != null) {
+                    throw failure("Factory cannot be immediate");
+                }
+                if (!immediate && service == null && factory == null) {
+                    throw failure("Delayed must provide a service or be a factory");
+                }
+            }
+            boolean isImmediate = immediate != null ? immediate : service == null && factory == null;
+            if (validatedService != null && validatedService.getScope() != ComponentDescription.Scope.singleton
+                    && (factory != null || isImmediate)) {
+                throw failure("factory or immediate must be scope singleton not " + validatedService.getScope());
+            }
+            if (activationFields && !isDS(DS14)) {
+                throw failure("Activation fields require version 1.4 or later");
+            }
+            if (init != null) {
+                validateInit();
+            }
+
+            if (version == DS12_FELIX) {
+                configurableServiceProperties = true;
+            }
+            if (configurableServiceProperties && validatedService != null
+                    && validatedService.getScope() != ComponentDescription.Scope.singleton) {
+                throw failure("configurable service properties only allowed with singleton scope");
+            }
+            if (!isDS(DS13) && configureWithInterfaces) {
+                throw failure("Configuration with interfaces or annotations only possible with version 1.3 or later");
+            }
+            if (isDS(DS13) && obsoleteFactoryComponentFactory) {
+                throw failure("Configuration of component factory instances through config admin factory pids supported only through the 1.2 namespace");
+            }
+            if (persistentFactoryComponent && factory == null) {
+                throw failure("Only a factory component can be a persistent factory component");
+            }
+
+            return new ComponentDescription(name, enabled, configurationPid, configurationPidDeclared, configurationPolicy,
+                    activate, modified, deactivate, factory, propertyValues, validatedService, validatedReferences,
+                    implementationClassName);
+        }
+
+        private void validateConfigurationPid() {
+            if (!isDS(DS12)) {
+                throw failure("configuration-pid attribute requires DS 1.2 or later namespace");
+            }
+            if (configurationPid.isEmpty()) {
+                throw failure("configuration-pid nust not be empty string");
+            }
+            if (configurationPid.size() > 1 && !isDS(DS13)) {
+                throw failure("multiple configuration-pid requires DS 1.3 or later namespace");
+            }
+            for (int i = 0; i < configurationPid.size(); i++) {
+                if ("$".equals(configurationPid.get(i))) {
+                    if (!isDS(DS13)) {
+                        throw failure("Use of '$' configuration-pid wildcard requires DS 1.3 or later namespace");
+                    }
+                    configurationPid.set(i, name);
+                }
+            }
+            if (new HashSet<>(configurationPid).size() != configurationPid.size()) {
+                throw failure("Duplicate pids not allowed: " + configurationPid);
+            }
+        }
+
+        private void validateInit() {
+            if (!isDS(DS14)) {
+                throw failure("Constructor injection requires version 1.4 or later");
+            }
+            int parameters;
+            try {
+                parameters = Integer.parseInt(init);
+            } catch (NumberFormatException e) {
+                throw failure("Init parameter is not a number: " + init);
+            }
+            if (parameters < 0) {
+                throw failure("Init parameter must have non negative value: " + init);
+            }
+        }
+
+        ComponentException failure(final String reason) {
+            return new ComponentException("Component " + name + " validation failed: " + reason);
+        }
+    }
+
+    /**
+     * A property or factory property, its value is converted to its type on validation.
+     */
+    private static final class Property {
+
+        private final String name;
+
+        private final String type;
+
+        // set by a property element with a value attribute and by a properties entry
+        private String value;
+
+        // set by a property element with text content
+        private String[] values;
+
+        private final boolean referenceTarget;
+
+        Property(@CheckForNull final String name, @CheckForNull final String type, final boolean referenceTarget) {
+            this.name = name;
+            this.type = type;
+            this.referenceTarget = referenceTarget;
+        }
+
+        Object validate(final Component component) {
+            if (name == null) {
+                throw component.failure("Property name attribute is mandatory");
+            }
+            String propertyType = type == null ? "String" : type;
+            if (component.isDS(DS11) && "Char".equals(propertyType)) {
+                throw component.failure("Illegal property type 'Char' used for DS 1.1 descriptor, use 'Character' instead");
+            }
+            if (!component.isDS(DS11) && "Character".equals(propertyType)) {
+                throw component.failure("Illegal property type 'Character' used for DS 1.0 descriptor, use 'Char' instead");
+            }
+            try {
+                return value != null ? toType(propertyType, value) : toTypeArray(propertyType, values);
+            } catch (NumberFormatException e) {
+                throw component.failure(name + ": Cannot convert property value to " + propertyType);
+            } catch (IllegalArgumentException e) {
+                throw component.failure(name + ": " + e.getMessage());
+            }
+        }
+
+        private static Object toType(final String type, final String value) {
+            switch (type) {
+                case "String":
+                    return value;
+                case "Long":
+                    return Long.valueOf(value);
+                case "Double":
+                    return Double.valueOf(value);
+                case "Float":
+                    return Float.valueOf(value);
+                case "Integer":
+                    return Integer.valueOf(value);
+                case "Byte":
+                    return Byte.valueOf(value);
+                case "Char":
+                case "Character":
+                    return (char) Integer.parseInt(value);
+                case "Boolean":
+                    return Boolean.valueOf(value);
+                case "Short":
+                    return Short.valueOf(value);
+                default:
+                    throw new IllegalArgumentException("Undefined property type '" + type + "'");
+            }
+        }
+
+        private static Object toTypeArray(final String type, final String[] values) {
+            switch (type) {
+                case "String":
+                    return values;
+                case "Long": {
+                    long[] array = new long[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        array[i] = Long.parseLong(values[i]);
+                    }
+                    return array;
+                }
+                case "Double": {
+                    double[] array = new double[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        array[i] = Double.parseDouble(values[i]);
+                    }
+                    return array;
+                }
+                case "Float": {
+                    float[] array = new float[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        array[i] = Float.parseFloat(values[i]);
+                    }
+                    return array;
+                }
+                case "Integer": {
+                    int[] array = new int[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        array[i] = Integer.parseInt(values[i]);
+                    }
+                    return array;
+                }
+                case "Byte": {
+                    byte[] array = new byte[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        array[i] = Byte.parseByte(values[i]);
+                    }
+                    return array;
+                }
+                case "Char":
+                case "Character": {
+                    char[] array = new char[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        array[i] = (char) Integer.parseInt(values[i]);
+                    }
+                    return array;
+                }
+                case "Boolean": {
+                    boolean[] array = new boolean[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        array[i] = Boolean.parseBoolean(values[i]);
+                    }
+                    return array;
+                }
+                case "Short": {
+                    short[] array = new short[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        array[i] = Short.parseShort(values[i]);
+                    }
+                    return array;
+                }
+                default:
+                    throw new IllegalArgumentException("Undefined property type '" + type + "'");
+            }
+        }
+    }
+
+    /**
+     * A service element and the interfaces it provides.
+     */
+    private static final class Service {
+
+        private Boolean serviceFactory;
+
+        private String scopeName;
+
+        private final List<String> provides = new ArrayList<>();
+
+        ComponentDescription.Service validate(final Component component) {
+            if (provides.isEmpty()) {
+                throw component.failure("At least one provided interface must be declared in the service element");
+            }
+            if (provides.contains(null)) {
+                throw component.failure("Null provides.  Possibly service is not specified as value of attribute 'interface'");
+            }
+            ComponentDescription.Scope scope = ComponentDescription.Scope.singleton;
+            if (serviceFactory != null) {
+                if (component.isDS(DS13)) {
+                    throw component.failure("service-factory can only be specified in version 1.2 and earlier");
+                }
+                scope = serviceFactory ? ComponentDescription.Scope.bundle : ComponentDescription.Scope.singleton;
+            }
+            if (scopeName != null) {
+                if (!component.isDS(DS13)) {
+                    throw component.failure("service scope can only be specified in version 1.3 and later");
+                }
+                try {
+                    scope = ComponentDescription.Scope.valueOf(scopeName);
+                } catch (IllegalArgumentException e) {
+                    throw component.failure("Service scope may be only 'singleton' 'bundle' or 'prototype' not " + scopeName);
+                }
+            }
+            return new ComponentDescription.Service(scope, provides.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * A reference element.
+     */
+    private static final class Reference {
+
+        private String name;
+
+        private String interfaceName;
+
+        private String cardinality;
+
+        private String policy;
+
+        private String policyOption;
+
+        private String scopeName;
+
+        private String bind;
+
+        private String updated;
+
+        private String unbind;
+
+        private String field;
+
+        private String fieldOption;
+
+        private String collectionType;
+
+        private String parameter;
+
+        ComponentDescription.Reference validate(final Component component) {
+            if (name == null) {
+                if (!component.isDS(DS11)) {
+                    throw component.failure("A name must be declared for the reference");
+                }
+                name = interfaceName;
+            }
+            if (interfaceName == null) {
+                throw component.failure("An interface must be declared for the reference");
+            }
+            if (cardinality == null) {
+                cardinality = "1..1";
+            } else if (!CARDINALITIES.contains(cardinality)) {
+                throw component.failure("Cardinality must be one of " + CARDINALITIES);
+            }
+            if (policy == null) {
+                policy = "static";
+            } else if (!POLICIES.contains(policy)) {
+                throw component.failure("Policy must be one of " + POLICIES);
+            }
+            if (policyOption == null) {
+                policyOption = "reluctant";
+            } else if (!POLICY_OPTIONS.contains(policyOption)) {
+                throw component.failure("Policy option must be one of " + POLICY_OPTIONS);
+            } else if (!component.isDS(DS12) && !"reluctant".equals(policyOption)) {
+                throw component.failure("Policy option must be reluctant for DS < 1.2");
+            }
+            if (scopeName != null) {
+                if (!component.isDS(DS13)) {
+                    throw component.failure("reference scope can be set only for DS >= 1.3");
+                }
+                if (!REFERENCE_SCOPES.contains(scopeName)) {
+                    throw component.failure("reference scope must be 'bundle' or 'prototype' not " + scopeName);
+                }
+            }
+            if (updated != null && !component.isDS(DS12) && component.version != DS11_FELIX) {
+                throw component.failure("updated method declaration requires DS 1.2 or later namespace");
+            }
+            if (field != null) {
+                if (!component.isDS(DS13)) {
+                    throw component.failure("Field reference requires DS >= 1.3");
+                }
+                if (fieldOption == null) {
+                    fieldOption = "replace";
+                } else if (!FIELD_OPTIONS.contains(fieldOption)) {
+                    throw component.failure("Field strategy must be one of " + FIELD_OPTIONS);
+                }
+                boolean multiple = "0..n".equals(cardinality) || "1..n".equals(cardinality);
+                if (!multiple && "update".equals(fieldOption)) {
+                    throw component.failure("Field strategy update not allowed for unary field references.");
+                }
+                if (collectionType != null && !COLLECTION_TYPES.contains(collectionType)) {
+                    throw component.failure("Field value type must be one of " + COLLECTION_TYPES);
+                }
+            }
+            if (parameter != null) {
+                validateParameter(component);
+            }
+            return new ComponentDescription.Reference(name, interfaceName, cardinality, bind, unbind, updated,
+                    field, fieldOption, collectionType);
+        }
+
+        private void validateParameter(final Component component) {
+            if (!component.isDS(DS14)) {
+                throw component.failure("Reference parameter requires DS >= 1.4");
+            }
+            int index;
+            try {
+                index = Integer.parseInt(parameter);
+            } catch (NumberFormatException e) {
+                throw component.failure("Reference parameter is not a number: " + parameter);
+            }
+            if (index < 0) {
+                throw component.failure("Reference parameter value must be zero or higher: " + parameter);
+            }
+            if (collectionType == null) {
+                collectionType = "service";
+            } else if (!COLLECTION_TYPES.contains(collectionType)) {
+                throw component.failure("Collection value type must be one of " + COLLECTION_TYPES);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package net.distilledcode.tools.osgi;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Include and exclude globs on component names and PIDs. In a glob, {@code *}
+ * matches any sequence of characters and {@code ?} matches a single character.
+ * <p>
+ * A component is selected if its PID or its component name matches any include
+ * (or no includes are defined), and neither matches an exclude.
+ */
+public class ComponentFilter {
+
+    public static final ComponentFilter ALL = new ComponentFilter(Collections.emptyList(), Collections.emptyList());
+
+    private final List<Pattern> includes;
+
+    private final List<Pattern> excludes;
+
+    public ComponentFilter(final List<String> includes, final List<String> excludes) {
+        this.includes = toPatterns(includes);
+        this.excludes = toPatterns(excludes);
+    }
+
+    public boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    /**
+     * @param pid the configuration PID, or the component name if no PID is declared
+     * @param componentName the name of the component, or {@code null} if the PID has no component
+     */
+    public boolean matches(final String pid, @CheckForNull final String componentName) {
+        if (matchesAny(excludes, pid, componentName)) {
+            return false;
+        }
+        return includes.isEmpty() || matchesAny(includes, pid, componentName);
+    }
+
+    private static boolean matchesAny(final List<Pattern> patterns, final String pid, @CheckForNull final String componentName) {
+        for (final Pattern pattern : patterns) {
+            if (pattern.matcher(pid).matches() || componentName != null && pattern.matcher(componentName).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Pattern> toPatterns(final List<String> globs) {
+        List<Pattern> patterns = new ArrayList<>(globs.size());
+        for (final String glob : globs) {
+            patterns.add(toPattern(glob));
+        }
+        return patterns;
+    }
+
+    static Pattern toPattern(final String glob) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > start) {
+                    regex.append(Pattern.quote(glob.substring(start, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -3,79 +3,166 @@ package net.distilledcode.tools.osgi;
 import org.apache.felix.scr.impl.metadata.ComponentMetadata;
 import org.apache.felix.scr.impl.xml.XmlHandler;
 import org.osgi.framework.Bundle;
-import org.osgi.framework.BundleContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
 
 import javax.annotation.CheckForNull;
 import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.AbstractMap;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import static net.distilledcode.tools.osgi.InvocationHandlers.getJarFileAsBundle;
+import static net.distilledcode.tools.osgi.InvocationHandlers.getBundleSourceAsBundle;
 
+/**
+ * Reads the Declarative Services components of a bundle. Components are compared as
+ * {@link ComponentDescription}s read by {@link ComponentDescriptionParser}, the
+ * {@code readComponentMetadata} methods read them with felix SCR instead and serve
+ * as the reference the native model is checked against.
+ */
 public class DeclarativeServices {
 
     private static final Logger LOG = LoggerFactory.getLogger(DeclarativeServices.class);
 
-    private static final String SERVICE_COMPONENT = "Service-Component";
+    public static Map<String, ComponentDescription> readComponentDescriptions(JarFile jarFile) throws IOException {
+        return readComponentDescriptions(BundleIndex.create(jarFile));
+    }
 
-    public static Map<String, ComponentMetadata> readComponentMetadata(JarFile jarFile) throws IOException {
-        Manifest manifest = jarFile.getManifest();
-        if (manifest == null) {
-            throw new IOException("Jar at " + jarFile.getName() + " does not contain the mandatory manifest file");
+    public static Map<String, ComponentDescription> readComponentDescriptions(BundleIndex index) {
+        return readComponentDescriptions(index, false);
+    }
+
+    /**
+     * @param parallel whether the descriptors are parsed by a parallel stream, i.e. in the
+     *                 {@code ForkJoinPool} of the calling thread
+     */
+    static Map<String, ComponentDescription> readComponentDescriptions(BundleIndex index, boolean parallel) {
+        if (!index.hasServiceComponentHeader()) {
+            LOG.warn("The bundle '{}' does not contain a 'Service-Component' header in its manifest. Therefore no comparison can be performed.", index.getName());
+            return Collections.emptyMap();
+        }
+        List<BundleEntry> descriptors = index.getComponentDescriptors();
+        return toComponentDescriptionMap((parallel ? descriptors.parallelStream() : descriptors.stream())
+                .map(entry -> readComponentDescriptions(index, entry))
+                .filter(Predicate.isEqual(null).negate())
+                .flatMap(Collection::stream)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Maps components by their configuration PIDs, or by their name if no
+     * configuration PID is declared.
+     */
+    static Map<String, ComponentDescription> toComponentDescriptionMap(Collection<ComponentDescription> components) {
+        return components.stream()
+                .flatMap(component -> generateNames(component).map(p -> new AbstractMap.SimpleEntry<>(p, component)))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    /**
+     * @return the validated components declared by {@code entry}, or {@code null} if it cannot be parsed
+     * @throws org.osgi.service.component.ComponentException if a component is invalid
+     */
+    @CheckForNull
+    static List<ComponentDescription> readComponentDescriptions(final BundleIndex index, final BundleEntry entry) {
+        Timings.Timer timer = Timings.start(Timings.Phase.DS_PARSE, index.getName(), entry.getName(), null);
+        try (InputStream inputStream = index.getInputStream(entry)) {
+            return ComponentDescriptionParser.parse(inputStream, index.getSource());
+        } catch (IOException | XMLStreamException e) {
+            LOG.warn("Error parsing '{}' in '{}'", entry.getName(), index.getName(), e);
+            return null;
+        } finally {
+            timer.close();
         }
-        String serviceComponents = manifest.getMainAttributes().getValue(SERVICE_COMPONENT);
-        if (serviceComponents == null) {
-            LOG.warn("The bundle '{}' does not contain a 'Service-Component' header in its manifest. Therefore no comparison can be performed.", jarFile.getName());
+    }
+
+    public static Map<String, ComponentMetadata> readComponentMetadata(JarFile jarFile) throws IOException {
+        return readComponentMetadata(BundleIndex.create(jarFile));
+    }
+
+    public static Map<String, ComponentMetadata> readComponentMetadata(BundleIndex index) throws IOException {
+        return readComponentMetadata(index, false);
+    }
+
+    /**
+     * @param parallel whether the descriptors are parsed by a parallel stream, i.e. in the
+     *                 {@code ForkJoinPool} of the calling thread
+     */
+    static Map<String, ComponentMetadata> readComponentMetadata(BundleIndex index, boolean parallel) throws IOException {
+        if (!index.hasServiceComponentHeader()) {
+            LOG.warn("The bundle '{}' does not contain a 'Service-Component' header in its manifest. Therefore no comparison can be performed.", index.getName());
             return Collections.emptyMap();
         }
-        return Arrays.stream(serviceComponents.split(","))
-                .map(jarFile::getJarEntry)
-                .map(toComponentMetadata(jarFile))
+        Bundle bundle = getBundleSourceAsBundle(index.getSource());
+        List<BundleEntry> descriptors = index.getComponentDescriptors();
+        return toComponentMetadataMap((parallel ? descriptors.parallelStream() : descriptors.stream())
+                .map(toComponentMetadata(index, bundle))
                 .filter(Predicate.isEqual(null).negate())
                 .flatMap(Collection::stream)
                 .peek(ComponentMetadata::validate)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Maps validated components by their configuration PIDs, or by their name
+     * if no configuration PID is declared.
+     */
+    static Map<String, ComponentMetadata> toComponentMetadataMap(Collection<ComponentMetadata> components) {
+        return components.stream()
                 .flatMap(component -> generateNames(component).map(p -> new AbstractMap.SimpleEntry<>(p, component)))
                 .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
     }
 
+    private static Function<BundleEntry, List<ComponentMetadata>> toComponentMetadata(final BundleIndex index, final Bundle bundle) {
+        return entry -> readComponentMetadata(index, bundle, entry);
+    }
+
+    /**
+     * @return the components declared by {@code entry}, not yet validated, or {@code null} if it cannot be parsed
+     */
     @CheckForNull
-    private static Function<JarEntry, List<ComponentMetadata>> toComponentMetadata(final JarFile jarFile) {
-        return jarEntry -> {
-            try (InputStream inputStream = jarFile.getInputStream(jarEntry)) {
-                Bundle bundle = getJarFileAsBundle(jarFile);
-                BundleContext bundleContext = bundle.getBundleContext();
-                XmlHandler handler = new XmlHandler(
-                        bundle,
-                        new SCRLogger(LOG),
-                        false,
-                        false,
-                        null);
-                final SAXParserFactory factory = SAXParserFactory.newInstance();
-                factory.setNamespaceAware(true);
-                final SAXParser parser = factory.newSAXParser();
-                parser.parse(inputStream, handler);
-                return handler.getComponentMetadataList();
-            } catch (Exception e) {
-                LOG.warn("Error parsing '{}' in '{}'", jarEntry.getName(), jarFile.getName(), e);
-                return null;
-            }
-        };
+    static List<ComponentMetadata> readComponentMetadata(final BundleIndex index, final Bundle bundle, final BundleEntry entry) {
+        Timings.Timer timer = Timings.start(Timings.Phase.DS_PARSE, index.getName(), entry.getName(), null);
+        try (InputStream inputStream = index.getInputStream(entry)) {
+            return parse(inputStream, bundle);
+        } catch (Exception e) {
+            LOG.warn("Error parsing '{}' in '{}'", entry.getName(), index.getName(), e);
+            return null;
+        } finally {
+            timer.close();
+        }
+    }
+
+    /**
+     * Parses a single Service-Component XML document of the given bundle.
+     * The bundle can be shared between all documents of one bundle and the
+     * parser is reused per thread.
+     */
+    static List<ComponentMetadata> parse(final InputStream inputStream, final Bundle bundle) throws IOException, SAXException {
+        XmlHandler handler = new XmlHandler(
+                bundle,
+                new SCRLogger(LOG),
+                false,
+                false,
+                null);
+        SAXParser parser = SaxParsers.acquire();
+        try {
+            parser.parse(inputStream, new InterningHandler(handler, StringPool.SHARED));
+        } finally {
+            SaxParsers.release(parser);
+        }
+        return handler.getComponentMetadataList();
     }
 
     private static Stream<? extends String> generateNames(ComponentMetadata component) {
@@ -83,4 +170,10 @@ public class DeclarativeServices {
                 ? component.getConfigurationPid().stream()
                 : Stream.of(component.getName());
     }
+
+    private static Stream<? extends String> generateNames(ComponentDescription component) {
+        return component.isConfigurationPidDeclared()
+                ? component.getConfigurationPid().stream()
+                : Stream.of(component.getName());
+    }
 }
@@ -0,0 +1,98 @@
+package net.distilledcode.tools.osgi;
+
+import javax.annotation.CheckForNull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Sends a diff to a {@link DiffDaemon} and prints its output. If no daemon is
+ * listening on the socket, the diff is run in this process instead, so the
+ * output is the same as that of {@link MetadataDiff#main(String[])} either way.
+ */
+public class DiffClient {
+
+    static final String OPTION = "--client";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java -jar osgi-ds-metatype-diff.jar " + OPTION + " <socket> [options] <old> <new>");
+            System.exit(MetadataDiff.EXIT_USAGE);
+        }
+        String[] diffArgs = Arrays.copyOfRange(args, 1, args.length);
+        PrintWriter out = ReportOutput.stdout();
+        PrintWriter err = new PrintWriter(System.err);
+        int status;
+        try (SocketChannel channel = connect(Paths.get(args[0]))) {
+            if (channel == null) {
+                status = MetadataDiff.run(diffArgs, out);
+            } else {
+                status = request(channel, diffArgs, new File("").getAbsoluteFile(), out, err);
+            }
+        }
+        out.flush();
+        err.flush();
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * @return a channel connected to {@code socket}, or {@code null} if no daemon is listening on it
+     */
+    @CheckForNull
+    static SocketChannel connect(final Path socket) throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            return null;
+        }
+    }
+
+    /**
+     * Runs a diff in the daemon connected to {@code channel}.
+     *
+     * @return the exit status of the diff
+     */
+    static int request(final SocketChannel channel, final String[] args, final File workingDirectory,
+                       final PrintWriter out, final PrintWriter err) throws IOException {
+        DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        request.writeUTF(workingDirectory.getPath());
+        request.writeInt(args.length);
+        for (final String arg : args) {
+            request.writeUTF(arg);
+        }
+        request.flush();
+
+        DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        while (true) {
+            byte type = response.readByte();
+            switch (type) {
+                case DiffDaemon.FRAME_OUT:
+                    out.write(response.readUTF());
+                    break;
+                case DiffDaemon.FRAME_ERR:
+                    err.write(response.readUTF());
+                    break;
+                case DiffDaemon.FRAME_EXIT:
+                    return response.readInt();
+                default:
+                    throw new IOException("Unexpected frame type " + type);
+            }
+        }
+    }
+}
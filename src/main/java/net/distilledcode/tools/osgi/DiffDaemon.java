@@ -0,0 +1,245 @@
+package net.distilledcode.tools.osgi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps one JVM with warm parsers and the metadata of recently diffed bundles
+ * alive, and runs the diffs requested by {@link DiffClient} over a Unix domain
+ * socket. The output of a request is the same as that of {@link MetadataDiff#main(String[])}.
+ * <p>
+ * A request consists of the client's working directory, the number of
+ * arguments and the arguments, each written with {@link DataOutputStream#writeUTF(String)}.
+ * The response is a sequence of frames, each starting with one of the
+ * {@code FRAME_*} bytes: output and error frames carry a chunk of text, the
+ * final exit frame carries the exit status as an int.
+ */
+public class DiffDaemon implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiffDaemon.class);
+
+    static final String OPTION = "--daemon";
+
+    static final String USAGE = "Usage: java -jar osgi-ds-metatype-diff.jar " + OPTION + " <socket> [--memory-cache <n>]\n" +
+            "\n" +
+            "Listens on the Unix domain socket <socket> for diffs requested with\n" +
+            "java -jar osgi-ds-metatype-diff.jar " + DiffClient.OPTION + " <socket> [options] <old> <new>\n" +
+            "\n" +
+            "Options:\n" +
+            "    --memory-cache <n>  number of parsed bundles kept in memory, defaults to " + MemoryMetadataCache.DEFAULT_MAX_ENTRIES;
+
+    static final byte FRAME_OUT = 1;
+
+    static final byte FRAME_ERR = 2;
+
+    static final byte FRAME_EXIT = 3;
+
+    // well below the 64k limit of writeUTF, even if every char needs three bytes
+    private static final int MAX_FRAME_CHARS = 8192;
+
+    private final Path socket;
+
+    private final ServerSocketChannel server;
+
+    private final MemoryMetadataCache cache;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "diff-daemon-request");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Thread acceptor;
+
+    private DiffDaemon(final Path socket, final ServerSocketChannel server, final MemoryMetadataCache cache) {
+        this.socket = socket;
+        this.server = server;
+        this.cache = cache;
+        this.acceptor = new Thread(this::accept, "diff-daemon");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && !(args.length == 3 && "--memory-cache".equals(args[1]))) {
+            System.out.println(USAGE);
+            System.exit(MetadataDiff.EXIT_USAGE);
+        }
+        int maxEntries = MemoryMetadataCache.DEFAULT_MAX_ENTRIES;
+        try {
+            maxEntries = parseMaxEntries(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+            System.exit(MetadataDiff.EXIT_USAGE);
+        }
+        DiffDaemon daemon = start(Paths.get(args[0]), maxEntries);
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::close));
+        LOG.info("Listening on {}", daemon.socket);
+        try {
+            daemon.acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            daemon.close();
+        }
+    }
+
+    /**
+     * @return the value of {@code --memory-cache}, or the default if it is not given
+     * @throws IllegalArgumentException if the value is not a positive number
+     */
+    static int parseMaxEntries(final String[] args) {
+        if (args.length == 3) {
+            return CommandLine.positiveInt(args[1], args[2]);
+        }
+        return MemoryMetadataCache.DEFAULT_MAX_ENTRIES;
+    }
+
+    /**
+     * Starts listening on {@code socket}. A socket file left behind by a daemon
+     * that is no longer running is replaced.
+     *
+     * @throws IOException if another daemon is listening on {@code socket}
+     */
+    static DiffDaemon start(final Path socket, final int maxEntries) throws IOException {
+        if (Files.exists(socket)) {
+            try (SocketChannel channel = DiffClient.connect(socket)) {
+                if (channel != null) {
+                    throw new IOException("A daemon is already listening on " + socket);
+                }
+            }
+            Files.delete(socket);
+        }
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        DiffDaemon daemon = new DiffDaemon(socket, server, new MemoryMetadataCache(maxEntries));
+        daemon.acceptor.start();
+        return daemon;
+    }
+
+    MemoryMetadataCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public void close() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            LOG.debug("Could not close {}", socket, e);
+        }
+        executor.shutdownNow();
+        try {
+            Files.deleteIfExists(socket);
+        } catch (IOException e) {
+            LOG.debug("Could not delete {}", socket, e);
+        }
+    }
+
+    private void accept() {
+        while (server.isOpen()) {
+            try {
+                SocketChannel channel = server.accept();
+                executor.execute(() -> handle(channel));
+            } catch (AsynchronousCloseException e) {
+                return;
+            } catch (IOException e) {
+                LOG.warn("Could not accept a connection on {}", socket, e);
+            }
+        }
+    }
+
+    private void handle(final SocketChannel channel) {
+        try (channel;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+             DataOutputStream response = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            File workingDirectory = new File(in.readUTF());
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+
+            // buffered like stdout, so that a report is sent in few large frames
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FrameWriter(response, FRAME_OUT), ReportOutput.BUFFER_SIZE));
+            PrintWriter err = new PrintWriter(new BufferedWriter(new FrameWriter(response, FRAME_ERR), ReportOutput.BUFFER_SIZE));
+            int status;
+            try {
+                status = MetadataDiff.run(args, workingDirectory, cache, out, err);
+            } catch (IOException | RuntimeException e) {
+                // reported like an uncaught exception of MetadataDiff#main
+                out.flush();
+                e.printStackTrace(err);
+                status = 1;
+            }
+            out.flush();
+            err.flush();
+            response.writeByte(FRAME_EXIT);
+            response.writeInt(status);
+        } catch (IOException e) {
+            LOG.warn("Could not handle request on {}", socket, e);
+        }
+    }
+
+    /**
+     * Writes text as frames of the given type.
+     */
+    private static class FrameWriter extends Writer {
+
+        private final DataOutputStream response;
+
+        private final byte type;
+
+        FrameWriter(final DataOutputStream response, final byte type) {
+            this.response = response;
+            this.type = type;
+        }
+
+        @Override
+        public void write(final char[] buffer, final int offset, final int length) throws IOException {
+            for (int start = offset, end = offset + length; start < end; start += MAX_FRAME_CHARS) {
+                String chunk = new String(buffer, start, Math.min(MAX_FRAME_CHARS, end - start));
+                synchronized (response) {
+                    response.writeByte(type);
+                    response.writeUTF(chunk);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (response) {
+                response.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package net.distilledcode.tools.osgi;
+
+import javax.annotation.CheckForNull;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Settings shared by single and batch diffs.
+ */
+public class DiffOptions {
+
+    private boolean resolveFromLocalizationProperties = true;
+
+    private int parallelism = ForkJoinPool.getCommonPoolParallelism();
+
+    private boolean memoryMapped;
+
+    private MetadataCache cache;
+
+    private MemoryMetadataCache memoryCache;
+
+    private boolean skipUnchangedDescriptors = true;
+
+    private boolean verifyUnchangedDescriptors;
+
+    private ComponentFilter filter = ComponentFilter.ALL;
+
+    private OutputFormat format = OutputFormat.TEXT;
+
+    private List<Locale> locales = Collections.emptyList();
+
+    private boolean streaming;
+
+    public boolean isResolveFromLocalizationProperties() {
+        return resolveFromLocalizationProperties;
+    }
+
+    public DiffOptions setResolveFromLocalizationProperties(final boolean resolveFromLocalizationProperties) {
+        this.resolveFromLocalizationProperties = resolveFromLocalizationProperties;
+        return this;
+    }
+
+    /**
+     * @return the number of threads comparing components, or bundle pairs in batch mode
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public DiffOptions setParallelism(final int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * @return {@code true} if bundles are read through {@link MappedBundleSource}
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    public DiffOptions setMemoryMapped(final boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        return this;
+    }
+
+    /**
+     * @return the cache of parsed bundle metadata, or {@code null} if bundles are always parsed
+     */
+    @CheckForNull
+    public MetadataCache getCache() {
+        return cache;
+    }
+
+    public DiffOptions setCache(@CheckForNull final MetadataCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * @return the in-memory cache consulted before {@link #getCache()}, or {@code null}
+     */
+    @CheckForNull
+    public MemoryMetadataCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    public DiffOptions setMemoryCache(@CheckForNull final MemoryMetadataCache memoryCache) {
+        this.memoryCache = memoryCache;
+        return this;
+    }
+
+    /**
+     * @return {@code true} if descriptors with the same path, size and CRC in both bundles are neither parsed nor compared
+     */
+    public boolean isSkipUnchangedDescriptors() {
+        return skipUnchangedDescriptors;
+    }
+
+    public DiffOptions setSkipUnchangedDescriptors(final boolean skipUnchangedDescriptors) {
+        this.skipUnchangedDescriptors = skipUnchangedDescriptors;
+        return this;
+    }
+
+    /**
+     * @return {@code true} if the content of descriptors with equal size and CRC is compared before skipping them
+     */
+    public boolean isVerifyUnchangedDescriptors() {
+        return verifyUnchangedDescriptors;
+    }
+
+    public DiffOptions setVerifyUnchangedDescriptors(final boolean verifyUnchangedDescriptors) {
+        this.verifyUnchangedDescriptors = verifyUnchangedDescriptors;
+        return this;
+    }
+
+    /**
+     * @return the filter selecting the components to compare
+     */
+    public ComponentFilter getFilter() {
+        return filter;
+    }
+
+    public DiffOptions setFilter(final ComponentFilter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    public OutputFormat getFormat() {
+        return format;
+    }
+
+    public DiffOptions setFormat(final OutputFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * @return the locales in which localized MetaType values are compared, in addition to the default localization
+     */
+    public List<Locale> getLocales() {
+        return locales;
+    }
+
+    public DiffOptions setLocales(final List<Locale> locales) {
+        this.locales = locales;
+        return this;
+    }
+
+    /**
+     * @return {@code true} if components are parsed and compared one at a time, see {@link StreamingDiff}
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public DiffOptions setStreaming(final boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+}
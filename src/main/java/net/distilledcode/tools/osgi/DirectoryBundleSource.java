@@ -0,0 +1,144 @@
+package net.distilledcode.tools.osgi;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * {@link BundleSource} reading an exploded bundle, e.g. {@code target/classes}
+ * after bnd wrote the descriptors and the manifest. Entries are looked up
+ * individually or per directory, so only the files that are read are stat'ed.
+ * <p>
+ * A directory without {@code META-INF/MANIFEST.MF} is read as a bundle with
+ * the {@code Service-Component} header {@value #DEFAULT_SERVICE_COMPONENT},
+ * which is where bnd writes component descriptors.
+ */
+public class DirectoryBundleSource implements BundleSource {
+
+    static final String DEFAULT_SERVICE_COMPONENT = "OSGI-INF/*.xml";
+
+    private final Path root;
+
+    public DirectoryBundleSource(final Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /**
+     * @return {@code true} if {@code directory} looks like an exploded bundle rather than a directory of bundles
+     */
+    static boolean isBundle(final File directory) {
+        return new File(directory, JarFile.MANIFEST_NAME).isFile() || new File(directory, "OSGI-INF").isDirectory();
+    }
+
+    @Override
+    public String getName() {
+        return root.toString();
+    }
+
+    @Override
+    public Manifest getManifest() throws IOException {
+        try (InputStream inputStream = Files.newInputStream(root.resolve(JarFile.MANIFEST_NAME))) {
+            return new Manifest(inputStream);
+        } catch (NoSuchFileException e) {
+            Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            manifest.getMainAttributes().putValue(BundleIndex.SERVICE_COMPONENT, DEFAULT_SERVICE_COMPONENT);
+            return manifest;
+        }
+    }
+
+    @Override
+    public boolean isExploded() {
+        return true;
+    }
+
+    @Override
+    public void forEachEntry(final Consumer<BundleEntry> consumer) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+                if (attributes.isRegularFile()) {
+                    consumer.accept(new BundleEntry(toName(file), attributes.size(), BundleEntry.UNKNOWN));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // file names are filtered before the files are stat'ed
+    @Override
+    public void forEachEntry(final String directory, final Predicate<String> fileName, final Consumer<BundleEntry> consumer) throws IOException {
+        Path path = resolve(directory);
+        if (path == null) {
+            return;
+        }
+        DirectoryStream.Filter<Path> filter = file -> fileName.test(file.getFileName().toString());
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path, filter)) {
+            for (final Path file : files) {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (attributes.isRegularFile()) {
+                    consumer.accept(new BundleEntry(toName(file), attributes.size(), BundleEntry.UNKNOWN));
+                }
+            }
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            // no entries
+        }
+    }
+
+    @Override
+    @CheckForNull
+    public BundleEntry getEntry(final String path) throws IOException {
+        Path file = resolve(path);
+        if (file == null) {
+            return null;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.isRegularFile() ? new BundleEntry(toName(file), attributes.size(), BundleEntry.UNKNOWN) : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream(final BundleEntry entry) throws IOException {
+        return Files.newInputStream(root.resolve(entry.getName()));
+    }
+
+    @Override
+    public URL getEntryUrl(final BundleEntry entry) throws IOException {
+        return root.resolve(entry.getName()).toUri().toURL();
+    }
+
+    @Override
+    public void close() {
+        // nothing is held open
+    }
+
+    // paths escaping the bundle root do not exist
+    @CheckForNull
+    private Path resolve(final String path) {
+        Path resolved = root.resolve(path).normalize();
+        return resolved.startsWith(root) ? resolved : null;
+    }
+
+    private String toName(final Path file) {
+        String name = root.relativize(file).toString();
+        return File.separatorChar == '/' ? name : name.replace(File.separatorChar, '/');
+    }
+}
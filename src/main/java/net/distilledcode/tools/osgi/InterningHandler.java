@@ -0,0 +1,123 @@
+package net.distilledcode.tools.osgi;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Passes SAX events on to a handler building component metadata, with
+ * attribute values canonicalized through a {@link StringPool}. The values
+ * of component descriptors, e.g. interface names, policies and cardinalities,
+ * are almost all attributes.
+ */
+class InterningHandler extends DefaultHandler {
+
+    private final DefaultHandler handler;
+
+    private final StringPool pool;
+
+    InterningHandler(final DefaultHandler handler, final StringPool pool) {
+        this.handler = handler;
+        this.pool = pool;
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes attributes) throws SAXException {
+        handler.startElement(uri, localName, qName, new InterningAttributes(attributes));
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+        handler.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+        handler.characters(ch, start, length);
+    }
+
+    @Override
+    public void warning(final SAXParseException e) throws SAXException {
+        handler.warning(e);
+    }
+
+    @Override
+    public void error(final SAXParseException e) throws SAXException {
+        handler.error(e);
+    }
+
+    @Override
+    public void fatalError(final SAXParseException e) throws SAXException {
+        handler.fatalError(e);
+    }
+
+    private class InterningAttributes implements Attributes {
+
+        private final Attributes attributes;
+
+        InterningAttributes(final Attributes attributes) {
+            this.attributes = attributes;
+        }
+
+        @Override
+        public int getLength() {
+            return attributes.getLength();
+        }
+
+        @Override
+        public String getURI(final int index) {
+            return attributes.getURI(index);
+        }
+
+        @Override
+        public String getLocalName(final int index) {
+            return attributes.getLocalName(index);
+        }
+
+        @Override
+        public String getQName(final int index) {
+            return attributes.getQName(index);
+        }
+
+        @Override
+        public String getType(final int index) {
+            return attributes.getType(index);
+        }
+
+        @Override
+        public String getValue(final int index) {
+            return pool.intern(attributes.getValue(index));
+        }
+
+        @Override
+        public int getIndex(final String uri, final String localName) {
+            return attributes.getIndex(uri, localName);
+        }
+
+        @Override
+        public int getIndex(final String qName) {
+            return attributes.getIndex(qName);
+        }
+
+        @Override
+        public String getType(final String uri, final String localName) {
+            return attributes.getType(uri, localName);
+        }
+
+        @Override
+        public String getType(final String qName) {
+            return attributes.getType(qName);
+        }
+
+        @Override
+        public String getValue(final String uri, final String localName) {
+            return pool.intern(attributes.getValue(uri, localName));
+        }
+
+        @Override
+        public String getValue(final String qName) {
+            return pool.intern(attributes.getValue(qName));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package net.distilledcode.tools.osgi;
+
+import org.apache.felix.metatype.AD;
+import org.apache.felix.metatype.Designate;
+import org.apache.felix.metatype.DesignateObject;
+import org.apache.felix.metatype.MetaData;
+import org.apache.felix.metatype.MetaDataReader;
+import org.apache.felix.metatype.OCD;
+
+import java.util.Map;
+
+/**
+ * {@link MetaDataReader} creating metadata objects whose string values are
+ * canonicalized through a {@link StringPool} as they are set by the parser.
+ */
+class InterningMetaDataReader extends MetaDataReader {
+
+    private final StringPool pool;
+
+    InterningMetaDataReader(final StringPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    protected MetaData createMetaData() {
+        return new MetaData() {
+            @Override
+            public void setLocalePrefix(final String localePrefix) {
+                super.setLocalePrefix(pool.intern(localePrefix));
+            }
+
+            @Override
+            public void setNamespace(final String namespace) {
+                super.setNamespace(pool.intern(namespace));
+            }
+        };
+    }
+
+    @Override
+    protected OCD createOCD() {
+        return new OCD() {
+            @Override
+            public void setId(final String id) {
+                super.setId(pool.intern(id));
+            }
+
+            @Override
+            public void setName(final String name) {
+                super.setName(pool.intern(name));
+            }
+
+            @Override
+            public void setDescription(final String description) {
+                super.setDescription(pool.intern(description));
+            }
+        };
+    }
+
+    @Override
+    protected AD createAD() {
+        return new AD() {
+            @Override
+            public void setID(final String id) {
+                super.setID(pool.intern(id));
+            }
+
+            @Override
+            public void setName(final String name) {
+                super.setName(pool.intern(name));
+            }
+
+            @Override
+            public void setDescription(final String description) {
+                super.setDescription(pool.intern(description));
+            }
+
+            @Override
+            public void setMin(final String min) {
+                super.setMin(pool.intern(min));
+            }
+
+            @Override
+            public void setMax(final String max) {
+                super.setMax(pool.intern(max));
+            }
+
+            // the option arrays are returned as they are held, so they can be interned in place
+            @Override
+            @SuppressWarnings("rawtypes")
+            public void setOptions(final Map options) {
+                super.setOptions(options);
+                pool.intern(getOptionLabels());
+                pool.intern(getOptionValues());
+            }
+
+            @Override
+            protected void setDefaultValue(final String[] values, final int cardinality) {
+                super.setDefaultValue(pool.intern(values), cardinality);
+            }
+        };
+    }
+
+    @Override
+    protected Designate createDesignate() {
+        return new Designate() {
+            @Override
+            public void setPid(final String pid) {
+                super.setPid(pool.intern(pid));
+            }
+
+            @Override
+            public void setFactoryPid(final String factoryPid) {
+                super.setFactoryPid(pool.intern(factoryPid));
+            }
+
+            @Override
+            public void setBundleLocation(final String bundleLocation) {
+                super.setBundleLocation(pool.intern(bundleLocation));
+            }
+        };
+    }
+
+    @Override
+    protected DesignateObject createDesignateObject() {
+        return new DesignateObject() {
+            @Override
+            public void setOcdRef(final String ocdRef) {
+                super.setOcdRef(pool.intern(ocdRef));
+            }
+        };
+    }
+}
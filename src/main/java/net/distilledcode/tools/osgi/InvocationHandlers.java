@@ -2,21 +2,31 @@ package net.distilledcode.tools.osgi;
 
 import org.osgi.framework.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.net.MalformedURLException;
-import java.net.URI;
 import java.net.URL;
 import java.util.Arrays;
-import java.util.jar.JarEntry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.jar.JarFile;
 import java.util.stream.Collectors;
 
 public class InvocationHandlers {
 
-    public static Bundle getJarFileAsBundle(final JarFile jarFile) throws MalformedURLException {
-        BundleImplementedMethods implementedMethods = new BundleImplementedMethods(jarFile);
+    public static Bundle getJarFileAsBundle(final JarFile jarFile) {
+        return getBundleSourceAsBundle(new JarFileBundleSource(jarFile));
+    }
+
+    public static Bundle getBundleSourceAsBundle(final BundleSource source) {
+        BundleImplementedMethods implementedMethods = new BundleImplementedMethods(source);
         Bundle bundle = DelegatingInvocationHandler.createProxy(implementedMethods);
         implementedMethods.bundleContext = getBundleContextFromBundle(bundle);
         return bundle;
@@ -29,9 +39,23 @@ public class InvocationHandlers {
 
     public static class DelegatingInvocationHandler<T extends ImplementedMethods<?>> implements InvocationHandler {
 
+        // dispatch tables are shared by all proxies with the same ImplementedMethods class
+        private static final ConcurrentMap<Class<?>, Map<Method, MethodHandle>> DISPATCH_TABLES = new ConcurrentHashMap<>();
+
+        private static final MethodHandle UNSUPPORTED;
+
+        static {
+            try {
+                UNSUPPORTED = MethodHandles.lookup().findStatic(DelegatingInvocationHandler.class, "unsupported",
+                        MethodType.methodType(Object.class, String.class, Object.class, Object[].class));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
         private final T implementedMethods;
 
-        private final Method[] methods;
+        private final Map<Method, MethodHandle> dispatchTable;
 
         public static <S, T extends ImplementedMethods<S>> S createProxy(T implementedMethods) {
             Class<S> iface = implementedMethods.getImplementedInterface();
@@ -41,22 +65,64 @@ public class InvocationHandlers {
 
         public DelegatingInvocationHandler(T implementedMethods) {
             this.implementedMethods = implementedMethods;
-            this.methods = implementedMethods.getClass().getDeclaredMethods();
+            this.dispatchTable = DISPATCH_TABLES.computeIfAbsent(implementedMethods.getClass(),
+                    type -> createDispatchTable(type, implementedMethods.getImplementedInterface()));
         }
 
         @Override
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-            for (final Method m : methods) {
-                if (m.getName().equals(method.getName())
-                            && m.getReturnType() == method.getReturnType()
-                            && Arrays.equals(m.getParameterTypes(), method.getParameterTypes())) {
-                    return m.invoke(implementedMethods, args);
+            MethodHandle handle = dispatchTable.get(method);
+            if (handle == null) {
+                // not a method of the implemented interface, e.g. Object#hashCode()
+                handle = unsupportedMethod(implementedMethods.getClass(), method);
+            }
+            return (Object) handle.invokeExact((Object) implementedMethods, args);
+        }
+
+        /**
+         * Maps each method of {@code iface} to a handle of type {@code (Object, Object[])Object},
+         * which either invokes the matching method of {@code type} or throws an
+         * {@link UnsupportedOperationException}.
+         */
+        private static Map<Method, MethodHandle> createDispatchTable(Class<?> type, Class<?> iface) {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Map<Method, MethodHandle> dispatchTable = new HashMap<>();
+            for (final Method method : iface.getMethods()) {
+                MethodHandle handle = null;
+                for (final Method m : type.getDeclaredMethods()) {
+                    if (m.getName().equals(method.getName())
+                                && m.getReturnType() == method.getReturnType()
+                                && Arrays.equals(m.getParameterTypes(), method.getParameterTypes())) {
+                        handle = toSpreadHandle(lookup, m);
+                        break;
+                    }
                 }
+                dispatchTable.put(method, handle != null ? handle : unsupportedMethod(type, method));
             }
-            throw new UnsupportedOperationException(method.getReturnType().getSimpleName() + " " +
-                implementedMethods.getClass().getSimpleName() + "#" + method.getName() + "(" +
-                Arrays.stream(method.getParameterTypes()).map(Class::getSimpleName).collect(Collectors.joining(", ")) +
-                ") is not implemented");
+            return Map.copyOf(dispatchTable);
+        }
+
+        private static MethodHandle toSpreadHandle(MethodHandles.Lookup lookup, Method method) {
+            try {
+                int parameterCount = method.getParameterCount();
+                return lookup.unreflect(method)
+                        .asType(MethodType.genericMethodType(parameterCount + 1))
+                        .asSpreader(Object[].class, parameterCount);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Cannot access " + method, e);
+            }
+        }
+
+        private static MethodHandle unsupportedMethod(Class<?> type, Method method) {
+            String message = method.getReturnType().getSimpleName() + " " +
+                    type.getSimpleName() + "#" + method.getName() + "(" +
+                    Arrays.stream(method.getParameterTypes()).map(Class::getSimpleName).collect(Collectors.joining(", ")) +
+                    ") is not implemented";
+            return MethodHandles.insertArguments(UNSUPPORTED, 0, message);
+        }
+
+        private static Object unsupported(String message, Object implementedMethods, Object[] args) {
+            throw new UnsupportedOperationException(message);
         }
     }
 
@@ -76,32 +142,29 @@ public class InvocationHandlers {
     // this object implements selected Bundle methods
     private static class BundleImplementedMethods extends ImplementedMethods<Bundle> {
 
-        private final JarFile jarFile;
-
-        private final URL jarFileUrl;
+        private final BundleSource source;
 
         private BundleContext bundleContext;
 
-        BundleImplementedMethods(final JarFile jarFile) throws MalformedURLException {
+        BundleImplementedMethods(final BundleSource source) {
             super(Bundle.class);
-            this.jarFile = jarFile;
-            this.jarFileUrl = URI.create("file:" + jarFile.getName()).toURL();
+            this.source = source;
         }
 
         URL getEntry(String path) {
             try {
-                JarEntry jarEntry = jarFile.getJarEntry(path);
-                if (jarEntry != null) {
-                    return URI.create("jar:" + jarFileUrl + "!/" + path).toURL();
+                BundleEntry entry = source.getEntry(path);
+                if (entry != null) {
+                    return source.getEntryUrl(entry);
                 }
                 return null;
-            } catch (MalformedURLException e) {
-                throw new RuntimeException(e);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         }
 
         String getLocation() {
-            return jarFile.getName();
+            return source.getName();
         }
 
         String getSymbolicName() {
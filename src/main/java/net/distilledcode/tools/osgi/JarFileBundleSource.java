@@ -0,0 +1,78 @@
+package net.distilledcode.tools.osgi;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.function.Consumer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * {@link BundleSource} reading a bundle through {@link JarFile}.
+ */
+public class JarFileBundleSource implements BundleSource {
+
+    private final JarFile jarFile;
+
+    public JarFileBundleSource(final JarFile jarFile) {
+        this.jarFile = jarFile;
+    }
+
+    @Override
+    public String getName() {
+        return jarFile.getName();
+    }
+
+    @Override
+    @CheckForNull
+    public Manifest getManifest() throws IOException {
+        return jarFile.getManifest();
+    }
+
+    @Override
+    public void forEachEntry(final Consumer<BundleEntry> consumer) {
+        Enumeration<JarEntry> entries = jarFile.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            if (!entry.isDirectory()) {
+                consumer.accept(new Entry(entry));
+            }
+        }
+    }
+
+    @Override
+    @CheckForNull
+    public BundleEntry getEntry(final String path) {
+        JarEntry entry = jarFile.getJarEntry(path);
+        return entry == null || entry.isDirectory() ? null : new Entry(entry);
+    }
+
+    @Override
+    public InputStream getInputStream(final BundleEntry entry) throws IOException {
+        return jarFile.getInputStream(((Entry) entry).jarEntry);
+    }
+
+    @Override
+    public URL getEntryUrl(final BundleEntry entry) throws IOException {
+        return URI.create("jar:" + URI.create("file:" + jarFile.getName()).toURL() + "!/" + entry.getName()).toURL();
+    }
+
+    @Override
+    public void close() throws IOException {
+        jarFile.close();
+    }
+
+    private static class Entry extends BundleEntry {
+
+        private final JarEntry jarEntry;
+
+        Entry(final JarEntry jarEntry) {
+            super(jarEntry.getName(), jarEntry.getSize(), jarEntry.getCrc());
+            this.jarEntry = jarEntry;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package net.distilledcode.tools.osgi;
+
+import javax.annotation.CheckForNull;
+import java.io.PrintWriter;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes one JSON object per added, changed or removed value, either as a
+ * single JSON array or as newline delimited JSON (NDJSON). Each object carries
+ * the full section path, e.g.
+ * <pre>
+ * {"bundle":"org.example","path":["org.example.Component","DS","Properties"],"name":"timeout","event":"changed",
+ *  "left":10,"leftType":"Integer","right":20,"rightType":"Integer"}
+ * </pre>
+ * Events are written as they arrive, nothing but the current section path is
+ * kept in memory. {@code bundle} is only written in batch mode.
+ */
+class JsonVisitor implements Comparison.Visitor {
+
+    private final PrintWriter out;
+
+    private final boolean array;
+
+    private final List<String> sections = new ArrayList<>();
+
+    private String bundle;
+
+    private boolean hasPrintedSomething;
+
+    /**
+     * @param array {@code true} to write a JSON array, {@code false} to write NDJSON
+     */
+    JsonVisitor(final PrintWriter out, final boolean array) {
+        this.out = out;
+        this.array = array;
+    }
+
+    /**
+     * @param bundle the symbolic name added to all following events, or {@code null}
+     */
+    void setBundle(@CheckForNull final String bundle) {
+        this.bundle = bundle;
+    }
+
+    @Override
+    public void enter(final String sectionName) {
+        sections.add(sectionName);
+    }
+
+    @Override
+    public void leave(final String sectionName) {
+        sections.remove(sections.size() - 1);
+    }
+
+    @Override
+    public void added(final String name, final Object value) {
+        beginEvent(name, "added");
+        out.append(",\"value\":");
+        writeValue(value);
+        writeType("valueType", value);
+        endEvent();
+    }
+
+    @Override
+    public void changed(final String name, final Object leftValue, final Object rightValue) {
+        beginEvent(name, "changed");
+        out.append(",\"left\":");
+        writeValue(leftValue);
+        writeType("leftType", leftValue);
+        out.append(",\"right\":");
+        writeValue(rightValue);
+        writeType("rightType", rightValue);
+        endEvent();
+    }
+
+    @Override
+    public void removed(final String name, final Object value) {
+        beginEvent(name, "removed");
+        out.append(",\"value\":");
+        writeValue(value);
+        writeType("valueType", value);
+        endEvent();
+    }
+
+    /**
+     * Terminates the JSON array, if any, and flushes the output.
+     */
+    void close() {
+        if (array) {
+            out.append(hasPrintedSomething ? "\n]" : "[]").println();
+        }
+        out.flush();
+    }
+
+    public boolean hasPrintedSomething() {
+        return hasPrintedSomething;
+    }
+
+    private void beginEvent(final String name, final String event) {
+        if (array) {
+            out.append(hasPrintedSomething ? ",\n" : "[\n");
+        }
+        hasPrintedSomething = true;
+        out.append('{');
+        if (bundle != null) {
+            out.append("\"bundle\":");
+            writeString(bundle);
+            out.append(',');
+        }
+        out.append("\"path\":[");
+        for (int i = 0; i < sections.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            writeString(sections.get(i));
+        }
+        out.append("],\"name\":");
+        writeString(name);
+        out.append(",\"event\":\"").append(event).append('"');
+    }
+
+    private void endEvent() {
+        out.append('}');
+        if (!array) {
+            out.append('\n');
+        }
+    }
+
+    private void writeType(final String key, @CheckForNull final Object value) {
+        if (value != null) {
+            out.append(",\"").append(key).append("\":");
+            writeString(value.getClass().getSimpleName());
+        }
+    }
+
+    private void writeValue(@CheckForNull final Object value) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof Boolean) {
+            out.print(value);
+        } else if (value instanceof Number && isFinite((Number) value)) {
+            out.print(value);
+        } else if (value.getClass().isArray()) {
+            out.append('[');
+            for (int i = 0, length = Array.getLength(value); i < length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                writeValue(Array.get(value, i));
+            }
+            out.append(']');
+        } else if (value instanceof Collection) {
+            out.append('[');
+            boolean first = true;
+            for (final Object element : (Collection<?>) value) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                writeValue(element);
+            }
+            out.append(']');
+        } else if (value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                writeString(String.valueOf(entry.getKey()));
+                out.append(':');
+                writeValue(entry.getValue());
+            }
+            out.append('}');
+        } else {
+            writeString(value.toString());
+        }
+    }
+
+    private static boolean isFinite(final Number number) {
+        if (number instanceof Double || number instanceof Float) {
+            return Double.isFinite(number.doubleValue());
+        }
+        return true;
+    }
+
+    private void writeString(final String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,173 @@
+package net.distilledcode.tools.osgi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * The MetaType localization resources of one bundle. Each resource is read once
+ * and shared by all PIDs whose MetaType refers to the same {@code localization}
+ * prefix. Resources are kept as bytes and only parsed when a locale is first
+ * resolved, so locale variants that are never compared cost nothing but reading.
+ * <p>
+ * Locales are resolved like bundle localizations, e.g. a key missing from
+ * {@code bundle_de_CH.properties} is looked up in {@code bundle_de.properties}
+ * and then in {@code bundle.properties}. {@link Locale#ROOT} stands for the
+ * unsuffixed resource only.
+ */
+class LocalizationStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocalizationStore.class);
+
+    private static final String SUFFIX = ".properties";
+
+    // PID -> localization prefix, the prefix is null if the MetaType declares none
+    private final Map<String, String> prefixes;
+
+    // resource path -> content
+    private final Map<String, byte[]> resources;
+
+    // prefix and locale suffix -> resolved properties, shared by all selections of this store
+    private final ConcurrentMap<String, Properties> resolved;
+
+    LocalizationStore(final Map<String, String> prefixes, final Map<String, byte[]> resources) {
+        this(prefixes, resources, new ConcurrentHashMap<>());
+    }
+
+    private LocalizationStore(final Map<String, String> prefixes, final Map<String, byte[]> resources,
+                              final ConcurrentMap<String, Properties> resolved) {
+        this.prefixes = prefixes;
+        this.resources = resources;
+        this.resolved = resolved;
+    }
+
+    /**
+     * Reads the localization resources referenced by the MetaType of {@code metaType}.
+     * Resources that cannot be read are logged and treated as missing.
+     */
+    static LocalizationStore read(final BundleIndex index, final Map<String, MetaTypeDescription> metaType) {
+        Map<String, String> prefixes = new HashMap<>();
+        metaType.forEach((pid, description) -> prefixes.put(pid, description.getLocalePrefix()));
+        return readPrefixes(index, prefixes);
+    }
+
+    /**
+     * Reads the localization resources of the given localization prefixes by PID,
+     * a PID may map to {@code null} if its MetaType declares no prefix.
+     */
+    static LocalizationStore readPrefixes(final BundleIndex index, final Map<String, String> prefixes) {
+        Map<String, byte[]> resources = new HashMap<>();
+        Map<String, Boolean> readPrefixes = new HashMap<>();
+        for (final String prefix : prefixes.values()) {
+            if (prefix == null || readPrefixes.put(prefix, Boolean.TRUE) != null) {
+                continue;
+            }
+            readResources(index, prefix, resources);
+        }
+        return new LocalizationStore(prefixes, resources);
+    }
+
+    /**
+     * Reads the localization resources of {@code prefix} into {@code resources}.
+     */
+    static void readResources(final BundleIndex index, final String prefix, final Map<String, byte[]> resources) {
+        for (final Map.Entry<String, BundleEntry> file : index.getLocalizationFiles(prefix).entrySet()) {
+            Timings.Timer timer = Timings.start(Timings.Phase.LOCALIZATION, index.getName(), file.getKey(), null);
+            try (InputStream input = index.getInputStream(file.getValue())) {
+                resources.put(file.getKey(), input.readAllBytes());
+            } catch (IOException e) {
+                LOG.warn("Error reading '{}' in '{}'", file.getKey(), index.getName(), e);
+            } finally {
+                timer.close();
+            }
+        }
+    }
+
+    /**
+     * @return a store limited to the PIDs matching {@code selected}, sharing the resources of this store
+     */
+    LocalizationStore select(final Predicate<String> selected) {
+        Map<String, String> selectedPrefixes = new HashMap<>();
+        for (final Map.Entry<String, String> entry : prefixes.entrySet()) {
+            if (selected.test(entry.getKey())) {
+                selectedPrefixes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return new LocalizationStore(selectedPrefixes, resources, resolved);
+    }
+
+    /**
+     * @return the localization of {@code pid} in {@code locale}, empty if its MetaType
+     *         has no localization, or {@code null} if {@code pid} has no MetaType
+     */
+    @CheckForNull
+    Properties getProperties(final String pid, final Locale locale) {
+        if (!prefixes.containsKey(pid)) {
+            return null;
+        }
+        String prefix = prefixes.get(pid);
+        return prefix == null ? new Properties() : resolve(prefix, locale);
+    }
+
+    Map<String, String> getPrefixes() {
+        return Collections.unmodifiableMap(prefixes);
+    }
+
+    Map<String, byte[]> getResources() {
+        return Collections.unmodifiableMap(resources);
+    }
+
+    // the parent is resolved first, ConcurrentHashMap does not allow nested computations
+    private Properties resolve(final String prefix, final Locale locale) {
+        Properties parent = Locale.ROOT.equals(locale) ? null : resolve(prefix, parent(locale));
+        String name = prefix + suffix(locale);
+        return resolved.computeIfAbsent(name, key -> {
+            Properties properties = new Properties(parent);
+            byte[] content = resources.get(key + SUFFIX);
+            if (content != null) {
+                try {
+                    properties.load(new ByteArrayInputStream(content));
+                } catch (IOException | IllegalArgumentException e) {
+                    LOG.warn("Error parsing '{}'", key + SUFFIX, e);
+                }
+            }
+            return properties;
+        });
+    }
+
+    private static Locale parent(final Locale locale) {
+        if (!locale.getVariant().isEmpty()) {
+            return Locale.of(locale.getLanguage(), locale.getCountry());
+        }
+        if (!locale.getCountry().isEmpty()) {
+            return Locale.of(locale.getLanguage());
+        }
+        return Locale.ROOT;
+    }
+
+    private static String suffix(final Locale locale) {
+        StringBuilder suffix = new StringBuilder();
+        if (!locale.getLanguage().isEmpty()) {
+            suffix.append('_').append(locale.getLanguage());
+        }
+        if (!locale.getCountry().isEmpty()) {
+            suffix.append('_').append(locale.getCountry());
+        }
+        if (!locale.getVariant().isEmpty()) {
+            suffix.append('_').append(locale.getVariant());
+        }
+        return suffix.toString();
+    }
+}
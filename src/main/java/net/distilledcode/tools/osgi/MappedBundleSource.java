@@ -0,0 +1,256 @@
+package net.distilledcode.tools.osgi;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * {@link BundleSource} that memory-maps a jar file and parses its zip central
+ * directory directly.
+ * <p>
+ * Stored entries are read straight from the mapped file, deflated entries are
+ * inflated from the mapped file into a single buffer of the entry's size.
+ * Bundles larger than 2 GB and ZIP64 archives are not supported, use
+ * {@link JarFileBundleSource} for those.
+ * <p>
+ * The mapping is released by the garbage collector once the source and all
+ * buffers handed out by it are unreachable; {@link #close()} only closes the
+ * underlying file channel.
+ */
+public class MappedBundleSource implements BundleSource {
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    private static final int STORED = 0;
+
+    private static final int DEFLATED = 8;
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer;
+
+    private final List<BundleEntry> entries;
+
+    private final Map<String, Entry> entriesByName;
+
+    public MappedBundleSource(final File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException("Cannot map " + file + ", it is larger than 2 GB");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            this.buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            this.entriesByName = new HashMap<>();
+            this.entries = Collections.unmodifiableList(readCentralDirectory());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return file.getPath();
+    }
+
+    @Override
+    @CheckForNull
+    public Manifest getManifest() throws IOException {
+        BundleEntry entry = getEntry(JarFile.MANIFEST_NAME);
+        if (entry == null) {
+            return null;
+        }
+        try (InputStream inputStream = getInputStream(entry)) {
+            return new Manifest(inputStream);
+        }
+    }
+
+    @Override
+    public void forEachEntry(final Consumer<BundleEntry> consumer) {
+        entries.forEach(consumer);
+    }
+
+    @Override
+    @CheckForNull
+    public BundleEntry getEntry(final String path) {
+        return entriesByName.get(path);
+    }
+
+    @Override
+    public InputStream getInputStream(final BundleEntry entry) throws IOException {
+        return new ByteBufferInputStream(getContent(entry));
+    }
+
+    /**
+     * Returns the uncompressed content of {@code entry}. For stored entries the
+     * returned buffer is a read-only view of the mapped file.
+     */
+    public ByteBuffer getContent(final BundleEntry entry) throws IOException {
+        Entry mappedEntry = (Entry) entry;
+        ByteBuffer data = buffer.slice(mappedEntry.getDataOffset(buffer), mappedEntry.compressedSize);
+        switch (mappedEntry.method) {
+            case STORED:
+                return data.asReadOnlyBuffer();
+            case DEFLATED:
+                return inflate(mappedEntry, data);
+            default:
+                throw new ZipException("Unsupported compression method " + mappedEntry.method + " of '" + entry.getName() + "' in " + file);
+        }
+    }
+
+    @Override
+    public URL getEntryUrl(final BundleEntry entry) throws IOException {
+        return URI.create("jar:" + file.toURI() + "!/" + entry.getName()).toURL();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer inflate(final Entry entry, final ByteBuffer data) throws ZipException {
+        ByteBuffer content = ByteBuffer.allocate(entry.size());
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            while (content.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(content) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflated data of '" + entry.getName() + "' in " + file + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        if (content.hasRemaining()) {
+            throw new ZipException("Truncated deflated data of '" + entry.getName() + "' in " + file);
+        }
+        return content.flip();
+    }
+
+    private List<BundleEntry> readCentralDirectory() throws ZipException {
+        int end = findEndOfCentralDirectory();
+        int count = Short.toUnsignedInt(buffer.getShort(end + 10));
+        long directorySize = Integer.toUnsignedLong(buffer.getInt(end + 12));
+        long directoryOffset = Integer.toUnsignedLong(buffer.getInt(end + 16));
+        if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL || directoryOffset + directorySize > end) {
+            throw new ZipException("Unsupported or corrupt central directory in " + file);
+        }
+
+        List<BundleEntry> entries = new ArrayList<>(count);
+        int position = (int) directoryOffset;
+        for (int i = 0; i < count; i++) {
+            if (position + CENTRAL_DIRECTORY_HEADER_SIZE > end || buffer.getInt(position) != CENTRAL_DIRECTORY_HEADER) {
+                throw new ZipException("Corrupt central directory entry " + i + " in " + file);
+            }
+            int method = Short.toUnsignedInt(buffer.getShort(position + 10));
+            long crc = Integer.toUnsignedLong(buffer.getInt(position + 16));
+            long compressedSize = Integer.toUnsignedLong(buffer.getInt(position + 20));
+            long size = Integer.toUnsignedLong(buffer.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(buffer.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(buffer.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(buffer.getShort(position + 32));
+            long localHeaderOffset = Integer.toUnsignedLong(buffer.getInt(position + 42));
+            if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+                throw new ZipException("ZIP64 entries are not supported, in " + file);
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            buffer.get(position + CENTRAL_DIRECTORY_HEADER_SIZE, nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            // local headers and their data precede the central directory, which also keeps the casts below positive
+            if (localHeaderOffset + LOCAL_FILE_HEADER_SIZE + compressedSize > directoryOffset || size > Integer.MAX_VALUE) {
+                throw new ZipException("Corrupt offset or size of '" + name + "' in " + file);
+            }
+            if (!name.endsWith("/")) {
+                Entry entry = new Entry(name, (int) size, crc, method, (int) compressedSize, (int) localHeaderOffset);
+                entries.add(entry);
+                entriesByName.putIfAbsent(name, entry);
+            }
+            position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    private int findEndOfCentralDirectory() throws ZipException {
+        int limit = Math.max(0, buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT_LENGTH);
+        for (int position = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; position >= limit; position--) {
+            if (buffer.getInt(position) == END_OF_CENTRAL_DIRECTORY) {
+                return position;
+            }
+        }
+        throw new ZipException("No zip central directory found in " + file);
+    }
+
+    private static class Entry extends BundleEntry {
+
+        private final int method;
+
+        private final int compressedSize;
+
+        private final int localHeaderOffset;
+
+        Entry(final String name, final int size, final long crc, final int method, final int compressedSize, final int localHeaderOffset) {
+            super(name, size, crc);
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        // the local header may carry different extra fields than the central directory
+        int getDataOffset(final ByteBuffer buffer) throws ZipException {
+            if (buffer.getInt(localHeaderOffset) != LOCAL_FILE_HEADER) {
+                throw new ZipException("Corrupt local file header of '" + getName() + "'");
+            }
+            int nameLength = Short.toUnsignedInt(buffer.getShort(localHeaderOffset + 26));
+            int extraLength = Short.toUnsignedInt(buffer.getShort(localHeaderOffset + 28));
+            int dataOffset = localHeaderOffset + LOCAL_FILE_HEADER_SIZE + nameLength + extraLength;
+            if ((long) dataOffset + compressedSize > buffer.limit()) {
+                throw new ZipException("Truncated data of '" + getName() + "'");
+            }
+            return dataOffset;
+        }
+
+        private int size() {
+            return (int) getSize();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package net.distilledcode.tools.osgi;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the parsed metadata of recently diffed bundles in memory, so that a
+ * long-running {@link DiffDaemon} does not parse the same jar twice. Entries are
+ * keyed by the canonical path, size and last modified time of a bundle; once
+ * more than {@code maxEntries} bundles are held, the least recently used one is
+ * dropped. Misses are read through the {@link MetadataCache} configured in the
+ * options, if any. A cache can be shared by concurrent diffs, e.g. those of the
+ * modules of a parallel Maven build, see {@link DiffOptions#setMemoryCache}.
+ */
+public class MemoryMetadataCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private final Map<String, MetadataDiff.BundleMetadata> entries;
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public MemoryMetadataCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<String, MetadataDiff.BundleMetadata>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, MetadataDiff.BundleMetadata> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the metadata of the components of {@code bundle} selected by the
+     * filter in {@code options}, parsing the bundle only if it is not held yet.
+     */
+    MetadataDiff.BundleMetadata get(final File bundle, final DiffOptions options) throws IOException {
+        String key = bundle.getCanonicalPath() + '@' + bundle.length() + '@' + bundle.lastModified()
+                + (options.isResolveFromLocalizationProperties() ? "" : "@unresolved");
+        MetadataDiff.BundleMetadata metadata;
+        synchronized (entries) {
+            metadata = entries.get(key);
+        }
+        if (metadata != null) {
+            hits.incrementAndGet();
+            return metadata.select(options.getFilter());
+        }
+
+        misses.incrementAndGet();
+        // all components are kept, the filter may differ between requests
+        MetadataCache cache = options.getCache();
+        if (cache != null) {
+            metadata = cache.get(bundle, options);
+        } else {
+            try (BundleSource source = BundleSource.open(bundle, options)) {
+                metadata = new MetadataDiff.BundleMetadata(source, options.isResolveFromLocalizationProperties());
+            }
+        }
+        synchronized (entries) {
+            entries.put(key, metadata);
+        }
+        return metadata.select(options.getFilter());
+    }
+
+    int getHits() {
+        return hits.get();
+    }
+
+    int getMisses() {
+        return misses.get();
+    }
+}
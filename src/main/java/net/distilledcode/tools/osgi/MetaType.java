@@ -2,13 +2,16 @@ package net.distilledcode.tools.osgi;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.AbstractMap.SimpleEntry;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -20,27 +23,107 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLStreamException;
 
+/**
+ * Reads the MetaType of a bundle. MetaTypes are compared as {@link MetaTypeDescription}s
+ * read by {@link MetaTypeDescriptionParser}, the {@code readMetaData} methods read them
+ * with felix MetaType instead and serve as the reference the native model is checked against.
+ */
 public class MetaType {
 
     private static final Logger LOG = LoggerFactory.getLogger(MetaType.class);
 
-    private static MetaDataReader metaDataReader = new MetaDataReader();
+    // MetaDataReader keeps the state of the current document, so each thread parses with its own
+    private static final ThreadLocal<MetaDataReader> READERS =
+            ThreadLocal.withInitial(() -> new InterningMetaDataReader(StringPool.SHARED));
 
-    public static Map<String, MetaData> readMetaData(final JarFile jarFile) {
-        return findEntries(jarFile, "OSGI-INF/metatype", "xml")
-                .map(toMetaData(jarFile, metaDataReader))
+    public static Map<String, MetaTypeDescription> readMetaTypeDescriptions(final JarFile jarFile) throws IOException {
+        return readMetaTypeDescriptions(BundleIndex.create(jarFile));
+    }
+
+    public static Map<String, MetaTypeDescription> readMetaTypeDescriptions(final BundleIndex index) {
+        return readMetaTypeDescriptions(index, false);
+    }
+
+    /**
+     * @param parallel whether the descriptors are parsed by a parallel stream, i.e. in the
+     *                 {@code ForkJoinPool} of the calling thread
+     */
+    static Map<String, MetaTypeDescription> readMetaTypeDescriptions(final BundleIndex index, final boolean parallel) {
+        List<BundleEntry> descriptors = index.getMetaTypeDescriptors();
+        return toMetaTypeDescriptionMap((parallel ? descriptors.parallelStream() : descriptors.stream())
+                .map(entry -> readMetaTypeDescription(index, entry))
+                .filter(Predicate.isEqual(null).negate())
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Maps each {@link MetaTypeDescription} by the PIDs and factory PIDs of its designates.
+     */
+    static Map<String, MetaTypeDescription> toMetaTypeDescriptionMap(final Collection<MetaTypeDescription> metaTypes) {
+        return metaTypes.stream()
+                .flatMap(metaType -> metaType.getDesignates().stream()
+                           .map(MetaTypeDescription.Designate::getPidOrFactoryPid)
+                           .map(pid -> new SimpleEntry<>(pid, metaType)))
+                .collect(Collectors.toMap(SimpleEntry::getKey, SimpleEntry::getValue));
+    }
+
+    /**
+     * @return the MetaType declared by {@code entry}, or {@code null} if it declares none or cannot be parsed
+     */
+    @CheckForNull
+    static MetaTypeDescription readMetaTypeDescription(final BundleIndex index, final BundleEntry entry) {
+        Timings.Timer timer = Timings.start(Timings.Phase.METATYPE_PARSE, index.getName(), entry.getName(), null);
+        try (InputStream inputStream = index.getInputStream(entry)) {
+            return MetaTypeDescriptionParser.parse(inputStream);
+        } catch (IOException | XMLStreamException e) {
+            LOG.warn("Error parsing '{}' in '{}'", entry.getName(), index.getName(), e);
+            return null;
+        } finally {
+            timer.close();
+        }
+    }
+
+    public static Map<String, MetaData> readMetaData(final JarFile jarFile) throws IOException {
+        return readMetaData(BundleIndex.create(jarFile));
+    }
+
+    public static Map<String, MetaData> readMetaData(final BundleIndex index) {
+        return readMetaData(index, false);
+    }
+
+    /**
+     * @param parallel whether the descriptors are parsed by a parallel stream, i.e. in the
+     *                 {@code ForkJoinPool} of the calling thread
+     */
+    static Map<String, MetaData> readMetaData(final BundleIndex index, final boolean parallel) {
+        List<BundleEntry> descriptors = index.getMetaTypeDescriptors();
+        return toMetaDataMap((parallel ? descriptors.parallelStream() : descriptors.stream())
+                .map(toMetaData(index))
                 .filter(Predicate.isEqual(null).negate())
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Maps each {@link MetaData} by the PIDs and factory PIDs of its designates.
+     */
+    static Map<String, MetaData> toMetaDataMap(final Collection<MetaData> metaDatas) {
+        return metaDatas.stream()
                 .flatMap(metaData -> designatesStream(metaData)
                            .map(MetaType::getDesignatePidOrFactoryPid)
                            .map(pid -> new SimpleEntry<>(pid, metaData)))
                 .collect(Collectors.toMap(SimpleEntry::getKey, SimpleEntry::getValue));
     }
 
-    @SuppressWarnings("unchecked")
     public static Stream<Designate> designatesStream(MetaData metaData) {
+        return getDesignates(metaData).stream();
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Designate> getDesignates(MetaData metaData) {
         List<Designate> designates = (List<Designate>) metaData.getDesignates();
-        return designates == null ? Stream.empty() : designates.stream();
+        return designates == null ? Collections.emptyList() : designates;
     }
 
     public static String getDesignatePidOrFactoryPid(Designate designate) {
@@ -51,48 +134,48 @@ public class MetaType {
         return pid;
     }
 
-    public static Map<String, Properties> readLocalizationProperties(final JarFile jarFile, Map<String, MetaData> metaDataMap) {
-        return  metaDataMap.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, getProperties(jarFile)));
+    public static Map<String, Properties> readLocalizationProperties(final JarFile jarFile, Map<String, MetaData> metaDataMap) throws IOException {
+        return readLocalizationProperties(BundleIndex.create(jarFile), metaDataMap);
     }
 
+    /**
+     * @return the default localization of each PID, PIDs with the same localization prefix share one instance
+     */
+    public static Map<String, Properties> readLocalizationProperties(final BundleIndex index, Map<String, MetaData> metaDataMap) {
+        Map<String, String> prefixes = new HashMap<>();
+        metaDataMap.forEach((pid, metaData) -> prefixes.put(pid, metaData.getLocalePrefix()));
+        LocalizationStore localizations = LocalizationStore.readPrefixes(index, prefixes);
+        Map<String, Properties> properties = new HashMap<>();
+        for (final String pid : metaDataMap.keySet()) {
+            properties.put(pid, localizations.getProperties(pid, Locale.ROOT));
+        }
+        return properties;
+    }
+
+    private static Function<BundleEntry, MetaData> toMetaData(final BundleIndex index) {
+        return entry -> readMetaData(index, entry);
+    }
+
+    /**
+     * @return the MetaType declared by {@code entry}, or {@code null} if it cannot be parsed
+     */
     @CheckForNull
-    private static Function<JarEntry, MetaData> toMetaData(final JarFile jarFile, MetaDataReader metaDataReader) {
-        return jarEntry -> {
-            try (InputStream inputStream = jarFile.getInputStream(jarEntry)) {
-                return metaDataReader.parse(inputStream);
-            } catch (IOException e) {
-                LOG.warn("Error parsing '{}' in '{}'", jarEntry.getName(), jarFile.getName(), e);
-                return null;
-            }
-        };
-    }
-
-    // from the referenced "localization" attribute try to load the properties file
-    private static Function<Map.Entry<String, MetaData>, Properties> getProperties(JarFile jarFile) {
-        return entry -> {
-            Properties properties = new Properties();
-            String path = entry.getValue().getLocalePrefix();
-            if (path != null) {
-                path = path + ".properties";
-                JarEntry jarEntry = jarFile.getJarEntry(path);
-                if (jarEntry == null) {
-                    return properties;
-                }
-                try (InputStream input = jarFile.getInputStream(jarEntry)) {
-                    properties.load(input);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-            return properties;
-        };
-    }
-   
-    private static Stream<JarEntry> findEntries(final JarFile jarFile, final String path, final String extension) {
-        return jarFile.stream()
-                .filter(entry -> {
-                    String name = entry.getName();
-                    return name.startsWith(path) && name.endsWith(extension);
-                });
+    static MetaData readMetaData(final BundleIndex index, final BundleEntry entry) {
+        Timings.Timer timer = Timings.start(Timings.Phase.METATYPE_PARSE, index.getName(), entry.getName(), null);
+        try (InputStream inputStream = index.getInputStream(entry)) {
+            return parse(inputStream);
+        } catch (IOException e) {
+            LOG.warn("Error parsing '{}' in '{}'", entry.getName(), index.getName(), e);
+            return null;
+        } finally {
+            timer.close();
+        }
+    }
+
+    /**
+     * Parses a single MetaType XML document with the reader of the current thread.
+     */
+    static MetaData parse(final InputStream inputStream) throws IOException {
+        return READERS.get().parse(inputStream);
     }
 }
@@ -0,0 +1,362 @@
+package net.distilledcode.tools.osgi;
+
+import javax.annotation.CheckForNull;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The compared metadata of a MetaType document, as read by {@link MetaTypeDescriptionParser}.
+ * Values have the types felix MetaType gives them, e.g. attribute types and
+ * cardinalities are ints and default values are already validated and split.
+ * <p>
+ * Instances are immutable. Arrays are returned as they are held and must not be modified.
+ */
+public final class MetaTypeDescription {
+
+    private final String namespace;
+
+    private final String localePrefix;
+
+    private final Map<String, ObjectClassDefinition> objectClassDefinitions;
+
+    private final List<Designate> designates;
+
+    MetaTypeDescription(final String namespace, @CheckForNull final String localePrefix,
+                        final Map<String, ObjectClassDefinition> objectClassDefinitions, final List<Designate> designates) {
+        this.namespace = namespace;
+        this.localePrefix = localePrefix;
+        this.objectClassDefinitions = objectClassDefinitions.isEmpty()
+                ? Collections.emptyMap() : Collections.unmodifiableMap(objectClassDefinitions);
+        this.designates = designates.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(designates);
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    @CheckForNull
+    public String getLocalePrefix() {
+        return localePrefix;
+    }
+
+    /**
+     * @return the object class definitions by id, in document order
+     */
+    public Map<String, ObjectClassDefinition> getObjectClassDefinitions() {
+        return objectClassDefinitions;
+    }
+
+    public List<Designate> getDesignates() {
+        return designates;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof MetaTypeDescription)) {
+            return false;
+        }
+        MetaTypeDescription that = (MetaTypeDescription) other;
+        return namespace.equals(that.namespace)
+                && Objects.equals(localePrefix, that.localePrefix)
+                && objectClassDefinitions.equals(that.objectClassDefinitions)
+                && designates.equals(that.designates);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(namespace, objectClassDefinitions.keySet());
+    }
+
+    @Override
+    public String toString() {
+        return "MetaTypeDescription" + objectClassDefinitions.keySet();
+    }
+
+    /**
+     * A {@code Designate} element and the {@code ocdref} of its {@code Object}.
+     */
+    public static final class Designate {
+
+        private final String pid;
+
+        private final String factoryPid;
+
+        private final String bundleLocation;
+
+        private final boolean merge;
+
+        private final boolean optional;
+
+        private final String ocdRef;
+
+        Designate(@CheckForNull final String pid, @CheckForNull final String factoryPid, @CheckForNull final String bundleLocation,
+                  final boolean merge, final boolean optional, final String ocdRef) {
+            this.pid = pid;
+            this.factoryPid = factoryPid;
+            this.bundleLocation = bundleLocation;
+            this.merge = merge;
+            this.optional = optional;
+            this.ocdRef = ocdRef;
+        }
+
+        @CheckForNull
+        public String getPid() {
+            return pid;
+        }
+
+        @CheckForNull
+        public String getFactoryPid() {
+            return factoryPid;
+        }
+
+        /**
+         * @return the PID, or the factory PID if no PID is declared
+         */
+        @CheckForNull
+        public String getPidOrFactoryPid() {
+            return pid == null ? factoryPid : pid;
+        }
+
+        @CheckForNull
+        public String getBundleLocation() {
+            return bundleLocation;
+        }
+
+        public boolean isMerge() {
+            return merge;
+        }
+
+        public boolean isOptional() {
+            return optional;
+        }
+
+        public String getOcdRef() {
+            return ocdRef;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Designate)) {
+                return false;
+            }
+            Designate that = (Designate) other;
+            return merge == that.merge
+                    && optional == that.optional
+                    && Objects.equals(pid, that.pid)
+                    && Objects.equals(factoryPid, that.factoryPid)
+                    && Objects.equals(bundleLocation, that.bundleLocation)
+                    && ocdRef.equals(that.ocdRef);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(pid, factoryPid, ocdRef);
+        }
+
+        @Override
+        public String toString() {
+            return "Designate[" + getPidOrFactoryPid() + "]";
+        }
+    }
+
+    /**
+     * An {@code OCD} element.
+     */
+    public static final class ObjectClassDefinition {
+
+        private final String id;
+
+        private final String name;
+
+        private final String description;
+
+        private final Map<String, AttributeDefinition> attributeDefinitions;
+
+        ObjectClassDefinition(final String id, final String name, @CheckForNull final String description,
+                              final Map<String, AttributeDefinition> attributeDefinitions) {
+            this.id = id;
+            this.name = name;
+            this.description = description;
+            this.attributeDefinitions = attributeDefinitions.isEmpty()
+                    ? Collections.emptyMap() : Collections.unmodifiableMap(attributeDefinitions);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @CheckForNull
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * @return the attribute definitions by id, in document order
+         */
+        public Map<String, AttributeDefinition> getAttributeDefinitions() {
+            return attributeDefinitions;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof ObjectClassDefinition)) {
+                return false;
+            }
+            ObjectClassDefinition that = (ObjectClassDefinition) other;
+            return id.equals(that.id)
+                    && name.equals(that.name)
+                    && Objects.equals(description, that.description)
+                    && attributeDefinitions.equals(that.attributeDefinitions);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "ObjectClassDefinition[" + id + "]";
+        }
+    }
+
+    /**
+     * An {@code AD} element.
+     */
+    public static final class AttributeDefinition {
+
+        private final String id;
+
+        private final String name;
+
+        private final String description;
+
+        private final int type;
+
+        private final int cardinality;
+
+        private final String[] defaultValue;
+
+        private final String min;
+
+        private final String max;
+
+        private final String[] optionLabels;
+
+        private final String[] optionValues;
+
+        AttributeDefinition(final String id, @CheckForNull final String name, @CheckForNull final String description,
+                            final int type, final int cardinality, @CheckForNull final String[] defaultValue,
+                            @CheckForNull final String min, @CheckForNull final String max,
+                            final String[] optionLabels, final String[] optionValues) {
+            this.id = id;
+            this.name = name;
+            this.description = description;
+            this.type = type;
+            this.cardinality = cardinality;
+            this.defaultValue = defaultValue;
+            this.min = min;
+            this.max = max;
+            this.optionLabels = optionLabels;
+            this.optionValues = optionValues;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        @CheckForNull
+        public String getName() {
+            return name;
+        }
+
+        @CheckForNull
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * @return one of the type constants of {@code org.osgi.service.metatype.AttributeDefinition}
+         */
+        public int getType() {
+            return type;
+        }
+
+        public int getCardinality() {
+            return cardinality;
+        }
+
+        /**
+         * @return the default values that are valid for this definition, or {@code null} if none is declared
+         */
+        @CheckForNull
+        public String[] getDefaultValue() {
+            return defaultValue;
+        }
+
+        @CheckForNull
+        public String getMin() {
+            return min;
+        }
+
+        @CheckForNull
+        public String getMax() {
+            return max;
+        }
+
+        public String[] getOptionLabels() {
+            return optionLabels;
+        }
+
+        public String[] getOptionValues() {
+            return optionValues;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof AttributeDefinition)) {
+                return false;
+            }
+            AttributeDefinition that = (AttributeDefinition) other;
+            return type == that.type
+                    && cardinality == that.cardinality
+                    && id.equals(that.id)
+                    && Objects.equals(name, that.name)
+                    && Objects.equals(description, that.description)
+                    && Arrays.equals(defaultValue, that.defaultValue)
+                    && Objects.equals(min, that.min)
+                    && Objects.equals(max, that.max)
+                    && Arrays.equals(optionLabels, that.optionLabels)
+                    && Arrays.equals(optionValues, that.optionValues);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "AttributeDefinition[" + id + "]";
+        }
+    }
+}
@@ -0,0 +1,653 @@
+package net.distilledcode.tools.osgi;
+
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads a MetaType XML document into a {@link MetaTypeDescription} with a single StAX
+ * pass. Elements are interpreted like felix MetaType's {@code MetaDataReader} does,
+ * including the namespace version rules and the validation of default values against
+ * their attribute definition, so a document yields the same values and fails in the
+ * same cases. Felix MetaType remains available through
+ * {@link MetaType#readMetaData(BundleIndex)} as the reference.
+ * <p>
+ * Attribute values are canonicalized through {@link StringPool#SHARED}.
+ */
+final class MetaTypeDescriptionParser {
+
+    private static final String NAMESPACE_1_0 = "http://www.osgi.org/xmlns/metatype/v1.0.0";
+
+    private static final String NAMESPACE_PREFIX = "http://www.osgi.org/xmlns/metatype/v1.";
+
+    // the type constants of org.osgi.service.metatype.AttributeDefinition
+    private static final int STRING = 1;
+    private static final int LONG = 2;
+    private static final int INTEGER = 3;
+    private static final int SHORT = 4;
+    private static final int CHARACTER = 5;
+    private static final int BYTE = 6;
+    private static final int DOUBLE = 7;
+    private static final int FLOAT = 8;
+    private static final int BIGINTEGER = 9;
+    private static final int BIGDECIMAL = 10;
+    private static final int BOOLEAN = 11;
+    private static final int PASSWORD = 12;
+
+    private static final String MISSING = "%missing required value";
+    private static final String INVALID = "%invalid value";
+    private static final String LESS_THAN_MINIMUM = "%less than minimum";
+    private static final String GREATER_THAN_MAXIMUM = "%greater than maximum";
+    private static final String NOT_AN_OPTION = "%not a valid option";
+
+    private final XMLStreamReader reader;
+
+    private final StringPool pool = StringPool.SHARED;
+
+    private String namespace = NAMESPACE_1_0;
+
+    private MetaTypeDescriptionParser(final XMLStreamReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Parses a single document.
+     *
+     * @return the MetaType of the last {@code MetaData} element, or {@code null} if there is none
+     * @throws XMLStreamException if the document cannot be parsed or does not declare a valid MetaType
+     */
+    @CheckForNull
+    static MetaTypeDescription parse(final InputStream inputStream) throws XMLStreamException {
+        XMLStreamReader reader = XmlStreams.open(inputStream);
+        try {
+            return new MetaTypeDescriptionParser(reader).read();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @CheckForNull
+    private MetaTypeDescription read() throws XMLStreamException {
+        MetaTypeDescription metaType = null;
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                if ("MetaData".equals(reader.getLocalName())) {
+                    metaType = readMetaData();
+                } else {
+                    skipElement();
+                }
+            }
+        }
+        return metaType;
+    }
+
+    private MetaTypeDescription readMetaData() throws XMLStreamException {
+        checkNamespace();
+        String localePrefix = attribute("localization");
+        Map<String, MetaTypeDescription.ObjectClassDefinition> ocds = new LinkedHashMap<>();
+        List<MetaTypeDescription.Designate> designates = new ArrayList<>();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String element = reader.getLocalName();
+                if ("OCD".equals(element)) {
+                    MetaTypeDescription.ObjectClassDefinition ocd = readOCD();
+                    if (ocd != null) {
+                        ocds.put(ocd.getId(), ocd);
+                    }
+                } else if ("Designate".equals(element)) {
+                    MetaTypeDescription.Designate designate = readDesignate();
+                    if (designate != null) {
+                        designates.add(designate);
+                    }
+                } else {
+                    skipElement();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if ("MetaData".equals(reader.getLocalName())) {
+                    break;
+                }
+                throw unexpectedElement();
+            }
+        }
+        return new MetaTypeDescription(namespace, localePrefix, ocds, designates);
+    }
+
+    private void checkNamespace() throws XMLStreamException {
+        String declared = reader.getNamespaceURI();
+        if (declared == null || declared.trim().isEmpty()) {
+            return;
+        }
+        if (version(declared) == Integer.MAX_VALUE) {
+            throw new XMLStreamException("Unsupported Namespace: '" + declared + "'", reader.getLocation());
+        }
+        namespace = pool.intern(declared);
+    }
+
+    // 10 for 1.0.0 up to 14 for 1.4.0
+    private static int version(final String namespace) {
+        switch (namespace) {
+            case NAMESPACE_1_0:
+                return 10;
+            case NAMESPACE_PREFIX + "1.0":
+                return 11;
+            case NAMESPACE_PREFIX + "2.0":
+                return 12;
+            case NAMESPACE_PREFIX + "3.0":
+                return 13;
+            case NAMESPACE_PREFIX + "4.0":
+                return 14;
+            default:
+                return Integer.MAX_VALUE;
+        }
+    }
+
+    @CheckForNull
+    private MetaTypeDescription.ObjectClassDefinition readOCD() throws XMLStreamException {
+        String id = requiredAttribute("id");
+        String name = requiredAttribute("name");
+        String description = attribute("description");
+        Map<String, MetaTypeDescription.AttributeDefinition> ads = new LinkedHashMap<>();
+        Set<Integer> iconSizes = new HashSet<>();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String element = reader.getLocalName();
+                if ("AD".equals(element)) {
+                    MetaTypeDescription.AttributeDefinition ad = readAD();
+                    ads.put(ad.getId(), ad);
+                } else if ("Icon".equals(element)) {
+                    requiredAttribute("resource");
+                    String size = requiredAttribute("size");
+                    try {
+                        iconSizes.add(Integer.decode(size));
+                    } catch (NumberFormatException e) {
+                        // ignored like by felix MetaType, which only logs it
+                    }
+                } else {
+                    skipElement();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                String element = reader.getLocalName();
+                if ("OCD".equals(element)) {
+                    if (version(namespace) < 12 && iconSizes.size() > 1) {
+                        throw new XMLStreamException("Unexpected element Icon", reader.getLocation());
+                    }
+                    if (version(namespace) < 13 && ads.isEmpty()) {
+                        // an OCD without attribute definitions is only valid as of 1.3.0
+                        return null;
+                    }
+                    break;
+                }
+                if (!"Icon".equals(element)) {
+                    throw unexpectedElement();
+                }
+            }
+        }
+        return new MetaTypeDescription.ObjectClassDefinition(id, name, description, ads);
+    }
+
+    @CheckForNull
+    private MetaTypeDescription.Designate readDesignate() throws XMLStreamException {
+        String pid = attribute("pid");
+        String factoryPid = attribute("factoryPid");
+        String bundleLocation = attribute("bundle");
+        boolean optional = "true".equalsIgnoreCase(attribute("optional"));
+        boolean merge = "true".equalsIgnoreCase(attribute("merge"));
+        String ocdRef = null;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if ("Object".equals(reader.getLocalName())) {
+                    if (ocdRef != null) {
+                        throw unexpectedElement();
+                    }
+                    ocdRef = readObject();
+                } else {
+                    skipElement();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if ("Designate".equals(reader.getLocalName())) {
+                    break;
+                }
+                throw unexpectedElement();
+            }
+        }
+        // a designate without an object is dropped
+        return ocdRef == null ? null : new MetaTypeDescription.Designate(pid, factoryPid, bundleLocation, merge, optional, ocdRef);
+    }
+
+    // the attributes of an object are not compared, but they are checked like by felix MetaType
+    private String readObject() throws XMLStreamException {
+        String ocdRef = requiredAttribute("ocdref");
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if ("Attribute".equals(reader.getLocalName())) {
+                    readAttribute();
+                } else {
+                    skipElement();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if ("Object".equals(reader.getLocalName())) {
+                    break;
+                }
+                throw unexpectedElement();
+            }
+        }
+        return ocdRef;
+    }
+
+    private void readAttribute() throws XMLStreamException {
+        requiredAttribute("adref");
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if ("Value".equals(reader.getLocalName())) {
+                    reader.getElementText();
+                } else {
+                    skipElement();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if ("Attribute".equals(reader.getLocalName())) {
+                    break;
+                }
+                if (!"Value".equals(reader.getLocalName())) {
+                    throw unexpectedElement();
+                }
+            }
+        }
+    }
+
+    private MetaTypeDescription.AttributeDefinition readAD() throws XMLStreamException {
+        AttributeDefinition ad = new AttributeDefinition();
+        String id = requiredAttribute("id");
+        String name = attribute("name");
+        String description = attribute("description");
+        ad.type = type(requiredAttribute("type"));
+        ad.cardinality = cardinality(attribute("cardinality"));
+        ad.min = attribute("min");
+        ad.max = attribute("max");
+        String required = attribute("required");
+        ad.required = required == null || "true".equalsIgnoreCase(required);
+        String defaultValue = attribute("default");
+        Map<String, String> options = new LinkedHashMap<>();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if ("Option".equals(reader.getLocalName())) {
+                    String value = requiredAttribute("value");
+                    options.put(value, requiredAttribute("label"));
+                } else {
+                    skipElement();
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if ("AD".equals(reader.getLocalName())) {
+                    break;
+                }
+                if (!"Option".equals(reader.getLocalName())) {
+                    throw unexpectedElement();
+                }
+            }
+        }
+        ad.optionValues = options.keySet().toArray(new String[0]);
+        String[] optionLabels = options.values().toArray(new String[0]);
+        String[] defaultValues = defaultValue == null ? null : pool.intern(ad.validDefaultValues(splitList(defaultValue)));
+        return new MetaTypeDescription.AttributeDefinition(id, name, description, ad.type, ad.cardinality,
+                defaultValues, ad.min, ad.max, optionLabels, ad.optionValues);
+    }
+
+    private static int type(final String type) {
+        switch (type) {
+            case "Long":
+                return LONG;
+            case "Double":
+                return DOUBLE;
+            case "Float":
+                return FLOAT;
+            case "Integer":
+                return INTEGER;
+            case "Byte":
+                return BYTE;
+            case "Character":
+            case "Char":
+                return CHARACTER;
+            case "Boolean":
+                return BOOLEAN;
+            case "Short":
+                return SHORT;
+            case "Password":
+                return PASSWORD;
+            default:
+                return STRING;
+        }
+    }
+
+    private static int cardinality(@CheckForNull final String cardinality) {
+        if (cardinality == null || cardinality.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.decode(cardinality);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Splits a list of values at unescaped commas like felix MetaType, leading
+     * whitespace and unescaped whitespace other than inner spaces is dropped.
+     */
+    @CheckForNull
+    static String[] splitList(@CheckForNull final String value) {
+        if (value == null) {
+            return null;
+        }
+        if (value.isEmpty()) {
+            return new String[] {""};
+        }
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean escaped = false;
+        int spaces = 0;
+        boolean start = true;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean whitespace = Character.isWhitespace(c);
+            if (start) {
+                if (whitespace) {
+                    continue;
+                }
+                start = false;
+            }
+            if (c == '\\' && !escaped) {
+                escaped = true;
+                continue;
+            }
+            if (c == ',' && !escaped) {
+                values.add(current.toString());
+                current.setLength(0);
+                start = true;
+                spaces = 0;
+                continue;
+            }
+            if (c == ' ' && !escaped) {
+                spaces++;
+                continue;
+            }
+            if (whitespace && !escaped) {
+                continue;
+            }
+            for (; spaces > 0; spaces--) {
+                current.append(' ');
+            }
+            current.append(c);
+            escaped = false;
+        }
+        values.add(current.toString());
+        return values.toArray(new String[0]);
+    }
+
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private String requiredAttribute(final String name) throws XMLStreamException {
+        String value = attribute(name);
+        if (value == null) {
+            throw new XMLStreamException("Missing attribute " + name + " in element " + reader.getLocalName(), reader.getLocation());
+        }
+        return value;
+    }
+
+    @CheckForNull
+    private String attribute(final String name) {
+        return pool.intern(reader.getAttributeValue(null, name));
+    }
+
+    private XMLStreamException unexpectedElement() {
+        return new XMLStreamException("Unexpected element " + reader.getLocalName(), reader.getLocation());
+    }
+
+    /**
+     * The values of an attribute definition that its default values are validated against.
+     */
+    private static final class AttributeDefinition {
+
+        private int type;
+
+        private int cardinality;
+
+        private String min;
+
+        private String max;
+
+        private boolean required;
+
+        private String[] optionValues;
+
+        /**
+         * @return the values up to the cardinality that are valid, {@code null} if none
+         *         is valid for a scalar and empty if none is valid for a list
+         */
+        @CheckForNull
+        String[] validDefaultValues(final String[] values) {
+            int limit = Math.abs(cardinality);
+            int valid = 0;
+            int count = Math.min(values.length, Math.max(1, limit));
+            for (int i = 0; valid < count && i < values.length; i++) {
+                if ("".equals(validate(values[i]))) {
+                    valid++;
+                } else {
+                    values[i] = null;
+                }
+            }
+            if (valid == 0) {
+                return limit == 0 ? null : new String[0];
+            }
+            if (valid == values.length) {
+                return values;
+            }
+            String[] validValues = new String[valid];
+            for (int i = 0, j = 0; i < valid && j < values.length; j++) {
+                if (values[j] != null) {
+                    validValues[i++] = values[j];
+                }
+            }
+            return validValues;
+        }
+
+        /**
+         * @return the empty string if {@code value} is valid, the reason if it is not,
+         *         or {@code null} if it cannot be validated
+         */
+        @CheckForNull
+        private String validate(@CheckForNull final String value) {
+            if (value == null) {
+                return required ? MISSING : "";
+            }
+            String[] values = cardinality == 0 ? new String[] {value.trim()} : splitList(value);
+            switch (type) {
+                case BOOLEAN:
+                    return validateBoolean(values);
+                case CHARACTER:
+                    return validateCharacter(values);
+                case LONG:
+                case INTEGER:
+                case SHORT:
+                case BYTE:
+                case DOUBLE:
+                case FLOAT:
+                case BIGINTEGER:
+                case BIGDECIMAL:
+                    return validateNumber(values);
+                case STRING:
+                case PASSWORD:
+                    return validateString(values);
+                default:
+                    return null;
+            }
+        }
+
+        @CheckForNull
+        private String validateBoolean(final String[] values) {
+            for (final String value : values) {
+                int length = value == null ? 0 : value.length();
+                if (length == 0 && required) {
+                    return MISSING;
+                }
+                if (length > 0 && !"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+                    return INVALID;
+                }
+            }
+            // felix MetaType does not validate booleans against options
+            return optionValues != null && optionValues.length > 0 ? null : "";
+        }
+
+        private String validateCharacter(final String[] values) {
+            Character minimum = min == null || min.isEmpty() ? null : min.charAt(0);
+            Character maximum = max == null || max.isEmpty() ? null : max.charAt(0);
+            for (final String value : values) {
+                int length = value == null ? 0 : value.length();
+                if (length > 1) {
+                    return GREATER_THAN_MAXIMUM;
+                }
+                if (length == 0 && required) {
+                    return MISSING;
+                }
+                if (length == 1) {
+                    char c = value.charAt(0);
+                    if (minimum != null && c < minimum) {
+                        return LESS_THAN_MINIMUM;
+                    }
+                    if (maximum != null && c > maximum) {
+                        return GREATER_THAN_MAXIMUM;
+                    }
+                }
+                if (findOptionValue(value) == null) {
+                    return NOT_AN_OPTION;
+                }
+            }
+            return "";
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private String validateNumber(final String[] values) {
+            Comparable minimum = parseOptionalNumber(type, min);
+            Comparable maximum = parseOptionalNumber(type, max);
+            for (final String value : values) {
+                Comparable number;
+                try {
+                    number = parseNumber(type, value);
+                } catch (NumberFormatException e) {
+                    return INVALID;
+                }
+                if (number == null && required) {
+                    return MISSING;
+                }
+                if (minimum != null && number != null && number.compareTo(minimum) < 0) {
+                    return LESS_THAN_MINIMUM;
+                }
+                if (maximum != null && number != null && number.compareTo(maximum) > 0) {
+                    return GREATER_THAN_MAXIMUM;
+                }
+                if (findOptionValue(value) == null) {
+                    return NOT_AN_OPTION;
+                }
+            }
+            return "";
+        }
+
+        private String validateString(final String[] values) {
+            Integer minimum = (Integer) parseOptionalNumber(INTEGER, min);
+            Integer maximum = (Integer) parseOptionalNumber(INTEGER, max);
+            for (final String value : values) {
+                int length = value == null ? 0 : value.length();
+                if (required && value == null) {
+                    return MISSING;
+                }
+                if (minimum != null && length < minimum) {
+                    return LESS_THAN_MINIMUM;
+                }
+                if (maximum != null && length > maximum) {
+                    return GREATER_THAN_MAXIMUM;
+                }
+                if (findOptionValue(value) == null) {
+                    return NOT_AN_OPTION;
+                }
+            }
+            return "";
+        }
+
+        // the empty string if there are no options to check against
+        @CheckForNull
+        private String findOptionValue(@CheckForNull final String value) {
+            if (value == null || optionValues == null || optionValues.length == 0) {
+                return "";
+            }
+            for (final String optionValue : optionValues) {
+                if (optionValue.equals(value)) {
+                    return optionValue;
+                }
+            }
+            return null;
+        }
+
+        @CheckForNull
+        private static Comparable<?> parseOptionalNumber(final int type, @CheckForNull final String value) {
+            if (value == null) {
+                return null;
+            }
+            try {
+                return parseNumber(type, value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @CheckForNull
+        private static Comparable<?> parseNumber(final int type, @CheckForNull final String value) {
+            if (value == null || value.isEmpty()) {
+                return null;
+            }
+            switch (type) {
+                case BIGDECIMAL:
+                    return new BigDecimal(value);
+                case BIGINTEGER:
+                    return new BigInteger(value);
+                case BYTE:
+                    return Byte.valueOf(value);
+                case SHORT:
+                    return Short.valueOf(value);
+                case INTEGER:
+                    return Integer.valueOf(value);
+                case LONG:
+                    return Long.valueOf(value);
+                case FLOAT:
+                    return Float.valueOf(value);
+                case DOUBLE:
+                    return Double.valueOf(value);
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package net.distilledcode.tools.osgi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persistent cache of parsed {@link MetadataDiff.BundleMetadata}, keyed by the
+ * SHA-256 digest of a bundle's content. Re-diffing an unchanged bundle then only
+ * costs hashing the jar and reading a small binary file instead of parsing all
+ * of its XML descriptors.
+ * <p>
+ * The cache directory may be shared by concurrent processes: entries are written
+ * to a temporary file and atomically moved into place, so readers never see a
+ * partial entry. Entries that cannot be read are treated as a miss and replaced.
+ * Once the directory grows beyond its maximum size, the least recently used
+ * entries are evicted; the last modified time of an entry is updated on each hit.
+ */
+public class MetadataCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetadataCache.class);
+
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+    private static final String SUFFIX = ".v" + BundleMetadataSerializer.FORMAT_VERSION + ".bin";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String LOCK_FILE = ".lock";
+
+    // temporary files of crashed processes are removed after this time
+    private static final long STALE_TEMP_FILE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Path directory;
+
+    private final long maxSize;
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public MetadataCache(final File directory) throws IOException {
+        this(directory, DEFAULT_MAX_SIZE);
+    }
+
+    public MetadataCache(final File directory, final long maxSize) throws IOException {
+        this.directory = Files.createDirectories(directory.toPath());
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the metadata of {@code bundle} from the cache, or reads it and
+     * adds it to the cache.
+     */
+    public MetadataDiff.BundleMetadata get(final File bundle, final DiffOptions options) throws IOException {
+        Path entry = directory.resolve(digest(bundle) + SUFFIX);
+        MetadataDiff.BundleMetadata metadata;
+        Timings.Timer timer = Timings.start(Timings.Phase.CACHE, bundle.getPath(), null, null);
+        try {
+            metadata = load(entry, options.isResolveFromLocalizationProperties());
+        } finally {
+            timer.close();
+        }
+        if (metadata != null) {
+            hits.incrementAndGet();
+            return metadata;
+        }
+
+        misses.incrementAndGet();
+        // localization properties are always cached, so the entry serves both settings
+        try (BundleSource source = BundleSource.open(bundle, options)) {
+            metadata = new MetadataDiff.BundleMetadata(source, true);
+        }
+        store(entry, metadata);
+        return options.isResolveFromLocalizationProperties() ? metadata : metadata.withoutLocalizationProperties();
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    static String digest(final File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    @CheckForNull
+    private MetadataDiff.BundleMetadata load(final Path entry, final boolean resolveFromLocalizationProperties) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(entry))))) {
+            MetadataDiff.BundleMetadata metadata = BundleMetadataSerializer.read(in, resolveFromLocalizationProperties);
+            if (metadata != null) {
+                touch(entry);
+            }
+            return metadata;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Ignoring unreadable cache entry '{}'", entry, e);
+            return null;
+        }
+    }
+
+    private void store(final Path entry, final MetadataDiff.BundleMetadata metadata) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, entry.getFileName().toString(), TEMP_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+                BundleMetadataSerializer.write(metadata, out);
+            }
+            Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            temp = null;
+            evict();
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not write cache entry '{}'", entry, e);
+        } finally {
+            if (temp != null) {
+                deleteQuietly(temp);
+            }
+        }
+    }
+
+    // only one process evicts at a time, the others skip eviction while the lock is held
+    private void evict() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                return;
+            }
+            List<CachedFile> entries = new ArrayList<>();
+            long size = 0;
+            long staleTempFiles = System.currentTimeMillis() - STALE_TEMP_FILE_MILLIS;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (final Path file : files) {
+                    String name = file.getFileName().toString();
+                    try {
+                        long lastModified = Files.getLastModifiedTime(file).toMillis();
+                        if (name.endsWith(SUFFIX)) {
+                            CachedFile cachedFile = new CachedFile(file, Files.size(file), lastModified);
+                            entries.add(cachedFile);
+                            size += cachedFile.size;
+                        } else if (name.endsWith(TEMP_SUFFIX) && lastModified < staleTempFiles) {
+                            deleteQuietly(file);
+                        }
+                    } catch (NoSuchFileException e) {
+                        // removed concurrently
+                    }
+                }
+            }
+            if (size <= maxSize) {
+                return;
+            }
+            entries.sort(Comparator.comparingLong(cachedFile -> cachedFile.lastModified));
+            for (final CachedFile cachedFile : entries) {
+                if (size <= maxSize) {
+                    break;
+                }
+                deleteQuietly(cachedFile.path);
+                size -= cachedFile.size;
+            }
+        }
+    }
+
+    private static void touch(final Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            LOG.debug("Could not update the last modified time of '{}'", entry, e);
+        }
+    }
+
+    private static void deleteQuietly(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.debug("Could not delete '{}'", file, e);
+        }
+    }
+
+    private static class CachedFile {
+
+        private final Path path;
+
+        private final long size;
+
+        private final long lastModified;
+
+        CachedFile(final Path path, final long size, final long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
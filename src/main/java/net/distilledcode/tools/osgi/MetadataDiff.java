@@ -1,98 +1,527 @@
 package net.distilledcode.tools.osgi;
 
-import org.apache.felix.metatype.MetaData;
-import org.apache.felix.scr.impl.metadata.ComponentMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.CheckForNull;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Predicate;
 import java.util.jar.JarFile;
+import java.util.stream.Collectors;
 
-import static net.distilledcode.tools.osgi.DeclarativeServices.readComponentMetadata;
-import static net.distilledcode.tools.osgi.MetaType.readLocalizationProperties;
-import static net.distilledcode.tools.osgi.MetaType.readMetaData;
+import static net.distilledcode.tools.osgi.DeclarativeServices.readComponentDescriptions;
+import static net.distilledcode.tools.osgi.MetaType.readMetaTypeDescriptions;
 
 public class MetadataDiff {
 
     private static final Logger LOG = LoggerFactory.getLogger(MetadataDiff.class);
 
+    static final int EXIT_USAGE = 1;
+
+    static final int EXIT_DIFFERENCES = 2;
+
     public static void main(String[] args) throws IOException {
-        if (args.length != 2) {
-            System.out.println("Usage: java -jar osgi-ds-metatype-diff.jar <oldBundle> <newBundle>");
-            System.exit(1);
+        if (args.length > 0 && DiffDaemon.OPTION.equals(args[0])) {
+            DiffDaemon.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && DiffClient.OPTION.equals(args[0])) {
+            DiffClient.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        PrintWriter out = ReportOutput.stdout();
+        int status = run(args, out);
+        out.flush();
+        if (status != 0) {
+            System.exit(status);
         }
-        String jar1 = args[0];
-        String jar2 = args[1];
-        JarFile jarFile1 = new JarFile(jar1);
-        JarFile jarFile2 = new JarFile(jar2);
-        diff(jarFile1, jarFile2, true);
     }
 
-    public static void diff(JarFile left, JarFile right, boolean resolveFromLocalizationProperties) throws IOException {
-        BundleMetadata leftBundleMetadata = new BundleMetadata(left, resolveFromLocalizationProperties);
-        BundleMetadata rightBundleMetadata = new BundleMetadata(right, resolveFromLocalizationProperties);
-        Set<String> allClasses = Sets.union(
-                leftBundleMetadata.getAllClasses(),
-                rightBundleMetadata.getAllClasses()
-        );
+    static int run(String[] args, PrintWriter out) throws IOException {
+        return run(args, null, null, out, new PrintWriter(System.err));
+    }
 
-        PrintWriter out = new PrintWriter(System.out);
-        PrintingVisitor visitor = new PrintingVisitor(out);
+    /**
+     * Runs a diff as {@link #main(String[])} does, with relative paths in {@code args}
+     * resolved against {@code workingDirectory} and bundles read through {@code memoryCache}.
+     */
+    static int run(String[] args, @CheckForNull File workingDirectory, @CheckForNull MemoryMetadataCache memoryCache,
+                   PrintWriter out, PrintWriter err) throws IOException {
+        CommandLine commandLine;
+        try {
+            commandLine = CommandLine.parse(args, workingDirectory);
+        } catch (IllegalArgumentException e) {
+            out.println(e.getMessage());
+            out.println(CommandLine.USAGE);
+            return EXIT_USAGE;
+        }
+        commandLine.getOptions().setMemoryCache(memoryCache);
 
-        for (final String className : allClasses) {
+        // timings are collected per JVM, the requests a daemon runs concurrently would mix and end each other's
+        if (memoryCache != null && commandLine.isTimings()) {
+            out.println("Option '--timings' is not supported by the daemon");
+            out.println(CommandLine.USAGE);
+            return EXIT_USAGE;
+        }
+        if (!commandLine.isTimings()) {
+            return run(commandLine, out, err);
+        }
+        Timings timings = new Timings();
+        Timings.activate(timings);
+        try {
+            return run(commandLine, out, err);
+        } finally {
+            Timings.activate(null);
+            out.flush();
+            timings.print(err);
+            StringPool.SHARED.printStatistics(err);
+            err.flush();
+        }
+    }
+
+    private static int run(CommandLine commandLine, PrintWriter out, PrintWriter err) throws IOException {
+        if (commandLine.getOutput() == null) {
+            return diff(commandLine, out, err);
+        }
+        try (PrintWriter output = ReportOutput.open(commandLine.getOutput())) {
+            return diff(commandLine, output, err);
+        }
+    }
+
+    private static int diff(CommandLine commandLine, PrintWriter out, PrintWriter err) throws IOException {
+        DiffOptions options = commandLine.getOptions();
+        if (commandLine.isWatch()) {
+            if (commandLine.isBatch()) {
+                out.println("Option '--watch' requires two bundles");
+                out.println(CommandLine.USAGE);
+                return EXIT_USAGE;
+            }
             try {
-                Comparison comparison = Comparison.create(className, leftBundleMetadata, rightBundleMetadata);
-                comparison.visit(visitor);
-            } catch (Exception e) {
-                LOG.warn("Could not diff metadata for class '{}'", className, e);
+                new WatchDiff(commandLine.resolve(commandLine.getLeft()), commandLine.resolve(commandLine.getRight()), options)
+                        .watch(out, err);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+            return 0;
+        }
+        if (commandLine.isSeries()) {
+            boolean differences = SeriesDiff.diff(commandLine.getSeries(), options, commandLine.isHistory(), out);
+            return differences ? EXIT_DIFFERENCES : 0;
+        }
+        if (commandLine.isBatch()) {
+            boolean differences = BatchDiff.diff(
+                    commandLine.listBundles(commandLine.getLeft()),
+                    commandLine.listBundles(commandLine.getRight()),
+                    options,
+                    out);
+            return differences ? EXIT_DIFFERENCES : 0;
         }
 
-        if (!visitor.hasPrintedSomething()) {
-            out.append("No differences found between ").append(left.getName()).append(" and ").append(right.getName()).println();
+        File left = commandLine.resolve(commandLine.getLeft());
+        File right = commandLine.resolve(commandLine.getRight());
+        if (options.getFormat() != OutputFormat.TEXT) {
+            JsonVisitor visitor = new JsonVisitor(out, options.getFormat() == OutputFormat.JSON);
+            diffBundles(left, right, options, visitor, options.getParallelism());
+            visitor.close();
+        } else if (!diffBundles(left, right, options, out, options.getParallelism())) {
+            out.append("No differences found between ").append(commandLine.getLeft()).append(" and ").append(commandLine.getRight()).println();
         }
+        return 0;
+    }
 
+    public static void diff(JarFile left, JarFile right, boolean resolveFromLocalizationProperties) throws IOException {
+        PrintWriter out = ReportOutput.stdout();
+        diff(left, right, resolveFromLocalizationProperties, out);
         out.flush();
-        out.close();
+    }
+
+    public static boolean diff(JarFile left, JarFile right, boolean resolveFromLocalizationProperties, PrintWriter out) throws IOException {
+        return diff(left, right, resolveFromLocalizationProperties, out, ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    public static boolean diff(JarFile left, JarFile right, boolean resolveFromLocalizationProperties, PrintWriter out, int parallelism) throws IOException {
+        return diff(new JarFileBundleSource(left), new JarFileBundleSource(right), new DiffOptions()
+                .setResolveFromLocalizationProperties(resolveFromLocalizationProperties)
+                .setParallelism(parallelism), out);
+    }
+
+    public static boolean diff(BundleSource left, BundleSource right, DiffOptions options, PrintWriter out) throws IOException {
+        boolean differences = diffSources(left, right, options, new PrintingVisitor(out), options.getParallelism());
+        if (!differences) {
+            out.append("No differences found between ").append(left.getName()).append(" and ").append(right.getName()).println();
+        }
+        return differences;
+    }
+
+    static boolean diffBundles(File left, File right, DiffOptions options, PrintWriter out, int parallelism) throws IOException {
+        return diffBundles(left, right, options, new PrintingVisitor(out), parallelism);
+    }
+
+    /**
+     * Diffs two bundle files, through the caches configured in {@code options} if any.
+     */
+    static boolean diffBundles(File left, File right, DiffOptions options, Comparison.Visitor visitor, int parallelism) throws IOException {
+        if (!options.isStreaming() && (options.getCache() != null || options.getMemoryCache() != null)) {
+            BundleMetadata[] metadata = readConcurrently(
+                    parallel -> BundleMetadata.read(left, options, parallel),
+                    parallel -> BundleMetadata.read(right, options, parallel),
+                    parallelism);
+            return diff(metadata[0], metadata[1], visitor, parallelism, options.getLocales());
+        }
+        try (BundleSource leftSource = BundleSource.open(left, options);
+             BundleSource rightSource = BundleSource.open(right, options)) {
+            return diffSources(leftSource, rightSource, options, visitor, parallelism);
+        }
+    }
+
+    // descriptors that are identical on both sides are excluded before parsing
+    private static boolean diffSources(BundleSource left, BundleSource right, DiffOptions options, Comparison.Visitor visitor, int parallelism) throws IOException {
+        BundleIndex leftIndex = BundleIndex.create(left);
+        BundleIndex rightIndex = BundleIndex.create(right);
+        if (options.isStreaming()) {
+            Set<String> unchanged = options.isSkipUnchangedDescriptors()
+                    ? UnchangedDescriptors.find(leftIndex, rightIndex, options) : Collections.emptySet();
+            return StreamingDiff.diff(leftIndex, rightIndex, unchanged, options, visitor);
+        }
+        // selected before skipping, MetaType PIDs are selected by the names of components in unchanged descriptors, too
+        SelectedDescriptors leftSelection = null;
+        SelectedDescriptors rightSelection = null;
+        if (!options.getFilter().isEmpty()) {
+            leftSelection = SelectedDescriptors.find(leftIndex, options.getFilter());
+            rightSelection = SelectedDescriptors.find(rightIndex, options.getFilter());
+            leftIndex = leftIndex.withoutDescriptors(leftSelection.getUnselected());
+            rightIndex = rightIndex.withoutDescriptors(rightSelection.getUnselected());
+        }
+        if (options.isSkipUnchangedDescriptors()) {
+            Set<String> unchanged = UnchangedDescriptors.find(leftIndex, rightIndex, options);
+            leftIndex = leftIndex.withoutDescriptors(unchanged);
+            rightIndex = rightIndex.withoutDescriptors(unchanged);
+        }
+        BundleIndex leftDescriptors = leftIndex;
+        BundleIndex rightDescriptors = rightIndex;
+        SelectedDescriptors leftSelected = leftSelection;
+        SelectedDescriptors rightSelected = rightSelection;
+        BundleMetadata[] metadata = readConcurrently(
+                parallel -> new BundleMetadata(leftDescriptors, options.isResolveFromLocalizationProperties(), leftSelected, parallel),
+                parallel -> new BundleMetadata(rightDescriptors, options.isResolveFromLocalizationProperties(), rightSelected, parallel),
+                parallelism);
+        return diff(metadata[0], metadata[1], visitor, parallelism, options.getLocales());
+    }
+
+    /**
+     * Reads both bundles concurrently, each parsing its descriptors in parallel,
+     * using up to {@code parallelism} threads in total.
+     *
+     * @return the metadata of the left and the right bundle
+     */
+    static BundleMetadata[] readConcurrently(BundleReader left, BundleReader right, int parallelism) throws IOException {
+        if (parallelism <= 1) {
+            return new BundleMetadata[] {left.read(false), right.read(false)};
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            ForkJoinTask<BundleMetadata> leftTask = pool.submit(() -> left.read(true));
+            ForkJoinTask<BundleMetadata> rightTask = pool.submit(() -> right.read(true));
+            return new BundleMetadata[] {join(leftTask), join(rightTask)};
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static BundleMetadata join(ForkJoinTask<BundleMetadata> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading bundles");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Reads the metadata of one bundle.
+     */
+    interface BundleReader {
+        /**
+         * @param parallel whether descriptors may be parsed in the {@code ForkJoinPool} of the calling thread
+         */
+        BundleMetadata read(boolean parallel) throws IOException;
+    }
+
+    public static boolean diff(BundleMetadata left, BundleMetadata right, PrintWriter out) {
+        return diff(left, right, out, ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    public static boolean diff(BundleMetadata left, BundleMetadata right, PrintWriter out, int parallelism) {
+        return diff(left, right, new PrintingVisitor(out), parallelism);
+    }
+
+    /**
+     * Compares all components of both bundles using up to {@code parallelism}
+     * threads. The events of each component are buffered and passed to
+     * {@code visitor} in component name order, so the output does not depend
+     * on the parallelism.
+     *
+     * @return {@code true} if any value was added, changed or removed
+     */
+    public static boolean diff(BundleMetadata left, BundleMetadata right, Comparison.Visitor visitor, int parallelism) {
+        return diff(left, right, visitor, parallelism, Collections.emptyList());
+    }
+
+    /**
+     * Like {@link #diff(BundleMetadata, BundleMetadata, Comparison.Visitor, int)}, additionally
+     * comparing localized MetaType values in each of {@code locales}.
+     */
+    public static boolean diff(BundleMetadata left, BundleMetadata right, Comparison.Visitor visitor, int parallelism, List<Locale> locales) {
+        boolean differences = false;
+        Collection<RecordingVisitor> recordings = compareComponents(left, right, parallelism, locales).values();
+        Timings.Timer timer = Timings.start(Timings.Phase.OUTPUT, null, null, null);
+        try {
+            for (final RecordingVisitor recording : recordings) {
+                differences |= recording.hasDifferences();
+                recording.replay(visitor);
+            }
+        } finally {
+            timer.close();
+        }
+        return differences;
+    }
+
+    /**
+     * Compares all components of both bundles using up to {@code parallelism} threads.
+     *
+     * @return the events of each component, in component name order
+     */
+    static Map<String, RecordingVisitor> compareComponents(BundleMetadata left, BundleMetadata right, int parallelism, List<Locale> locales) {
+        List<String> allClasses = new ArrayList<>(new TreeSet<>(Sets.union(
+                left.getAllClasses(),
+                right.getAllClasses()
+        )));
+
+        List<RecordingVisitor> recordings;
+        if (parallelism <= 1) {
+            recordings = allClasses.stream()
+                    .map(className -> compare(className, left, right, locales))
+                    .collect(Collectors.toList());
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                recordings = pool.submit(() -> allClasses.parallelStream()
+                        .map(className -> compare(className, left, right, locales))
+                        .collect(Collectors.toList())).join();
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        Map<String, RecordingVisitor> components = new LinkedHashMap<>();
+        for (int i = 0; i < allClasses.size(); i++) {
+            components.put(allClasses.get(i), recordings.get(i));
+        }
+        return components;
+    }
+
+    static RecordingVisitor compare(String className, BundleMetadata left, BundleMetadata right, List<Locale> locales) {
+        RecordingVisitor recording = new RecordingVisitor();
+        Timings.Timer timer = Timings.start(Timings.Phase.COMPARISON, null, null, className);
+        try {
+            Comparison comparison = Comparison.create(className, left, right, locales);
+            comparison.visit(recording);
+        } catch (Exception e) {
+            LOG.warn("Could not diff metadata for class '{}'", className, e);
+            return new RecordingVisitor();
+        } finally {
+            timer.close();
+        }
+        return recording;
     }
 
     public static class BundleMetadata {
 
-        private final Map<String, ComponentMetadata> declarativeServices;
+        private final Map<String, ComponentDescription> declarativeServices;
 
-        private final Map<String, MetaData> metaType;
+        private final Map<String, MetaTypeDescription> metaType;
         
-        private final Map<String, Properties> metaTypeLocalizationProperties;
+        private final LocalizationStore localizations;
+
+        /**
+         * Reads the metadata of {@code file}, through the caches configured in {@code options} if any.
+         * Exploded bundles are not cached, as their content cannot be keyed cheaply.
+         */
+        public static BundleMetadata read(File file, DiffOptions options) throws IOException {
+            return read(file, options, false);
+        }
+
+        /**
+         * @param parallel whether descriptors that are not cached are parsed in the {@code ForkJoinPool} of the calling thread
+         */
+        static BundleMetadata read(File file, DiffOptions options, boolean parallel) throws IOException {
+            MemoryMetadataCache memoryCache = options.getMemoryCache();
+            if (memoryCache != null && !file.isDirectory()) {
+                return memoryCache.get(file, options);
+            }
+            MetadataCache cache = options.getCache();
+            if (cache != null && !file.isDirectory()) {
+                return cache.get(file, options).select(options.getFilter());
+            }
+            try (BundleSource source = BundleSource.open(file, options)) {
+                return new BundleMetadata(BundleIndex.create(source), options.isResolveFromLocalizationProperties(), options.getFilter(), parallel);
+            }
+        }
 
         BundleMetadata(JarFile jarFile, boolean resolveFromLocalizationProperties) throws IOException {
-            declarativeServices = readComponentMetadata(jarFile);
-            metaType = readMetaData(jarFile);
-            
+            this(new JarFileBundleSource(jarFile), resolveFromLocalizationProperties);
+        }
+
+        BundleMetadata(BundleSource source, boolean resolveFromLocalizationProperties) throws IOException {
+            this(BundleIndex.create(source), resolveFromLocalizationProperties);
+        }
+
+        BundleMetadata(BundleIndex index, boolean resolveFromLocalizationProperties) throws IOException {
+            this(index, resolveFromLocalizationProperties, ComponentFilter.ALL);
+        }
+
+        /**
+         * Reads the metadata of the components selected by {@code filter}. Descriptors
+         * that do not declare any selected component are not parsed.
+         */
+        BundleMetadata(BundleIndex index, boolean resolveFromLocalizationProperties, ComponentFilter filter) throws IOException {
+            this(index, resolveFromLocalizationProperties, filter, false);
+        }
+
+        /**
+         * @param parallel whether the DS and MetaType descriptors are parsed concurrently,
+         *                 in the {@code ForkJoinPool} of the calling thread
+         */
+        BundleMetadata(BundleIndex index, boolean resolveFromLocalizationProperties, ComponentFilter filter, boolean parallel) throws IOException {
+            this(index, resolveFromLocalizationProperties, filter.isEmpty() ? null : SelectedDescriptors.find(index, filter), parallel);
+        }
+
+        /**
+         * @param selection the components to read, found in {@code index} or in a superset of its descriptors,
+         *                  or {@code null} to read all components
+         */
+        BundleMetadata(BundleIndex index, boolean resolveFromLocalizationProperties, @CheckForNull SelectedDescriptors selection, boolean parallel) throws IOException {
+            if (selection != null) {
+                index = index.withoutDescriptors(selection.getUnselected());
+            }
+            Map<String, ComponentDescription> components;
+            Map<String, MetaTypeDescription> metaTypes;
+            if (parallel) {
+                BundleIndex descriptors = index;
+                ForkJoinTask<Map<String, MetaTypeDescription>> metaTypeTask = ForkJoinTask.adapt(() -> readMetaTypeDescriptions(descriptors, true)).fork();
+                components = readComponentDescriptions(index, true);
+                metaTypes = metaTypeTask.join();
+            } else {
+                components = readComponentDescriptions(index);
+                metaTypes = readMetaTypeDescriptions(index);
+            }
+            declarativeServices = selection == null ? components : select(components, selection::isSelected);
+            metaType = selection == null ? metaTypes : select(metaTypes, selection::isSelected);
+
             if (resolveFromLocalizationProperties) {
-                metaTypeLocalizationProperties = readLocalizationProperties(jarFile, metaType);
+                localizations = LocalizationStore.read(index, metaType);
             } else {
-                metaTypeLocalizationProperties = null;
+                localizations = null;
+            }
+        }
+
+        BundleMetadata(Map<String, ComponentDescription> declarativeServices, Map<String, MetaTypeDescription> metaType,
+                       @CheckForNull LocalizationStore localizations) {
+            this.declarativeServices = declarativeServices;
+            this.metaType = metaType;
+            this.localizations = localizations;
+        }
+
+        /**
+         * @return the metadata of the components selected by {@code filter}
+         */
+        BundleMetadata select(ComponentFilter filter) {
+            if (filter.isEmpty()) {
+                return this;
             }
+            Predicate<String> selected = pid -> {
+                ComponentDescription component = declarativeServices.get(pid);
+                return filter.matches(pid, component == null ? null : component.getName());
+            };
+            return new BundleMetadata(select(declarativeServices, selected), select(metaType, selected),
+                    localizations == null ? null : localizations.select(selected));
+        }
+
+        private static <T> Map<String, T> select(Map<String, T> map, Predicate<String> selected) {
+            return map.entrySet().stream()
+                    .filter(entry -> selected.test(entry.getKey()))
+                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        }
+
+        BundleMetadata withoutLocalizationProperties() {
+            return new BundleMetadata(declarativeServices, metaType, null);
+        }
+
+        Map<String, ComponentDescription> getDeclarativeServicesMap() {
+            return declarativeServices;
+        }
+
+        Map<String, MetaTypeDescription> getMetaTypeMap() {
+            return metaType;
+        }
+
+        @CheckForNull
+        LocalizationStore getLocalizations() {
+            return localizations;
         }
 
         public Set<String> getAllClasses() {
             return Sets.union(declarativeServices.keySet(), metaType.keySet());
         }
 
-        public ComponentMetadata getDeclarativeServices(String className) {
+        public ComponentDescription getDeclarativeServices(String className) {
             return declarativeServices.get(className);
         }
 
-        public MetaData getMetaType(String className) {
+        public MetaTypeDescription getMetaType(String className) {
             return metaType.get(className);
         }
         
+        @CheckForNull
         public Properties getMetaTypeLocalizationProperties(String className) {
-            return metaTypeLocalizationProperties.get(className);
+            return getMetaTypeLocalizationProperties(className, Locale.ROOT);
+        }
+
+        /**
+         * @return the localization of {@code className} in {@code locale}, falling back to less specific locales
+         */
+        @CheckForNull
+        public Properties getMetaTypeLocalizationProperties(String className, Locale locale) {
+            return localizations == null ? null : localizations.getProperties(className, locale);
         }
     }
 
@@ -0,0 +1,26 @@
+package net.distilledcode.tools.osgi;
+
+import java.util.Locale;
+
+/**
+ * Format of the diff report.
+ */
+public enum OutputFormat {
+
+    /** Indented, human-oriented text, see {@link PrintingVisitor}. */
+    TEXT,
+
+    /** A single JSON array of difference events, see {@link JsonVisitor}. */
+    JSON,
+
+    /** One JSON difference event per line, see {@link JsonVisitor}. */
+    NDJSON;
+
+    static OutputFormat parse(final String value) {
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown format '" + value + "', expected one of text, json or ndjson", e);
+        }
+    }
+}
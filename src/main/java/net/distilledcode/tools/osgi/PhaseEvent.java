@@ -0,0 +1,31 @@
+package net.distilledcode.tools.osgi;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event covering one phase of a diff, see {@link Timings.Phase}.
+ */
+@Name("net.distilledcode.tools.osgi.Phase")
+@Label("Diff Phase")
+@Description("A phase of diffing OSGi DS and MetaType metadata")
+@Category("OSGi DS & MetaType Diff")
+@StackTrace(false)
+class PhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Bundle")
+    String bundle;
+
+    @Label("Descriptor")
+    String descriptor;
+
+    @Label("Component")
+    String component;
+}
@@ -1,19 +1,39 @@
 package net.distilledcode.tools.osgi;
 
 import java.io.PrintWriter;
-import java.util.Stack;
-
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * Prints differences as indented text. A section header is only printed once a
+ * difference inside of it is found.
+ * <p>
+ * The entered sections are kept in an array indexed by depth, and indentation of
+ * any depth is written from one shared array of spaces, so that rendering does not
+ * allocate beyond formatting values that are not strings. Pass a writer with a large
+ * buffer, see {@link ReportOutput}, as output is written in many small pieces.
+ */
 class PrintingVisitor implements Comparison.Visitor {
 
-    private static String INDENTATION_WHITESPACE = "                                                ";
+    private static final int INDENTATION = 4;
+
+    private static final char[] SPACES = new char[128];
+
+    static {
+        Arrays.fill(SPACES, ' ');
+    }
 
     private boolean hasPrintedSomething;
 
-    private Stack<String> sections = new Stack<>();
+    private String[] sections = new String[16];
 
-    private Stack<String> printedSections = new Stack<>();
+    // the number of entered sections
+    private int depth;
 
-    private PrintWriter out;
+    // the number of entered sections whose header was printed
+    private int printed;
+
+    private final PrintWriter out;
 
     public PrintingVisitor(final PrintWriter out) {
         this.out = out;
@@ -21,18 +41,21 @@ class PrintingVisitor implements Comparison.Visitor {
 
     @Override
     public void enter(final String sectionName) {
-        sections.push(sectionName);
+        if (depth == sections.length) {
+            sections = Arrays.copyOf(sections, depth * 2);
+        }
+        sections[depth++] = sectionName;
     }
 
     @Override
     public void leave(final String sectionName) {
-        if (sections.size() == printedSections.size()) {
-            printedSections.pop();
-            if (printedSections.empty() && hasPrintedSomething) {
+        if (depth == printed) {
+            printed--;
+            if (printed == 0 && hasPrintedSomething) {
                 out.println();
             }
         }
-        sections.pop();
+        sections[--depth] = null;
     }
 
     @Override
@@ -55,47 +78,57 @@ class PrintingVisitor implements Comparison.Visitor {
     }
 
     private void printSectionHeaderIfNeeded() {
-        for (int i = printedSections.size(); i < sections.size(); i++) {
-            String section = sections.get(i);
-            out.append(indent(i)).println(section);
-            printedSections.push(section);
+        for (; printed < depth; printed++) {
+            indent(printed);
+            out.println(sections[printed]);
             hasPrintedSomething = true;
         }
     }
 
     private void printValue(final char plusMinus, final String name, final Object value) {
-        out.append(indent(sections.size())).append(plusMinus).append(' ').append(name).append(" = ");
+        indent(depth);
+        out.write(plusMinus);
+        out.write(' ');
+        out.write(name);
+        out.write(" = ");
         if (value.getClass().isArray()) {
-            printArray((Object[]) value);
+            printArray(value);
         } else {
             out.print(value);
         }
         // append type information
-        out.append(" (").append(value.getClass().getSimpleName()).append(")");
+        out.write(" (");
+        out.write(value.getClass().getSimpleName());
+        out.write(')');
         out.println();
     }
 
-    private void printArray(final Object[] values) {
-        out.append('[');
-        for (int i = 0; i < values.length; i++) {
-            if (values.length > 1) {
+    // values of typed properties may be arrays of primitives
+    private void printArray(final Object values) {
+        int length = Array.getLength(values);
+        out.write('[');
+        for (int i = 0; i < length; i++) {
+            if (length > 1) {
                 out.println();
-                out.append(indent(sections.size() + 2));
+                indent(depth + 2);
             }
-            out.print(values[i]);
-            if (i < values.length - 1) {
-                out.append(',');
+            out.print(Array.get(values, i));
+            if (i < length - 1) {
+                out.write(',');
             }
         }
-        if (values.length > 1) {
+        if (length > 1) {
             out.println();
-            out.append(indent(sections.size())).append("  ");
+            indent(depth);
+            out.write("  ");
         }
-        out.print(']');
+        out.write(']');
     }
 
-    private String indent(final int i) {
-        return INDENTATION_WHITESPACE.substring(0, i * 4);
+    private void indent(final int level) {
+        for (int remaining = level * INDENTATION; remaining > 0; remaining -= SPACES.length) {
+            out.write(SPACES, 0, Math.min(remaining, SPACES.length));
+        }
     }
 
     public boolean hasPrintedSomething() {
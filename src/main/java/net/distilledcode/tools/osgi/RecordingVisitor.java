@@ -0,0 +1,95 @@
+package net.distilledcode.tools.osgi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffers the events of a {@link Comparison} so they can be replayed into
+ * another {@link Comparison.Visitor} later, e.g. after comparisons ran
+ * concurrently and need to be emitted in a deterministic order.
+ */
+class RecordingVisitor implements Comparison.Visitor {
+
+    private enum Kind {
+        ENTER, LEAVE, ADDED, CHANGED, REMOVED
+    }
+
+    private static final class Event {
+
+        private final Kind kind;
+
+        private final String name;
+
+        private final Object leftValue;
+
+        private final Object rightValue;
+
+        private Event(final Kind kind, final String name, final Object leftValue, final Object rightValue) {
+            this.kind = kind;
+            this.name = name;
+            this.leftValue = leftValue;
+            this.rightValue = rightValue;
+        }
+    }
+
+    private final List<Event> events = new ArrayList<>();
+
+    @Override
+    public void enter(final String sectionName) {
+        events.add(new Event(Kind.ENTER, sectionName, null, null));
+    }
+
+    @Override
+    public void leave(final String sectionName) {
+        events.add(new Event(Kind.LEAVE, sectionName, null, null));
+    }
+
+    @Override
+    public void added(final String name, final Object value) {
+        events.add(new Event(Kind.ADDED, name, null, value));
+    }
+
+    @Override
+    public void changed(final String name, final Object leftValue, final Object rightValue) {
+        events.add(new Event(Kind.CHANGED, name, leftValue, rightValue));
+    }
+
+    @Override
+    public void removed(final String name, final Object value) {
+        events.add(new Event(Kind.REMOVED, name, value, null));
+    }
+
+    /**
+     * @return {@code true} if any value was added, changed or removed
+     */
+    public boolean hasDifferences() {
+        for (final Event event : events) {
+            if (event.kind != Kind.ENTER && event.kind != Kind.LEAVE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void replay(final Comparison.Visitor visitor) {
+        for (final Event event : events) {
+            switch (event.kind) {
+                case ENTER:
+                    visitor.enter(event.name);
+                    break;
+                case LEAVE:
+                    visitor.leave(event.name);
+                    break;
+                case ADDED:
+                    visitor.added(event.name, event.rightValue);
+                    break;
+                case CHANGED:
+                    visitor.changed(event.name, event.leftValue, event.rightValue);
+                    break;
+                case REMOVED:
+                    visitor.removed(event.name, event.leftValue);
+                    break;
+            }
+        }
+    }
+}
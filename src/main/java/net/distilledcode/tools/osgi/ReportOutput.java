@@ -0,0 +1,40 @@
+package net.distilledcode.tools.osgi;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Opens the writer a report is printed to. Reports are written in many small pieces,
+ * so they go through a buffer large enough to pass a whole screen of output to the
+ * console or file in one write.
+ */
+final class ReportOutput {
+
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    private ReportOutput() {
+    }
+
+    /**
+     * @return a writer to {@code System.out} in its charset, which must be flushed but not closed
+     */
+    static PrintWriter stdout() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, System.out.charset()), BUFFER_SIZE));
+    }
+
+    /**
+     * @return a UTF-8 writer replacing the content of {@code file}, which must be closed
+     */
+    static PrintWriter open(final File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return new PrintWriter(new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE));
+    }
+}
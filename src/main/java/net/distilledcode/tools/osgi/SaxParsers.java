@@ -0,0 +1,53 @@
+package net.distilledcode.tools.osgi;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Provides namespace aware {@link SAXParser}s that are reused per thread.
+ * <p>
+ * Looking up a {@link SAXParserFactory} involves service loading and creating
+ * a parser is comparatively expensive, both are therefore only done once per
+ * thread instead of once per parsed document.
+ */
+class SaxParsers {
+
+    private static final SAXParserFactory FACTORY = createFactory();
+
+    private static final ThreadLocal<SAXParser> PARSERS = ThreadLocal.withInitial(SaxParsers::createParser);
+
+    /**
+     * Returns the parser of the current thread. Callers must {@link #release(SAXParser) release}
+     * the parser after use and must not use it concurrently or reentrantly.
+     */
+    static SAXParser acquire() {
+        return PARSERS.get();
+    }
+
+    /**
+     * Resets the parser so that it can be reused for the next document.
+     */
+    static void release(final SAXParser parser) {
+        parser.reset();
+    }
+
+    private static SAXParserFactory createFactory() {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory;
+    }
+
+    private static SAXParser createParser() {
+        // SAXParserFactory is not guaranteed to be thread-safe
+        synchronized (FACTORY) {
+            try {
+                return FACTORY.newSAXParser();
+            } catch (ParserConfigurationException | SAXException e) {
+                throw new IllegalStateException("Could not create a namespace aware SAX parser", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package net.distilledcode.tools.osgi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Determines which descriptors of a bundle need to be parsed to resolve the
+ * components selected by a {@link ComponentFilter}.
+ * <p>
+ * Component names, configuration PIDs and designate PIDs are read with a StAX
+ * scan that does not build a model. Descriptors that fail to scan are always
+ * selected, so the regular parser can report their errors.
+ */
+class SelectedDescriptors {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SelectedDescriptors.class);
+
+    private static final String DOLLAR = "$";
+
+    private final ComponentFilter filter;
+
+    private final Map<String, String> componentNames;
+
+    private final Set<String> unselected;
+
+    private SelectedDescriptors(final ComponentFilter filter, final Map<String, String> componentNames, final Set<String> unselected) {
+        this.filter = filter;
+        this.componentNames = componentNames;
+        this.unselected = unselected;
+    }
+
+    static SelectedDescriptors find(final BundleIndex index, final ComponentFilter filter) throws IOException {
+        Map<String, String> componentNames = new HashMap<>();
+        Map<BundleEntry, Map<String, String>> componentDescriptors = new LinkedHashMap<>();
+        for (final BundleEntry descriptor : index.getComponentDescriptors()) {
+            Map<String, String> components = findComponents(index, descriptor);
+            componentDescriptors.put(descriptor, components);
+            if (components != null) {
+                components.forEach(componentNames::putIfAbsent);
+            }
+        }
+
+        Set<String> unselected = new HashSet<>();
+        for (final Map.Entry<BundleEntry, Map<String, String>> entry : componentDescriptors.entrySet()) {
+            Map<String, String> components = entry.getValue();
+            if (components != null && components.entrySet().stream().noneMatch(c -> filter.matches(c.getKey(), c.getValue()))) {
+                unselected.add(entry.getKey().getName());
+            }
+        }
+        for (final BundleEntry descriptor : index.getMetaTypeDescriptors()) {
+            List<String> pids = findDesignatePids(index, descriptor);
+            if (pids != null && pids.stream().noneMatch(pid -> filter.matches(pid, componentNames.get(pid)))) {
+                unselected.add(descriptor.getName());
+            }
+        }
+        LOG.debug("Selected {} of {} descriptors in '{}'",
+                index.getComponentDescriptors().size() + index.getMetaTypeDescriptors().size() - unselected.size(),
+                index.getComponentDescriptors().size() + index.getMetaTypeDescriptors().size(), index.getName());
+        return new SelectedDescriptors(filter, componentNames, unselected);
+    }
+
+    /**
+     * @return the paths of the descriptors that do not declare any selected component
+     */
+    Set<String> getUnselected() {
+        return unselected;
+    }
+
+    /**
+     * @param pid a key of {@link MetadataDiff.BundleMetadata}, i.e. a configuration PID or a component name
+     */
+    boolean isSelected(final String pid) {
+        return filter.matches(pid, componentNames.get(pid));
+    }
+
+    /**
+     * @return the component name of each configuration PID declared by {@code descriptor},
+     *         or {@code null} if it cannot be scanned
+     */
+    @CheckForNull
+    static Map<String, String> findComponents(final BundleIndex index, final BundleEntry descriptor) throws IOException {
+        return scan(index, descriptor, SelectedDescriptors::scanComponents);
+    }
+
+    /**
+     * @return the PIDs and factory PIDs designated by {@code descriptor}, or {@code null} if it cannot be scanned
+     */
+    @CheckForNull
+    static List<String> findDesignatePids(final BundleIndex index, final BundleEntry descriptor) throws IOException {
+        return scan(index, descriptor, SelectedDescriptors::scanDesignatePids);
+    }
+
+    @CheckForNull
+    private static <T> T scan(final BundleIndex index, final BundleEntry descriptor, final Scanner<T> scanner) throws IOException {
+        try (InputStream inputStream = index.getInputStream(descriptor)) {
+            XMLStreamReader reader = XmlStreams.open(inputStream);
+            try {
+                return scanner.scan(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            LOG.debug("Could not scan '{}' in '{}', it is always parsed", descriptor.getName(), index.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the component name of each configuration PID, as they are mapped by {@link DeclarativeServices}
+     */
+    private static Map<String, String> scanComponents(final XMLStreamReader reader) throws XMLStreamException {
+        Map<String, String> components = new LinkedHashMap<>();
+        String name = null;
+        String configurationPid = null;
+        boolean inComponent = false;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String element = reader.getLocalName();
+                if ("component".equals(element)) {
+                    inComponent = true;
+                    name = reader.getAttributeValue(null, "name");
+                    configurationPid = reader.getAttributeValue(null, "configuration-pid");
+                } else if (inComponent && name == null && "implementation".equals(element)) {
+                    // the name defaults to the implementation class
+                    name = reader.getAttributeValue(null, "class");
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && inComponent && "component".equals(reader.getLocalName())) {
+                inComponent = false;
+                if (name != null) {
+                    for (final String pid : configurationPids(name, configurationPid)) {
+                        components.put(pid, name);
+                    }
+                }
+            }
+        }
+        return components;
+    }
+
+    private static List<String> configurationPids(final String name, @CheckForNull final String configurationPid) {
+        List<String> pids = new ArrayList<>();
+        if (configurationPid == null) {
+            pids.add(name);
+        } else {
+            for (final String pid : configurationPid.trim().split("\\s+")) {
+                pids.add(DOLLAR.equals(pid) ? name : pid);
+            }
+        }
+        return pids;
+    }
+
+    private static List<String> scanDesignatePids(final XMLStreamReader reader) throws XMLStreamException {
+        List<String> pids = new ArrayList<>();
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && "Designate".equals(reader.getLocalName())) {
+                String pid = reader.getAttributeValue(null, "pid");
+                if (pid == null) {
+                    pid = reader.getAttributeValue(null, "factoryPid");
+                }
+                if (pid != null) {
+                    pids.add(pid);
+                }
+            }
+        }
+        return pids;
+    }
+
+    private interface Scanner<T> {
+        T scan(XMLStreamReader reader) throws XMLStreamException;
+    }
+}
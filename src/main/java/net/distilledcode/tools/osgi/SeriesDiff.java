@@ -0,0 +1,212 @@
+package net.distilledcode.tools.osgi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Diffs a series of versions of one bundle, e.g. all releases between two
+ * upgrades. Each version is read exactly once and the versions are read
+ * concurrently; each pair of adjacent versions is compared as soon as both
+ * are read. The comparison of adjacent versions does not skip unchanged
+ * descriptors, as the descriptors of every version are parsed anyway.
+ * <p>
+ * The report is either grouped by step, with a section per pair of adjacent
+ * versions, or by component, with a section per component holding the steps
+ * in which it changed.
+ */
+public class SeriesDiff {
+
+    /**
+     * Diffs each bundle in {@code bundles} against the next one, using up to
+     * {@link DiffOptions#getParallelism()} threads.
+     *
+     * @param history {@code true} to group the report by component, {@code false} to group it by step
+     * @return {@code true} if any two adjacent versions differ
+     */
+    public static boolean diff(final List<File> bundles, final DiffOptions options, final boolean history,
+                               final PrintWriter out) throws IOException {
+        if (bundles.size() < 2) {
+            throw new IllegalArgumentException("A series requires at least two bundles, got " + bundles.size());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(options.getParallelism());
+        try {
+            List<CompletableFuture<MetadataDiff.BundleMetadata>> versions = new ArrayList<>();
+            for (final File bundle : bundles) {
+                versions.add(CompletableFuture.supplyAsync(() -> read(bundle, options), executor));
+            }
+            List<CompletableFuture<Map<String, RecordingVisitor>>> steps = new ArrayList<>();
+            for (int i = 1; i < versions.size(); i++) {
+                steps.add(versions.get(i - 1).thenCombineAsync(versions.get(i),
+                        (left, right) -> MetadataDiff.compareComponents(left, right, 1, options.getLocales()), executor));
+            }
+            // the steps hold on to the versions they still need
+            versions.clear();
+
+            Comparison.Visitor visitor = options.getFormat() == OutputFormat.TEXT
+                    ? new PrintingVisitor(out)
+                    : new JsonVisitor(out, options.getFormat() == OutputFormat.JSON);
+            int differing = history ? emitHistory(bundles, steps, visitor) : emitSteps(bundles, steps, visitor);
+            if (visitor instanceof JsonVisitor) {
+                ((JsonVisitor) visitor).close();
+            } else {
+                out.append("Compared ").print(bundles.size());
+                out.append(" versions, ").print(differing);
+                out.println(" steps with differences");
+                out.flush();
+            }
+            return differing > 0;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // each step is emitted as soon as it is compared, and then released
+    private static int emitSteps(final List<File> bundles, final List<CompletableFuture<Map<String, RecordingVisitor>>> steps,
+                                 final Comparison.Visitor visitor) throws IOException {
+        int differing = 0;
+        for (int i = 0; i < steps.size(); i++) {
+            Map<String, RecordingVisitor> components = getStep(bundles, i, steps.get(i));
+            steps.set(i, null);
+            String step = getStepName(bundles, i);
+            boolean differences = false;
+            Timings.Timer timer = Timings.start(Timings.Phase.OUTPUT, step, null, null);
+            try {
+                visitor.enter(step);
+                for (final RecordingVisitor recording : components.values()) {
+                    differences |= recording.hasDifferences();
+                    recording.replay(visitor);
+                }
+                visitor.leave(step);
+            } finally {
+                timer.close();
+            }
+            if (differences) {
+                differing++;
+            }
+        }
+        return differing;
+    }
+
+    private static int emitHistory(final List<File> bundles, final List<CompletableFuture<Map<String, RecordingVisitor>>> steps,
+                                   final Comparison.Visitor visitor) throws IOException {
+        // component -> recordings per step, null where the component did not change
+        Map<String, RecordingVisitor[]> history = new TreeMap<>();
+        boolean[] differingSteps = new boolean[steps.size()];
+        for (int i = 0; i < steps.size(); i++) {
+            for (final Map.Entry<String, RecordingVisitor> component : getStep(bundles, i, steps.get(i)).entrySet()) {
+                if (component.getValue().hasDifferences()) {
+                    history.computeIfAbsent(component.getKey(), name -> new RecordingVisitor[steps.size()])[i] = component.getValue();
+                    differingSteps[i] = true;
+                }
+            }
+            steps.set(i, null);
+        }
+
+        Timings.Timer timer = Timings.start(Timings.Phase.OUTPUT, null, null, null);
+        try {
+            ComponentContent content = new ComponentContent(visitor);
+            for (final Map.Entry<String, RecordingVisitor[]> component : history.entrySet()) {
+                visitor.enter(component.getKey());
+                RecordingVisitor[] recordings = component.getValue();
+                for (int i = 0; i < recordings.length; i++) {
+                    if (recordings[i] != null) {
+                        String step = getStepName(bundles, i);
+                        visitor.enter(step);
+                        recordings[i].replay(content);
+                        visitor.leave(step);
+                    }
+                }
+                visitor.leave(component.getKey());
+            }
+        } finally {
+            timer.close();
+        }
+
+        int differing = 0;
+        for (final boolean differences : differingSteps) {
+            if (differences) {
+                differing++;
+            }
+        }
+        return differing;
+    }
+
+    private static MetadataDiff.BundleMetadata read(final File bundle, final DiffOptions options) {
+        try {
+            return MetadataDiff.BundleMetadata.read(bundle, options);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read bundle '" + bundle + "'", e);
+        }
+    }
+
+    private static Map<String, RecordingVisitor> getStep(final List<File> bundles, final int index,
+                                                         final CompletableFuture<Map<String, RecordingVisitor>> step) throws IOException {
+        try {
+            return step.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("Could not diff " + getStepName(bundles, index), cause);
+        }
+    }
+
+    private static String getStepName(final List<File> bundles, final int index) {
+        return bundles.get(index).getName() + " -> " + bundles.get(index + 1).getName();
+    }
+
+    /**
+     * Passes on the events of one component without its enclosing section,
+     * which is emitted once for all steps in history mode.
+     */
+    private static class ComponentContent implements Comparison.Visitor {
+
+        private final Comparison.Visitor visitor;
+
+        private int depth;
+
+        ComponentContent(final Comparison.Visitor visitor) {
+            this.visitor = visitor;
+        }
+
+        @Override
+        public void enter(final String sectionName) {
+            if (depth++ > 0) {
+                visitor.enter(sectionName);
+            }
+        }
+
+        @Override
+        public void leave(final String sectionName) {
+            if (--depth > 0) {
+                visitor.leave(sectionName);
+            }
+        }
+
+        @Override
+        public void added(final String name, final Object value) {
+            visitor.added(name, value);
+        }
+
+        @Override
+        public void changed(final String name, final Object leftValue, final Object rightValue) {
+            visitor.changed(name, leftValue, rightValue);
+        }
+
+        @Override
+        public void removed(final String name, final Object value) {
+            visitor.removed(name, value);
+        }
+    }
+}
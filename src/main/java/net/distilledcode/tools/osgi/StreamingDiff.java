@@ -0,0 +1,250 @@
+package net.distilledcode.tools.osgi;
+
+import net.distilledcode.tools.osgi.MetadataDiff.BundleMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Diffs two bundles one component at a time, so that only the metadata of the
+ * components currently compared is held in memory instead of both bundles.
+ * <p>
+ * Each bundle is first scanned for the PIDs its descriptors declare, without
+ * building a model, see {@link SelectedDescriptors}. The sorted PIDs of both
+ * bundles are then merge-joined: for each PID the descriptors declaring it are
+ * parsed, the component is compared and its events are passed on. A descriptor
+ * is released once all PIDs it declares have been compared. The output is the
+ * same as that of a regular diff, but components are compared by a single thread.
+ */
+public class StreamingDiff {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingDiff.class);
+
+    private StreamingDiff() {
+    }
+
+    /**
+     * @param unchanged the paths of descriptors that are identical in both bundles, which are not compared
+     * @return {@code true} if any value was added, changed or removed
+     */
+    static boolean diff(BundleIndex left, BundleIndex right, Set<String> unchanged, DiffOptions options, Comparison.Visitor visitor) throws IOException {
+        SortedComponents leftComponents = SortedComponents.scan(left, unchanged, options);
+        SortedComponents rightComponents = SortedComponents.scan(right, unchanged, options);
+
+        boolean differences = false;
+        Iterator<String> leftPids = leftComponents.getPids().iterator();
+        Iterator<String> rightPids = rightComponents.getPids().iterator();
+        String leftPid = next(leftPids);
+        String rightPid = next(rightPids);
+        while (leftPid != null || rightPid != null) {
+            int order = leftPid == null ? 1 : rightPid == null ? -1 : leftPid.compareTo(rightPid);
+            String pid = order <= 0 ? leftPid : rightPid;
+            if (order <= 0) {
+                leftPid = next(leftPids);
+            }
+            if (order >= 0) {
+                rightPid = next(rightPids);
+            }
+
+            BundleMetadata leftMetadata = leftComponents.load(pid);
+            BundleMetadata rightMetadata = rightComponents.load(pid);
+            if (leftMetadata.getAllClasses().isEmpty() && rightMetadata.getAllClasses().isEmpty()) {
+                // scanned, but its descriptors did not parse
+                continue;
+            }
+            RecordingVisitor recording = MetadataDiff.compare(pid, leftMetadata, rightMetadata, options.getLocales());
+            differences |= recording.hasDifferences();
+            recording.replay(visitor);
+        }
+        return differences;
+    }
+
+    @CheckForNull
+    private static String next(final Iterator<String> pids) {
+        return pids.hasNext() ? pids.next() : null;
+    }
+
+    /**
+     * The selected PIDs of one bundle in name order, and the descriptors declaring them.
+     */
+    private static class SortedComponents {
+
+        private static final int COMPONENT = 0;
+
+        private static final int META_TYPE = 1;
+
+        private final BundleIndex index;
+
+        // PID -> component descriptor and MetaType descriptor declaring it
+        private final TreeMap<String, BundleEntry[]> descriptors = new TreeMap<>();
+
+        // descriptor path -> number of PIDs declared by it that were not loaded yet
+        private final Map<String, Integer> references = new HashMap<>();
+
+        // descriptor path -> parsed components by PID, until the last of them was loaded
+        private final Map<String, Map<String, ComponentDescription>> components = new HashMap<>();
+
+        // descriptor path -> parsed MetaType by PID, until the last of them was loaded
+        private final Map<String, Map<String, MetaTypeDescription>> metaTypes = new HashMap<>();
+
+        // only holds the PID being loaded, its localization is resolved from resources shared by all PIDs
+        private final Map<String, String> prefixes = new HashMap<>();
+
+        private final Map<String, byte[]> resources = new HashMap<>();
+
+        private final Set<String> readPrefixes = new HashSet<>();
+
+        @CheckForNull
+        private final LocalizationStore localizations;
+
+        private SortedComponents(final BundleIndex index, final boolean resolveFromLocalizationProperties) {
+            this.index = index;
+            this.localizations = resolveFromLocalizationProperties ? new LocalizationStore(prefixes, resources) : null;
+        }
+
+        // unchanged component descriptors are still scanned for the names by which MetaType PIDs are selected
+        static SortedComponents scan(final BundleIndex index, final Set<String> unchanged, final DiffOptions options) throws IOException {
+            SortedComponents sorted = new SortedComponents(index, options.isResolveFromLocalizationProperties());
+            ComponentFilter filter = options.getFilter();
+            Map<String, String> componentNames = new HashMap<>();
+
+            if (!index.hasServiceComponentHeader()) {
+                LOG.warn("The bundle '{}' does not contain a 'Service-Component' header in its manifest. Therefore no comparison can be performed.", index.getName());
+            } else {
+                for (final BundleEntry descriptor : index.getComponentDescriptors()) {
+                    if (unchanged.contains(descriptor.getName())) {
+                        Map<String, String> declared = filter.isEmpty() ? null : SelectedDescriptors.findComponents(index, descriptor);
+                        if (declared != null) {
+                            declared.forEach(componentNames::putIfAbsent);
+                        }
+                        continue;
+                    }
+                    Map<String, String> declared = SelectedDescriptors.findComponents(index, descriptor);
+                    if (declared == null) {
+                        // parsed right away to find its PIDs, the regular parser reports the error if any
+                        Map<String, ComponentDescription> parsed = sorted.parseComponents(descriptor);
+                        sorted.components.put(descriptor.getName(), parsed);
+                        declared = new HashMap<>();
+                        for (final Map.Entry<String, ComponentDescription> component : parsed.entrySet()) {
+                            declared.put(component.getKey(), component.getValue().getName());
+                        }
+                    }
+                    for (final Map.Entry<String, String> component : declared.entrySet()) {
+                        componentNames.putIfAbsent(component.getKey(), component.getValue());
+                        if (filter.matches(component.getKey(), component.getValue())) {
+                            sorted.add(component.getKey(), descriptor, COMPONENT);
+                        }
+                    }
+                    sorted.releaseUnreferenced(sorted.components, descriptor);
+                }
+            }
+            for (final BundleEntry descriptor : index.getMetaTypeDescriptors()) {
+                if (unchanged.contains(descriptor.getName())) {
+                    continue;
+                }
+                List<String> pids = SelectedDescriptors.findDesignatePids(index, descriptor);
+                if (pids == null) {
+                    Map<String, MetaTypeDescription> parsed = sorted.parseMetaType(descriptor);
+                    sorted.metaTypes.put(descriptor.getName(), parsed);
+                    pids = new ArrayList<>(parsed.keySet());
+                }
+                for (final String pid : pids) {
+                    if (filter.matches(pid, componentNames.get(pid))) {
+                        sorted.add(pid, descriptor, META_TYPE);
+                    }
+                }
+                sorted.releaseUnreferenced(sorted.metaTypes, descriptor);
+            }
+            return sorted;
+        }
+
+        Set<String> getPids() {
+            return descriptors.keySet();
+        }
+
+        /**
+         * @return the metadata of {@code pid} only, empty if this bundle does not declare it
+         */
+        BundleMetadata load(final String pid) {
+            BundleEntry[] declaring = descriptors.get(pid);
+            ComponentDescription component = null;
+            MetaTypeDescription metaType = null;
+            if (declaring != null) {
+                if (declaring[COMPONENT] != null) {
+                    component = take(components, declaring[COMPONENT], this::parseComponents).get(pid);
+                }
+                if (declaring[META_TYPE] != null) {
+                    metaType = take(metaTypes, declaring[META_TYPE], this::parseMetaType).get(pid);
+                }
+            }
+
+            prefixes.clear();
+            if (metaType != null && localizations != null) {
+                String prefix = metaType.getLocalePrefix();
+                if (prefix != null && readPrefixes.add(prefix)) {
+                    LocalizationStore.readResources(index, prefix, resources);
+                }
+                prefixes.put(pid, prefix);
+            }
+            return new BundleMetadata(
+                    component == null ? Collections.emptyMap() : Collections.singletonMap(pid, component),
+                    metaType == null ? Collections.emptyMap() : Collections.singletonMap(pid, metaType),
+                    localizations);
+        }
+
+        // like Collectors.toMap, a PID may only be declared once per kind of descriptor
+        private void add(final String pid, final BundleEntry descriptor, final int kind) {
+            BundleEntry[] declaring = descriptors.computeIfAbsent(pid, p -> new BundleEntry[2]);
+            if (declaring[kind] != null) {
+                throw new IllegalStateException("Duplicate key " + pid + " in '" + declaring[kind].getName()
+                        + "' and '" + descriptor.getName() + "' of '" + index.getName() + "'");
+            }
+            declaring[kind] = descriptor;
+            references.merge(descriptor.getName(), 1, Integer::sum);
+        }
+
+        private void releaseUnreferenced(final Map<String, ? extends Map<String, ?>> parsed, final BundleEntry descriptor) {
+            if (!references.containsKey(descriptor.getName())) {
+                parsed.remove(descriptor.getName());
+            }
+        }
+
+        private <T> Map<String, T> take(final Map<String, Map<String, T>> parsed, final BundleEntry descriptor, final Parser<T> parser) {
+            Map<String, T> declared = parsed.get(descriptor.getName());
+            if (declared == null) {
+                declared = parser.parse(descriptor);
+                parsed.put(descriptor.getName(), declared);
+            }
+            if (references.merge(descriptor.getName(), -1, Integer::sum) == 0) {
+                references.remove(descriptor.getName());
+                parsed.remove(descriptor.getName());
+            }
+            return declared;
+        }
+
+        private Map<String, ComponentDescription> parseComponents(final BundleEntry descriptor) {
+            List<ComponentDescription> parsed = DeclarativeServices.readComponentDescriptions(index, descriptor);
+            return parsed == null ? Collections.emptyMap() : DeclarativeServices.toComponentDescriptionMap(parsed);
+        }
+
+        private Map<String, MetaTypeDescription> parseMetaType(final BundleEntry descriptor) {
+            MetaTypeDescription parsed = MetaType.readMetaTypeDescription(index, descriptor);
+            return parsed == null ? Collections.emptyMap() : MetaType.toMetaTypeDescriptionMap(Collections.singletonList(parsed));
+        }
+    }
+
+    private interface Parser<T> {
+        Map<String, T> parse(BundleEntry descriptor);
+    }
+}
@@ -0,0 +1,182 @@
+package net.distilledcode.tools.osgi;
+
+import javax.annotation.CheckForNull;
+import java.io.PrintWriter;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent pool of canonical strings, applied to the strings of parsed
+ * metadata. Interface names, policies, cardinalities, localization keys and
+ * type names repeat across descriptors and bundles, so in batch runs and in
+ * long-lived caches most of them can share one instance.
+ * <p>
+ * The pool only references its strings weakly, strings that are no longer part
+ * of any metadata are collected and their entries purged on the next lookup.
+ */
+class StringPool {
+
+    /**
+     * The pool used while parsing descriptors and reading cached metadata.
+     */
+    static final StringPool SHARED = new StringPool();
+
+    // object header and length/hash fields of a String plus the array header, on a 64-bit VM with compressed oops
+    private static final int STRING_OVERHEAD = 24 + 16;
+
+    private final ConcurrentMap<Object, Entry> entries = new ConcurrentHashMap<>();
+
+    private final ReferenceQueue<String> collected = new ReferenceQueue<>();
+
+    private final LongAdder lookups = new LongAdder();
+
+    private final LongAdder duplicates = new LongAdder();
+
+    private final LongAdder savedBytes = new LongAdder();
+
+    /**
+     * @return the pooled instance equal to {@code value}, which is {@code value} itself if none was pooled yet
+     */
+    @CheckForNull
+    String intern(@CheckForNull final String value) {
+        if (value == null) {
+            return null;
+        }
+        lookups.increment();
+        purge();
+        Entry entry = entries.get(new Lookup(value));
+        String canonical = entry == null ? null : entry.get();
+        if (canonical != null) {
+            return duplicate(value, canonical);
+        }
+        Entry added = new Entry(value, collected);
+        while (true) {
+            entry = entries.putIfAbsent(added, added);
+            if (entry == null) {
+                return value;
+            }
+            canonical = entry.get();
+            if (canonical != null) {
+                return duplicate(value, canonical);
+            }
+            // collected in the meantime
+            entries.remove(entry, entry);
+        }
+    }
+
+    /**
+     * Interns the elements of {@code values} in place.
+     *
+     * @return {@code values}
+     */
+    @CheckForNull
+    String[] intern(@CheckForNull final String[] values) {
+        if (values != null) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = intern(values[i]);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the number of strings in the pool, including collected ones that were not purged yet
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of strings that were replaced by a pooled instance
+     */
+    long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * @return an estimate of the heap freed by replacing duplicates, assuming compact strings
+     */
+    long getSavedBytes() {
+        return savedBytes.sum();
+    }
+
+    void printStatistics(final PrintWriter out) {
+        out.printf("String pool: %d lookups, %d duplicates replaced, about %d KB saved%n",
+                lookups.sum(), getDuplicates(), getSavedBytes() / 1024);
+    }
+
+    private String duplicate(final String value, final String canonical) {
+        if (value != canonical) {
+            duplicates.increment();
+            // arrays are 8-byte aligned
+            savedBytes.add(STRING_OVERHEAD + ((value.length() + 7) & ~7));
+        }
+        return canonical;
+    }
+
+    private void purge() {
+        Object reference;
+        while ((reference = collected.poll()) != null) {
+            entries.remove(reference, reference);
+        }
+    }
+
+    /**
+     * A pooled string, equal to other entries and lookups with the same content
+     * as long as it was not collected.
+     */
+    private static class Entry extends WeakReference<String> {
+
+        private final int hash;
+
+        Entry(final String value, final ReferenceQueue<String> queue) {
+            super(value, queue);
+            this.hash = value.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            String value = get();
+            if (value == null) {
+                return false;
+            }
+            if (other instanceof Entry) {
+                return value.equals(((Entry) other).get());
+            }
+            return other instanceof Lookup && value.equals(((Lookup) other).value);
+        }
+    }
+
+    /**
+     * A strongly referenced key, only used to look entries up.
+     */
+    private static class Lookup {
+
+        private final String value;
+
+        Lookup(final String value) {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Entry && value.equals(((Entry) other).get());
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package net.distilledcode.tools.osgi;
+
+import jdk.jfr.EventType;
+
+import javax.annotation.CheckForNull;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times the phases of a diff. Every phase is reported as a {@link PhaseEvent}
+ * to JDK Flight Recorder, if a recording is running, and to the active
+ * {@code Timings}, if any, which aggregates per-phase totals and keeps the
+ * slowest descriptors for {@link #print(PrintWriter)}.
+ * <p>
+ * Phases are measured per thread, so totals of concurrently running phases can
+ * add up to more than the elapsed time.
+ */
+public class Timings {
+
+    public enum Phase {
+        /** Reading the manifest and the entries of a bundle. */
+        INDEX,
+        /** Loading the metadata of a bundle from the cache. */
+        CACHE,
+        /** Parsing a Service-Component descriptor. */
+        DS_PARSE,
+        /** Parsing a MetaType descriptor. */
+        METATYPE_PARSE,
+        /** Loading the localization properties of a MetaType PID. */
+        LOCALIZATION,
+        /** Comparing the metadata of a component. */
+        COMPARISON,
+        /** Rendering the differences. */
+        OUTPUT;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    private static final int SLOWEST = 10;
+
+    private static final Timer NOT_TIMED = new Timer(null, null, null, null, null, null);
+
+    private static final EventType PHASE_EVENT = EventType.getEventType(PhaseEvent.class);
+
+    @CheckForNull
+    private static volatile Timings active;
+
+    private final LongAdder[] nanos = new LongAdder[Phase.values().length];
+
+    private final LongAdder[] counts = new LongAdder[Phase.values().length];
+
+    // min-heap, the fastest of the slowest samples is replaced first
+    private final PriorityQueue<Sample> slowest = new PriorityQueue<>(Comparator.comparingLong(sample -> sample.nanos));
+
+    public Timings() {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = new LongAdder();
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Makes {@code timings} receive the durations of all phases, {@code null} stops aggregating.
+     */
+    public static void activate(@CheckForNull final Timings timings) {
+        active = timings;
+    }
+
+    /**
+     * Starts timing a phase, the returned timer must be closed when the phase ends.
+     */
+    static Timer start(final Phase phase, @CheckForNull final String bundle, @CheckForNull final String descriptor, @CheckForNull final String component) {
+        Timings timings = active;
+        boolean recording = PHASE_EVENT.isEnabled();
+        if (timings == null && !recording) {
+            return NOT_TIMED;
+        }
+        PhaseEvent event = null;
+        if (recording) {
+            event = new PhaseEvent();
+            event.begin();
+        }
+        return new Timer(phase, bundle, descriptor, component, event, timings);
+    }
+
+    private void record(final Phase phase, final long duration, @CheckForNull final String bundle, @CheckForNull final String descriptor) {
+        nanos[phase.ordinal()].add(duration);
+        counts[phase.ordinal()].increment();
+        if (descriptor != null) {
+            synchronized (slowest) {
+                if (slowest.size() < SLOWEST) {
+                    slowest.add(new Sample(phase, duration, bundle, descriptor));
+                } else if (slowest.peek().nanos < duration) {
+                    slowest.poll();
+                    slowest.add(new Sample(phase, duration, bundle, descriptor));
+                }
+            }
+        }
+    }
+
+    public long getTotalNanos(final Phase phase) {
+        return nanos[phase.ordinal()].sum();
+    }
+
+    public long getCount(final Phase phase) {
+        return counts[phase.ordinal()].sum();
+    }
+
+    /**
+     * Prints the per-phase totals and the slowest descriptors.
+     */
+    public void print(final PrintWriter out) {
+        out.println("Timings (summed over all threads):");
+        for (final Phase phase : Phase.values()) {
+            out.println(String.format(Locale.ROOT, "    %-16s %8d x %12.1f ms", phase.label(), getCount(phase), getTotalNanos(phase) / 1e6));
+        }
+        List<Sample> samples;
+        synchronized (slowest) {
+            samples = new ArrayList<>(slowest);
+        }
+        if (!samples.isEmpty()) {
+            samples.sort(Comparator.comparingLong((Sample sample) -> sample.nanos).reversed());
+            out.println("Slowest descriptors:");
+            for (final Sample sample : samples) {
+                out.println(String.format(Locale.ROOT, "    %12.1f ms  %-16s %s!/%s", sample.nanos / 1e6, sample.phase.label(), sample.bundle, sample.descriptor));
+            }
+        }
+        out.flush();
+    }
+
+    static final class Timer implements AutoCloseable {
+
+        private final Phase phase;
+
+        private final String bundle;
+
+        private final String descriptor;
+
+        private final String component;
+
+        @CheckForNull
+        private final PhaseEvent event;
+
+        @CheckForNull
+        private final Timings timings;
+
+        private final long start = System.nanoTime();
+
+        private Timer(final Phase phase, final String bundle, final String descriptor, final String component,
+                      @CheckForNull final PhaseEvent event, @CheckForNull final Timings timings) {
+            this.phase = phase;
+            this.bundle = bundle;
+            this.descriptor = descriptor;
+            this.component = component;
+            this.event = event;
+            this.timings = timings;
+        }
+
+        @Override
+        public void close() {
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.phase = phase.label();
+                    event.bundle = bundle;
+                    event.descriptor = descriptor;
+                    event.component = component;
+                    event.commit();
+                }
+            }
+            if (timings != null) {
+                timings.record(phase, System.nanoTime() - start, bundle, descriptor);
+            }
+        }
+    }
+
+    private static final class Sample {
+
+        private final Phase phase;
+
+        private final long nanos;
+
+        private final String bundle;
+
+        private final String descriptor;
+
+        private Sample(final Phase phase, final long nanos, final String bundle, final String descriptor) {
+            this.phase = phase;
+            this.nanos = nanos;
+            this.bundle = bundle;
+            this.descriptor = descriptor;
+        }
+    }
+}
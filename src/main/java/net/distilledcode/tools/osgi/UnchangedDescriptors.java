@@ -0,0 +1,142 @@
+package net.distilledcode.tools.osgi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the descriptors that are identical in two bundles, so they can be
+ * excluded from parsing and comparison.
+ * <p>
+ * Descriptors are paired by path and considered identical if their sizes and
+ * CRC-32 checksums, as recorded in the zip directory, are equal. Optionally the
+ * content of each pair is compared as well. A component descriptor is only
+ * considered identical if the entries its {@code properties} and
+ * {@code factory-properties} elements read are identical, too, and a MetaType
+ * descriptor only if its localization properties files, including all locale
+ * variants, are.
+ */
+class UnchangedDescriptors {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UnchangedDescriptors.class);
+
+    /**
+     * @return the paths of all component and MetaType descriptors that are identical in both bundles
+     */
+    static Set<String> find(final BundleIndex left, final BundleIndex right, final DiffOptions options) throws IOException {
+        Set<String> unchanged = new HashSet<>();
+        for (final BundleEntry[] pair : pairByPath(left.getComponentDescriptors(), right.getComponentDescriptors())) {
+            if (isUnchanged(left, pair[0], right, pair[1], options) && arePropertiesUnchanged(left, pair[0], right, options)) {
+                unchanged.add(pair[0].getName());
+            }
+        }
+        for (final BundleEntry[] pair : pairByPath(left.getMetaTypeDescriptors(), right.getMetaTypeDescriptors())) {
+            if (isUnchanged(left, pair[0], right, pair[1], options)
+                    && (!options.isResolveFromLocalizationProperties() || isLocalizationUnchanged(left, pair[0], right, options))) {
+                unchanged.add(pair[0].getName());
+            }
+        }
+        LOG.debug("Skipping {} unchanged descriptors of '{}' and '{}'", unchanged.size(), left.getName(), right.getName());
+        return unchanged;
+    }
+
+    private static List<BundleEntry[]> pairByPath(final List<BundleEntry> left, final List<BundleEntry> right) {
+        Map<String, BundleEntry> rightByPath = new HashMap<>();
+        for (final BundleEntry entry : right) {
+            rightByPath.put(entry.getName(), entry);
+        }
+        return left.stream()
+                .filter(entry -> rightByPath.containsKey(entry.getName()))
+                .map(entry -> new BundleEntry[] {entry, rightByPath.get(entry.getName())})
+                .toList();
+    }
+
+    private static boolean isUnchanged(final BundleIndex left, @CheckForNull final BundleEntry leftEntry,
+                                       final BundleIndex right, @CheckForNull final BundleEntry rightEntry,
+                                       final DiffOptions options) throws IOException {
+        if (leftEntry == null || rightEntry == null) {
+            return leftEntry == rightEntry;
+        }
+        if (leftEntry.getCrc() == BundleEntry.UNKNOWN || leftEntry.getSize() == BundleEntry.UNKNOWN
+                || leftEntry.getCrc() != rightEntry.getCrc() || leftEntry.getSize() != rightEntry.getSize()) {
+            return false;
+        }
+        if (options.isVerifyUnchangedDescriptors()) {
+            try (InputStream leftContent = left.getInputStream(leftEntry); InputStream rightContent = right.getInputStream(rightEntry)) {
+                return Arrays.equals(leftContent.readAllBytes(), rightContent.readAllBytes());
+            }
+        }
+        return true;
+    }
+
+    // the descriptors are identical, so the properties elements only need to be read from one side
+    private static boolean arePropertiesUnchanged(final BundleIndex left, final BundleEntry descriptor,
+                                                  final BundleIndex right, final DiffOptions options) throws IOException {
+        Set<String> paths;
+        try (InputStream inputStream = left.getInputStream(descriptor)) {
+            paths = ComponentDescriptionParser.readPropertiesEntries(inputStream);
+        } catch (XMLStreamException e) {
+            // leave it to the component parser to report the error
+            return false;
+        }
+        for (final String path : paths) {
+            if (!isUnchanged(left, left.getSource().getEntry(path), right, right.getSource().getEntry(path), options)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the descriptors are identical, so the localization attribute only needs to be read from one side
+    private static boolean isLocalizationUnchanged(final BundleIndex left, final BundleEntry descriptor,
+                                                   final BundleIndex right, final DiffOptions options) throws IOException {
+        String localization;
+        try {
+            localization = readLocalization(left, descriptor);
+        } catch (XMLStreamException e) {
+            // leave it to the MetaType parser to report the error
+            return false;
+        }
+        if (localization == null) {
+            return true;
+        }
+        Map<String, BundleEntry> leftFiles = left.getLocalizationFiles(localization);
+        Map<String, BundleEntry> rightFiles = right.getLocalizationFiles(localization);
+        if (!leftFiles.keySet().equals(rightFiles.keySet())) {
+            return false;
+        }
+        for (final Map.Entry<String, BundleEntry> file : leftFiles.entrySet()) {
+            if (!isUnchanged(left, file.getValue(), right, rightFiles.get(file.getKey()), options)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the {@code localization} attribute of the root element without parsing the rest of the document.
+     */
+    @CheckForNull
+    private static String readLocalization(final BundleIndex index, final BundleEntry descriptor) throws IOException, XMLStreamException {
+        try (InputStream inputStream = index.getInputStream(descriptor)) {
+            XMLStreamReader reader = XmlStreams.open(inputStream);
+            try {
+                reader.nextTag();
+                return reader.getAttributeValue(null, "localization");
+            } finally {
+                reader.close();
+            }
+        }
+    }
+}
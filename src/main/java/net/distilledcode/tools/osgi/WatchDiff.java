@@ -0,0 +1,494 @@
+package net.distilledcode.tools.osgi;
+
+import net.distilledcode.tools.osgi.MetadataDiff.BundleMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Diffs two bundles whenever one of them changes on disk. The parsed descriptors
+ * of both bundles are kept between changes, so only descriptors whose content,
+ * or the content of a properties entry they read, changed are parsed again and
+ * only the components they declare, or whose localization changed, are compared
+ * again.
+ */
+public class WatchDiff {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WatchDiff.class);
+
+    // a build usually writes several files, they are diffed once no event arrived for this long
+    private static final long QUIET_MILLIS = 25;
+
+    private final WatchedBundle left;
+
+    private final WatchedBundle right;
+
+    private final DiffOptions options;
+
+    // component -> events of its last comparison, in component name order
+    private final Map<String, RecordingVisitor> recordings = new TreeMap<>();
+
+    // components changed by a refresh whose comparison failed
+    private final Set<String> pending = new HashSet<>();
+
+    public WatchDiff(final File left, final File right, final DiffOptions options) {
+        this.left = new WatchedBundle(left);
+        this.right = new WatchedBundle(right);
+        this.options = options;
+    }
+
+    /**
+     * Prints the diff of both bundles and again every time one of them changes,
+     * until the thread is interrupted or {@code out} fails.
+     */
+    public void watch(final PrintWriter out, final PrintWriter err) throws IOException, InterruptedException {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            // registered before the first diff, so changes made while it runs are not missed
+            Map<Path, WatchKey> keys = new HashMap<>();
+            register(watchService, keys);
+            update(Arrays.asList(left, right), out, err);
+            register(watchService, keys);
+            while (!out.checkError()) {
+                Set<WatchedBundle> changed = new LinkedHashSet<>();
+                WatchKey key = watchService.take();
+                while (key != null) {
+                    collectChanged(key, changed);
+                    if (!key.reset()) {
+                        keys.values().remove(key);
+                    }
+                    key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (!changed.isEmpty()) {
+                    update(changed, out, err);
+                    register(watchService, keys);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the given bundles again and compares the components that changed.
+     *
+     * @return the number of components compared, or {@code -1} if a bundle could not be read
+     */
+    int refresh(final Collection<WatchedBundle> bundles) {
+        try {
+            for (final WatchedBundle bundle : bundles) {
+                pending.addAll(bundle.refresh(options));
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not read the changed bundle, waiting for the next change", e);
+            return -1;
+        }
+
+        BundleMetadata leftMetadata = left.getMetadata();
+        BundleMetadata rightMetadata = right.getMetadata();
+        Set<String> allClasses = new HashSet<>(leftMetadata.getAllClasses());
+        allClasses.addAll(rightMetadata.getAllClasses());
+        for (final String className : pending) {
+            if (allClasses.contains(className)) {
+                recordings.put(className, MetadataDiff.compare(className, leftMetadata, rightMetadata, options.getLocales()));
+            } else {
+                recordings.remove(className);
+            }
+        }
+        int compared = pending.size();
+        pending.clear();
+        return compared;
+    }
+
+    /**
+     * Prints the differences of the last comparison of each component.
+     *
+     * @return {@code true} if there are differences
+     */
+    boolean print(final PrintWriter out) {
+        boolean differences = false;
+        if (options.getFormat() != OutputFormat.TEXT) {
+            JsonVisitor visitor = new JsonVisitor(out, options.getFormat() == OutputFormat.JSON);
+            for (final RecordingVisitor recording : recordings.values()) {
+                differences |= recording.hasDifferences();
+                recording.replay(visitor);
+            }
+            visitor.close();
+        } else {
+            PrintingVisitor visitor = new PrintingVisitor(out);
+            for (final RecordingVisitor recording : recordings.values()) {
+                differences |= recording.hasDifferences();
+                recording.replay(visitor);
+            }
+            if (!differences) {
+                out.append("No differences found between ").append(left.getFile().getPath())
+                        .append(" and ").append(right.getFile().getPath()).println();
+            }
+        }
+        out.flush();
+        return differences;
+    }
+
+    WatchedBundle getLeft() {
+        return left;
+    }
+
+    WatchedBundle getRight() {
+        return right;
+    }
+
+    private void update(final Collection<WatchedBundle> bundles, final PrintWriter out, final PrintWriter err) {
+        long start = System.nanoTime();
+        int compared = refresh(bundles);
+        if (compared < 0) {
+            err.println("Could not read the changed bundle, waiting for the next change");
+            err.flush();
+            return;
+        }
+        print(out);
+        err.printf("Compared %d changed components in %d ms%n", compared, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        err.flush();
+    }
+
+    private void register(final WatchService watchService, final Map<Path, WatchKey> keys) throws IOException {
+        for (final WatchedBundle bundle : Arrays.asList(left, right)) {
+            for (final Path directory : bundle.getWatchedDirectories()) {
+                if (!keys.containsKey(directory) && directory.toFile().isDirectory()) {
+                    keys.put(directory, directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY));
+                }
+            }
+        }
+    }
+
+    private void collectChanged(final WatchKey key, final Set<WatchedBundle> changed) {
+        Path directory = (Path) key.watchable();
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            Path file = event.kind() == StandardWatchEventKinds.OVERFLOW ? null : (Path) event.context();
+            for (final WatchedBundle bundle : Arrays.asList(left, right)) {
+                if (bundle.isChangedBy(directory, file)) {
+                    changed.add(bundle);
+                }
+            }
+        }
+    }
+
+    /**
+     * The parsed descriptors of one watched bundle.
+     */
+    static class WatchedBundle {
+
+        private final File file;
+
+        private final Path path;
+
+        private Map<String, Descriptor<List<ComponentDescription>>> componentDescriptors = Collections.emptyMap();
+
+        private Map<String, Descriptor<MetaTypeDescription>> metaTypeDescriptors = Collections.emptyMap();
+
+        @CheckForNull
+        private LocalizationStore localizations;
+
+        private BundleMetadata metadata = new BundleMetadata(Collections.emptyMap(), Collections.emptyMap(), null);
+
+        private Set<Path> watchedDirectories;
+
+        WatchedBundle(final File file) {
+            this.file = file;
+            this.path = file.toPath().toAbsolutePath().normalize();
+            this.watchedDirectories = Collections.singleton(file.isDirectory() ? path : path.getParent());
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        BundleMetadata getMetadata() {
+            return metadata;
+        }
+
+        Set<Path> getWatchedDirectories() {
+            return watchedDirectories;
+        }
+
+        // a jar is replaced or rewritten in its directory, an exploded bundle changes anywhere below its root
+        boolean isChangedBy(final Path directory, @CheckForNull final Path file) {
+            if (!this.file.isDirectory()) {
+                return directory.equals(path.getParent()) && (file == null || file.equals(path.getFileName()));
+            }
+            return directory.startsWith(path);
+        }
+
+        /**
+         * Reads the bundle again, parsing only descriptors whose content changed.
+         * The state of this bundle is only updated if it could be read.
+         *
+         * @return the components declared by changed descriptors before or after the change
+         */
+        Set<String> refresh(final DiffOptions options) throws IOException {
+            Set<String> changed = new HashSet<>();
+            try (BundleSource source = BundleSource.open(file, options)) {
+                BundleIndex index = BundleIndex.create(source);
+
+                Map<String, Descriptor<List<ComponentDescription>>> components = new LinkedHashMap<>();
+                if (index.hasServiceComponentHeader()) {
+                    for (final BundleEntry entry : index.getComponentDescriptors()) {
+                        components.put(entry.getName(), update(index, entry, componentDescriptors.get(entry.getName()),
+                                changed, Timings.Phase.DS_PARSE, content -> ComponentDescriptionParser.parse(new ByteArrayInputStream(content), source), true));
+                    }
+                }
+                Map<String, Descriptor<MetaTypeDescription>> metaTypes = new LinkedHashMap<>();
+                for (final BundleEntry entry : index.getMetaTypeDescriptors()) {
+                    metaTypes.put(entry.getName(), update(index, entry, metaTypeDescriptors.get(entry.getName()),
+                            changed, Timings.Phase.METATYPE_PARSE, content -> MetaTypeDescriptionParser.parse(new ByteArrayInputStream(content)), false));
+                }
+                addRemoved(componentDescriptors, components, changed);
+                addRemoved(metaTypeDescriptors, metaTypes, changed);
+
+                List<ComponentDescription> allComponents = new ArrayList<>();
+                for (final Descriptor<List<ComponentDescription>> descriptor : components.values()) {
+                    if (descriptor.parsed != null) {
+                        allComponents.addAll(descriptor.parsed);
+                    }
+                }
+                List<MetaTypeDescription> allMetaTypes = new ArrayList<>();
+                for (final Descriptor<MetaTypeDescription> descriptor : metaTypes.values()) {
+                    if (descriptor.parsed != null) {
+                        allMetaTypes.add(descriptor.parsed);
+                    }
+                }
+                Map<String, ComponentDescription> declarativeServices = DeclarativeServices.toComponentDescriptionMap(allComponents);
+                Map<String, MetaTypeDescription> metaType = MetaType.toMetaTypeDescriptionMap(allMetaTypes);
+                LocalizationStore store = options.isResolveFromLocalizationProperties()
+                        ? LocalizationStore.read(index, metaType)
+                        : null;
+                if (store != null) {
+                    changed.addAll(getChangedLocalizations(localizations, store));
+                }
+
+                componentDescriptors = components;
+                metaTypeDescriptors = metaTypes;
+                localizations = store;
+                metadata = new BundleMetadata(declarativeServices, metaType, store).select(options.getFilter());
+                watchedDirectories = findWatchedDirectories(components, store);
+            }
+            return changed;
+        }
+
+        /**
+         * @param readsProperties whether the descriptor is re-parsed when an entry read by its
+         *                        {@code properties} or {@code factory-properties} elements changes
+         */
+        private static <T> Descriptor<T> update(final BundleIndex index, final BundleEntry entry, @CheckForNull final Descriptor<T> previous,
+                                                final Set<String> changed, final Timings.Phase phase, final Parser<T> parser,
+                                                final boolean readsProperties) throws IOException {
+            byte[] content;
+            if (previous != null && entry.getCrc() != BundleEntry.UNKNOWN
+                    && entry.getCrc() == previous.crc && entry.getSize() == previous.content.length) {
+                content = previous.content;
+            } else {
+                try (InputStream inputStream = index.getInputStream(entry)) {
+                    content = inputStream.readAllBytes();
+                }
+            }
+            if (previous != null && Arrays.equals(content, previous.content) && arePropertiesUnchanged(index.getSource(), previous)) {
+                return previous;
+            }
+
+            T parsed;
+            Set<String> pids;
+            Timings.Timer timer = Timings.start(phase, index.getName(), entry.getName(), null);
+            try {
+                parsed = parser.parse(content);
+                pids = getPids(parsed);
+            } catch (Exception e) {
+                LOG.warn("Error parsing '{}' in '{}'", entry.getName(), index.getName(), e);
+                parsed = null;
+                pids = Collections.emptySet();
+            } finally {
+                timer.close();
+            }
+            if (previous != null) {
+                changed.addAll(previous.pids);
+            }
+            changed.addAll(pids);
+            Map<String, byte[]> properties = readsProperties ? readProperties(index.getSource(), content) : Collections.emptyMap();
+            return new Descriptor<>(entry.getCrc(), content, parsed, pids, properties);
+        }
+
+        // the content of each entry read by properties elements, null for missing entries
+        private static Map<String, byte[]> readProperties(final BundleSource source, final byte[] content) throws IOException {
+            Set<String> paths;
+            try {
+                paths = ComponentDescriptionParser.readPropertiesEntries(new ByteArrayInputStream(content));
+            } catch (XMLStreamException e) {
+                // already reported by the parser
+                return Collections.emptyMap();
+            }
+            Map<String, byte[]> properties = new HashMap<>();
+            for (final String path : paths) {
+                properties.put(path, readEntry(source, path));
+            }
+            return properties;
+        }
+
+        private static boolean arePropertiesUnchanged(final BundleSource source, final Descriptor<?> descriptor) throws IOException {
+            for (final Map.Entry<String, byte[]> entry : descriptor.properties.entrySet()) {
+                if (!Arrays.equals(readEntry(source, entry.getKey()), entry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @CheckForNull
+        private static byte[] readEntry(final BundleSource source, final String path) throws IOException {
+            BundleEntry entry = source.getEntry(path);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream inputStream = source.getInputStream(entry)) {
+                return inputStream.readAllBytes();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Set<String> getPids(@CheckForNull final Object parsed) {
+            if (parsed instanceof MetaTypeDescription) {
+                return MetaType.toMetaTypeDescriptionMap(Collections.singletonList((MetaTypeDescription) parsed)).keySet();
+            }
+            if (parsed != null) {
+                return DeclarativeServices.toComponentDescriptionMap((List<ComponentDescription>) parsed).keySet();
+            }
+            return Collections.emptySet();
+        }
+
+        private static <T> void addRemoved(final Map<String, Descriptor<T>> previous, final Map<String, Descriptor<T>> current,
+                                           final Set<String> changed) {
+            for (final Map.Entry<String, Descriptor<T>> entry : previous.entrySet()) {
+                if (!current.containsKey(entry.getKey())) {
+                    changed.addAll(entry.getValue().pids);
+                }
+            }
+        }
+
+        // PIDs whose localization prefix changed or with a changed, added or removed resource of their prefix
+        private static Set<String> getChangedLocalizations(@CheckForNull final LocalizationStore previous, final LocalizationStore current) {
+            if (previous == null) {
+                return current.getPrefixes().keySet();
+            }
+            Set<String> changedResources = new HashSet<>();
+            for (final Map.Entry<String, byte[]> resource : current.getResources().entrySet()) {
+                if (!Arrays.equals(resource.getValue(), previous.getResources().get(resource.getKey()))) {
+                    changedResources.add(resource.getKey());
+                }
+            }
+            for (final String resource : previous.getResources().keySet()) {
+                if (!current.getResources().containsKey(resource)) {
+                    changedResources.add(resource);
+                }
+            }
+
+            Set<String> pids = new HashSet<>();
+            Set<String> allPids = new HashSet<>(previous.getPrefixes().keySet());
+            allPids.addAll(current.getPrefixes().keySet());
+            for (final String pid : allPids) {
+                String prefix = current.getPrefixes().get(pid);
+                if (!Objects.equals(prefix, previous.getPrefixes().get(pid))
+                        || prefix != null && changedResources.stream().anyMatch(resource -> resource.startsWith(prefix))) {
+                    pids.add(pid);
+                }
+            }
+            return pids;
+        }
+
+        // new descriptors and localizations are usually written next to the existing ones
+        private Set<Path> findWatchedDirectories(final Map<String, Descriptor<List<ComponentDescription>>> descriptors,
+                                                 @CheckForNull final LocalizationStore store) {
+            if (!file.isDirectory()) {
+                return Collections.singleton(path.getParent());
+            }
+            Set<String> names = new HashSet<>(Arrays.asList("", "META-INF", "OSGI-INF", BundleIndex.METATYPE_DIRECTORY));
+            for (final Map.Entry<String, Descriptor<List<ComponentDescription>>> descriptor : descriptors.entrySet()) {
+                names.add(getDirectory(descriptor.getKey()));
+                for (final String properties : descriptor.getValue().properties.keySet()) {
+                    names.add(getDirectory(properties));
+                }
+            }
+            if (store != null) {
+                for (final String prefix : store.getPrefixes().values()) {
+                    if (prefix != null) {
+                        names.add(getDirectory(prefix));
+                    }
+                }
+            }
+            Set<Path> directories = new HashSet<>();
+            for (final String name : names) {
+                Path directory = path.resolve(name).normalize();
+                if (directory.startsWith(path)) {
+                    directories.add(directory);
+                }
+            }
+            return directories;
+        }
+
+        private static String getDirectory(final String path) {
+            int slash = path.lastIndexOf('/');
+            return slash < 0 ? "" : path.substring(0, slash);
+        }
+    }
+
+    private static class Descriptor<T> {
+
+        private final long crc;
+
+        private final byte[] content;
+
+        @CheckForNull
+        private final T parsed;
+
+        // the components declared by this descriptor
+        private final Set<String> pids;
+
+        // path -> content of the entries read by properties elements, null if missing
+        private final Map<String, byte[]> properties;
+
+        private Descriptor(final long crc, final byte[] content, @CheckForNull final T parsed, final Set<String> pids,
+                           final Map<String, byte[]> properties) {
+            this.crc = crc;
+            this.content = content;
+            this.parsed = parsed;
+            this.pids = pids;
+            this.properties = properties;
+        }
+    }
+
+    private interface Parser<T> {
+        T parse(byte[] content) throws Exception;
+    }
+}
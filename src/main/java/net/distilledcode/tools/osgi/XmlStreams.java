@@ -0,0 +1,26 @@
+package net.distilledcode.tools.osgi;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+/**
+ * Shared StAX factory for cheap scans of descriptors that do not need a full model.
+ */
+final class XmlStreams {
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newFactory();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    }
+
+    private XmlStreams() {
+    }
+
+    static XMLStreamReader open(final InputStream inputStream) throws XMLStreamException {
+        return FACTORY.createXMLStreamReader(inputStream);
+    }
+}
@@ -0,0 +1,101 @@
+package net.distilledcode.tools.osgi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class BatchDiffTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void pairsBundlesBySymbolicName() throws Exception {
+        File left = folder.newFolder("left");
+        File right = folder.newFolder("right");
+        copy("oak-core-1.7.8.jar", left);
+        copy("oak-core-1.7.9.jar", right);
+
+        StringWriter report = new StringWriter();
+        boolean differences = BatchDiff.diff(BatchDiff.listBundles(left.getPath()), BatchDiff.listBundles(right.getPath()),
+                new DiffOptions().setParallelism(2), new PrintWriter(report));
+
+        assertTrue("differences", differences);
+        assertThat(report.toString(), containsString("Bundle org.apache.jackrabbit.oak-core: "));
+        assertThat(report.toString(), containsString("Compared 1 bundle pairs, 1 with differences, 0 only in old, 0 only in new"));
+    }
+
+    @Test
+    public void identicalBundlesHaveNoDifferences() throws Exception {
+        File bundle = TestUtil.getFile("oak-core-1.7.8.jar");
+
+        StringWriter report = new StringWriter();
+        boolean differences = BatchDiff.diff(asList(bundle), asList(bundle), new DiffOptions().setParallelism(1), new PrintWriter(report));
+
+        assertFalse("differences", differences);
+        assertThat(report.toString(), equalTo("Compared 1 bundle pairs, 0 with differences, 0 only in old, 0 only in new" + System.lineSeparator()));
+    }
+
+    @Test
+    public void unpairedBundlesAreReported() throws Exception {
+        File bundle = TestUtil.getFile("oak-core-1.7.8.jar");
+
+        StringWriter report = new StringWriter();
+        boolean differences = BatchDiff.diff(asList(bundle), Collections.emptyList(), new DiffOptions().setParallelism(1), new PrintWriter(report));
+
+        assertTrue("differences", differences);
+        assertThat(report.toString(), containsString("Only in old: org.apache.jackrabbit.oak-core"));
+    }
+
+    @Test
+    public void printsMorePairsThanInFlightInOrder() throws Exception {
+        List<File> left = new ArrayList<>();
+        List<File> right = new ArrayList<>();
+        for (int i = 4; i >= 0; i--) {
+            left.add(bundle("left-" + i + ".jar", "b" + i, "1"));
+            right.add(bundle("right-" + i + ".jar", "b" + i, "2"));
+        }
+
+        StringWriter report = new StringWriter();
+        BatchDiff.diff(left, right, new DiffOptions().setParallelism(1), new PrintWriter(report));
+
+        String output = report.toString();
+        for (int i = 1; i < 5; i++) {
+            assertTrue("b" + i + " after b" + (i - 1), output.indexOf("Bundle b" + i + ":") > output.indexOf("Bundle b" + (i - 1) + ":"));
+        }
+        assertThat(output, containsString("Compared 5 bundle pairs, 5 with differences, 0 only in old, 0 only in new"));
+    }
+
+    private File bundle(final String name, final String symbolicName, final String value) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Bundle-SymbolicName", symbolicName);
+        headers.put("Service-Component", "OSGI-INF/a.xml");
+        return TestUtil.createJar(folder.newFile(name), headers, Collections.singletonMap("OSGI-INF/a.xml",
+                "<scr:component xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.2.0\" name=\"a.A\">"
+                        + "<implementation class=\"a.A\"/><property name=\"value\" value=\"" + value + "\"/></scr:component>"));
+    }
+
+    private static void copy(final String name, final File directory) throws IOException, URISyntaxException {
+        File file = TestUtil.getFile(name);
+        Files.copy(file.toPath(), new File(directory, name).toPath());
+    }
+}
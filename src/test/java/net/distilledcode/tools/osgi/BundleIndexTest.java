@@ -0,0 +1,73 @@
+package net.distilledcode.tools.osgi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BundleIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void classifiesEntries() throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("OSGI-INF/b.xml", "<b/>");
+        entries.put("OSGI-INF/a.xml", "<a/>");
+        entries.put("OSGI-INF/metatype/a.xml", "<a/>");
+        entries.put("OSGI-INF/metatype/a.properties", "a=b");
+        entries.put("OSGI-INF/l10n/bundle.properties", "a=b");
+        JarFile jarFile = new JarFile(TestUtil.createJar(folder.newFile("bundle.jar"),
+                Collections.singletonMap("Service-Component", "OSGI-INF/b.xml, OSGI-INF/a.xml;foo=bar, OSGI-INF/missing.xml"),
+                entries));
+
+        BundleIndex index = BundleIndex.create(jarFile);
+
+        assertThat(names(index.getComponentDescriptors()), equalTo(asList("OSGI-INF/b.xml", "OSGI-INF/a.xml")));
+        assertThat(names(index.getMetaTypeDescriptors()), equalTo(asList("OSGI-INF/metatype/a.xml")));
+        assertThat(index.getPropertiesFile("OSGI-INF/metatype/a.properties"), notNullValue());
+        assertThat(index.getPropertiesFile("OSGI-INF/l10n/bundle.properties"), notNullValue());
+        assertThat(index.getPropertiesFile("OSGI-INF/l10n/missing.properties"), nullValue());
+    }
+
+    @Test
+    public void expandsWildcardsInLastPathSegment() throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("OSGI-INF/c.xml", "<c/>");
+        entries.put("OSGI-INF/a.xml", "<a/>");
+        entries.put("OSGI-INF/a.txt", "a");
+        entries.put("OSGI-INF/nested/b.xml", "<b/>");
+        entries.put("OSGI-INF/metatype/d.xml", "<d/>");
+        JarFile jarFile = new JarFile(TestUtil.createJar(folder.newFile("bundle.jar"),
+                Collections.singletonMap("Service-Component", "OSGI-INF/c.xml,OSGI-INF/*.xml"),
+                entries));
+
+        BundleIndex index = BundleIndex.create(jarFile);
+
+        assertThat(names(index.getComponentDescriptors()), equalTo(asList("OSGI-INF/c.xml", "OSGI-INF/a.xml")));
+    }
+
+    @Test
+    public void indexesOakCore() throws Exception {
+        BundleIndex index = BundleIndex.create(TestUtil.getJarFile("oak-core-1.7.8.jar"));
+        String header = index.getManifest().getMainAttributes().getValue("Service-Component");
+        assertThat(index.getComponentDescriptors().size(), equalTo(header.split(",").length));
+    }
+
+    private static List<String> names(final List<BundleEntry> entries) {
+        return entries.stream().map(BundleEntry::getName).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,122 @@
+package net.distilledcode.tools.osgi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ComponentFilterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void matchesGlobs() {
+        ComponentFilter filter = new ComponentFilter(asList("org.example.*", "other.?"), asList("*.internal.*"));
+
+        assertTrue(filter.matches("org.example.Foo", null));
+        assertTrue(filter.matches("other.a", null));
+        assertFalse(filter.matches("other.ab", null));
+        assertFalse(filter.matches("org.example.internal.Foo", null));
+        assertFalse(filter.matches("org.examples", null));
+    }
+
+    @Test
+    public void matchesPidOrComponentName() {
+        ComponentFilter filter = new ComponentFilter(asList("org.example.*"), asList("*Excluded"));
+
+        assertTrue(filter.matches("my.pid", "org.example.Foo"));
+        assertFalse(filter.matches("my.pid", "org.other.Foo"));
+        assertFalse(filter.matches("org.example.pid", "org.example.Excluded"));
+        assertTrue(ComponentFilter.ALL.matches("anything", null));
+    }
+
+    @Test
+    public void onlySelectedDescriptorsAreParsed() throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("OSGI-INF/a.xml", component("org.example.A", "org.example.pid.A"));
+        entries.put("OSGI-INF/b.xml", component("org.other.B", null));
+        entries.put("OSGI-INF/metatype/a.xml", metaType("org.example.pid.A"));
+        entries.put("OSGI-INF/metatype/b.xml", metaType("org.other.B"));
+        try (JarFile jarFile = new JarFile(TestUtil.createJar(folder.newFile("bundle.jar"),
+                Collections.singletonMap("Service-Component", "OSGI-INF/*.xml"), entries))) {
+            BundleIndex index = BundleIndex.create(jarFile);
+
+            SelectedDescriptors selection = SelectedDescriptors.find(index, new ComponentFilter(asList("org.example.A"), Collections.emptyList()));
+
+            assertThat(selection.getUnselected(), equalTo(new HashSet<>(asList("OSGI-INF/b.xml", "OSGI-INF/metatype/b.xml"))));
+            assertTrue("PID of selected component", selection.isSelected("org.example.pid.A"));
+            assertFalse(selection.isSelected("org.other.B"));
+        }
+    }
+
+    @Test
+    public void filtersDiffOutput() throws Exception {
+        File left = TestUtil.getFile("oak-core-1.7.8.jar");
+        File right = TestUtil.getFile("oak-core-1.7.9.jar");
+        DiffOptions options = new DiffOptions().setFilter(new ComponentFilter(
+                asList("org.apache.jackrabbit.oak.security.*"), asList("*.user.*")));
+
+        StringWriter report = new StringWriter();
+        PrintWriter out = new PrintWriter(report);
+        MetadataDiff.diffBundles(left, right, options, out, 1);
+        out.flush();
+
+        assertThat(report.toString(), containsString("org.apache.jackrabbit.oak.security.authorization.AuthorizationConfigurationImpl"));
+        assertThat(report.toString(), not(containsString("org.apache.jackrabbit.oak.security.user.")));
+        assertThat(report.toString(), not(containsString("org.apache.jackrabbit.oak.plugins.")));
+    }
+
+    @Test
+    public void selectsMetaTypeOfComponentInUnchangedDescriptor() throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("OSGI-INF/a.xml", component("org.example.A", "pid.A"));
+        entries.put("OSGI-INF/metatype/a.xml", metaType("pid.A"));
+        File left = TestUtil.createJar(folder.newFile("left.jar"), Collections.singletonMap("Service-Component", "OSGI-INF/*.xml"), entries);
+        entries.put("OSGI-INF/metatype/a.xml", metaType("pid.A").replace("type=\"String\"", "type=\"Integer\""));
+        File right = TestUtil.createJar(folder.newFile("right.jar"), Collections.singletonMap("Service-Component", "OSGI-INF/*.xml"), entries);
+        ComponentFilter filter = new ComponentFilter(asList("org.example.*"), Collections.emptyList());
+
+        String report = diff(left, right, new DiffOptions().setFilter(filter));
+        assertThat(report, containsString("pid.A"));
+        assertThat(diff(left, right, new DiffOptions().setFilter(filter).setSkipUnchangedDescriptors(false)), equalTo(report));
+        assertThat(diff(left, right, new DiffOptions().setFilter(filter).setStreaming(true)), equalTo(report));
+    }
+
+    private static String diff(final File left, final File right, final DiffOptions options) throws Exception {
+        StringWriter report = new StringWriter();
+        PrintWriter out = new PrintWriter(report);
+        MetadataDiff.diffBundles(left, right, options, out, 1);
+        out.flush();
+        return report.toString();
+    }
+
+    private static String component(final String name, final String configurationPid) {
+        return "<scr:component xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.2.0\" name=\"" + name + "\""
+                + (configurationPid == null ? "" : " configuration-pid=\"" + configurationPid + "\"") + ">"
+                + "<implementation class=\"" + name + "\"/></scr:component>";
+    }
+
+    private static String metaType(final String pid) {
+        return "<metatype:MetaData xmlns:metatype=\"http://www.osgi.org/xmlns/metatype/v1.2.0\">"
+                + "<OCD id=\"" + pid + "\" name=\"" + pid + "\"><AD id=\"a\" type=\"String\"/></OCD>"
+                + "<Designate pid=\"" + pid + "\"><Object ocdref=\"" + pid + "\"/></Designate>"
+                + "</metatype:MetaData>";
+    }
+}
@@ -0,0 +1,81 @@
+package net.distilledcode.tools.osgi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class DiffDaemonTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void returnsSameOutputAsMain() throws Exception {
+        File bundles = TestUtil.getFile("oak-core-1.7.8.jar").getParentFile();
+        String[] args = {"--threads", "2", "oak-core-1.7.8.jar", "oak-core-1.7.9.jar"};
+        String[] absoluteArgs = {"--threads", "2", new File(bundles, args[2]).getPath(), new File(bundles, args[3]).getPath()};
+
+        StringWriter expected = new StringWriter();
+        MetadataDiff.run(absoluteArgs, new PrintWriter(expected));
+
+        Path socket = folder.getRoot().toPath().resolve("diff.sock");
+        try (DiffDaemon daemon = DiffDaemon.start(socket, 4)) {
+            assertThat(request(socket, args, bundles), equalTo(expected.toString()));
+            assertThat(daemon.getCache().getMisses(), equalTo(2));
+
+            assertThat(request(socket, args, bundles), equalTo(expected.toString()));
+            assertThat(daemon.getCache().getHits(), equalTo(2));
+
+            assertThat(request(socket, new String[] {"--unknown"}, bundles), containsString("Unknown option '--unknown'"));
+            assertThat(request(socket, new String[] {"--timings", args[2], args[3]}, bundles),
+                    containsString("Option '--timings' is not supported by the daemon"));
+        }
+    }
+
+    @Test
+    public void rejectsNonPositiveMemoryCache() {
+        assertThat(DiffDaemon.parseMaxEntries(new String[] {"diff.sock"}), equalTo(MemoryMetadataCache.DEFAULT_MAX_ENTRIES));
+        assertThat(DiffDaemon.parseMaxEntries(new String[] {"diff.sock", "--memory-cache", "8"}), equalTo(8));
+        for (final String value : new String[] {"0", "-1", "many"}) {
+            try {
+                DiffDaemon.parseMaxEntries(new String[] {"diff.sock", "--memory-cache", value});
+                fail("accepted --memory-cache " + value);
+            } catch (IllegalArgumentException e) {
+                assertThat(e.getMessage(), equalTo("Option '--memory-cache' requires a positive number, got '" + value + "'"));
+            }
+        }
+    }
+
+    @Test
+    public void replacesStaleSocket() throws Exception {
+        Path socket = folder.getRoot().toPath().resolve("diff.sock");
+        DiffDaemon.start(socket, 1).close();
+        folder.newFile("diff.sock");
+
+        try (DiffDaemon daemon = DiffDaemon.start(socket, 1); SocketChannel channel = DiffClient.connect(socket)) {
+            assertThat(channel, notNullValue());
+        }
+        assertThat(DiffClient.connect(socket), nullValue());
+    }
+
+    private static String request(final Path socket, final String[] args, final File workingDirectory) throws Exception {
+        StringWriter out = new StringWriter();
+        try (SocketChannel channel = DiffClient.connect(socket)) {
+            DiffClient.request(channel, args, workingDirectory, new PrintWriter(out), new PrintWriter(new StringWriter()));
+        }
+        return out.toString();
+    }
+}
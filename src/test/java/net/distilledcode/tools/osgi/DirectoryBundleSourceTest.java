@@ -0,0 +1,108 @@
+package net.distilledcode.tools.osgi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class DirectoryBundleSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void diffsLikeJars() throws Exception {
+        File left = explode("oak-core-1.7.8.jar");
+        File right = explode("oak-core-1.7.9.jar");
+
+        StringWriter jars = new StringWriter();
+        MetadataDiff.run(new String[] {"--threads", "1", TestUtil.getFile("oak-core-1.7.8.jar").getPath(),
+                TestUtil.getFile("oak-core-1.7.9.jar").getPath()}, new PrintWriter(jars));
+        StringWriter directories = new StringWriter();
+        MetadataDiff.run(new String[] {"--threads", "1", left.getPath(), right.getPath()}, new PrintWriter(directories));
+
+        assertThat(directories.toString(), equalTo(jars.toString()));
+    }
+
+    @Test
+    public void indexesWithoutEnumeratingEntries() throws Exception {
+        File bundle = explode("oak-core-1.7.8.jar");
+        BundleIndex index;
+        try (JarFile jarFile = TestUtil.getJarFile("oak-core-1.7.8.jar")) {
+            index = BundleIndex.create(jarFile);
+        }
+        BundleIndex exploded = BundleIndex.create(new DirectoryBundleSource(bundle.toPath()) {
+            @Override
+            public void forEachEntry(final Consumer<BundleEntry> consumer) {
+                throw new AssertionError("all entries enumerated");
+            }
+        });
+
+        assertThat(names(exploded.getComponentDescriptors()), equalTo(names(index.getComponentDescriptors())));
+        assertThat(names(exploded.getMetaTypeDescriptors()), equalTo(names(index.getMetaTypeDescriptors()).stream().sorted().collect(Collectors.toList())));
+        assertThat(exploded.getLocalizationFiles("OSGI-INF/metatype/metatype").keySet(),
+                equalTo(index.getLocalizationFiles("OSGI-INF/metatype/metatype").keySet()));
+        assertThat(exploded.getPropertiesFile("../oak-core-1.7.9.jar"), nullValue());
+    }
+
+    @Test
+    public void defaultsToBndDescriptorsWithoutManifest() throws Exception {
+        Path root = folder.newFolder("classes").toPath();
+        Files.createDirectories(root.resolve("OSGI-INF/nested"));
+        Files.write(root.resolve("OSGI-INF/b.xml"), "<b/>".getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("OSGI-INF/a.xml"), "<a/>".getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("OSGI-INF/a.txt"), "a".getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("OSGI-INF/nested/c.xml"), "<c/>".getBytes(StandardCharsets.UTF_8));
+
+        BundleIndex index = BundleIndex.create(new DirectoryBundleSource(root));
+
+        assertThat(names(index.getComponentDescriptors()), equalTo(asList("OSGI-INF/a.xml", "OSGI-INF/b.xml")));
+    }
+
+    private File explode(final String name) throws Exception {
+        File root = folder.newFolder(name);
+        try (JarFile jarFile = TestUtil.getJarFile(name)) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                Path target = root.toPath().resolve(entry.getName());
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                    continue;
+                }
+                Files.createDirectories(target.getParent());
+                try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                    Files.copy(inputStream, target);
+                }
+            }
+        }
+        return root;
+    }
+
+    private static List<String> names(final List<BundleEntry> entries) {
+        List<String> names = new ArrayList<>();
+        for (final BundleEntry entry : entries) {
+            names.add(entry.getName());
+        }
+        return names;
+    }
+}
@@ -3,6 +3,7 @@ package net.distilledcode.tools.osgi;
 import org.junit.Before;
 import org.junit.Test;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.InvalidSyntaxException;
 
 import java.io.File;
 import java.io.IOException;
@@ -14,7 +15,9 @@ import static org.hamcrest.CoreMatchers.endsWith;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class InvocationHandlersTest {
 
@@ -50,4 +53,34 @@ public class InvocationHandlersTest {
         URL entryUrl = bundle.getEntry(path);
         assertThat("getEntry", entryUrl, nullValue());
     }
+
+    @Test
+    public void getPrimitiveValue() {
+        assertThat("getBundleId", bundle.getBundleId(), equalTo(0L));
+    }
+
+    @Test
+    public void bundleContextRefersToBundle() {
+        assertThat("getBundleContext().getBundle()", bundle.getBundleContext().getBundle(), sameInstance(bundle));
+    }
+
+    @Test
+    public void declaredExceptionIsNotWrapped() {
+        try {
+            bundle.getBundleContext().createFilter("(invalid");
+            fail("InvalidSyntaxException expected");
+        } catch (InvalidSyntaxException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void unsupportedMethod() {
+        try {
+            bundle.getState();
+            fail("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException e) {
+            assertThat(e.getMessage(), equalTo("int BundleImplementedMethods#getState() is not implemented"));
+        }
+    }
 }
@@ -0,0 +1,88 @@
+package net.distilledcode.tools.osgi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+public class JsonVisitorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesOneLinePerEvent() {
+        StringWriter report = new StringWriter();
+        JsonVisitor visitor = new JsonVisitor(new PrintWriter(report), false);
+
+        visitor.enter("component");
+        visitor.enter("Properties");
+        visitor.added("a", 1);
+        visitor.leave("Properties");
+        visitor.changed("b", "x\"y", new String[] {"1", "2"});
+        visitor.leave("component");
+        visitor.close();
+
+        assertThat(report.toString(), equalTo(
+                "{\"path\":[\"component\",\"Properties\"],\"name\":\"a\",\"event\":\"added\",\"value\":1,\"valueType\":\"Integer\"}\n" +
+                "{\"path\":[\"component\"],\"name\":\"b\",\"event\":\"changed\",\"left\":\"x\\\"y\",\"leftType\":\"String\"," +
+                "\"right\":[\"1\",\"2\"],\"rightType\":\"String[]\"}\n"));
+    }
+
+    @Test
+    public void writesArrayWithBundle() {
+        StringWriter report = new StringWriter();
+        JsonVisitor visitor = new JsonVisitor(new PrintWriter(report), true);
+
+        visitor.setBundle("org.example");
+        visitor.removed("list", asList(true, "a\nb", null));
+        visitor.removed("nan", Double.NaN);
+        visitor.close();
+
+        assertThat(report.toString(), equalTo("[\n" +
+                "{\"bundle\":\"org.example\",\"path\":[],\"name\":\"list\",\"event\":\"removed\",\"value\":[true,\"a\\nb\",null],\"valueType\":\"ArrayList\"},\n" +
+                "{\"bundle\":\"org.example\",\"path\":[],\"name\":\"nan\",\"event\":\"removed\",\"value\":\"NaN\",\"valueType\":\"Double\"}\n" +
+                "]" + System.lineSeparator()));
+    }
+
+    @Test
+    public void emptyArray() {
+        StringWriter report = new StringWriter();
+        new JsonVisitor(new PrintWriter(report), true).close();
+
+        assertThat(report.toString(), equalTo("[]" + System.lineSeparator()));
+    }
+
+    @Test
+    public void typedPropertiesAsJson() throws Exception {
+        File left = TestUtil.createTypedPropertiesJar(folder.newFile("left.jar"), "80\n443", "timeout=10\n");
+        File right = TestUtil.createTypedPropertiesJar(folder.newFile("right.jar"), "80\n8080\n443", "timeout=20\n");
+        StringWriter report = new StringWriter();
+        MetadataDiff.run(new String[] {"--format", "ndjson", left.getPath(), right.getPath()}, new PrintWriter(report));
+
+        assertThat(report.toString(), equalTo(
+                "{\"path\":[\"a.A\",\"Declarative Services\",\"Properties\"],\"name\":\"ports\",\"event\":\"changed\"," +
+                "\"left\":[80,443],\"leftType\":\"int[]\",\"right\":[80,8080,443],\"rightType\":\"int[]\"}\n" +
+                "{\"path\":[\"a.A\",\"Declarative Services\",\"Properties\"],\"name\":\"timeout\",\"event\":\"changed\"," +
+                "\"left\":\"10\",\"leftType\":\"String\",\"right\":\"20\",\"rightType\":\"String\"}\n"));
+    }
+
+    @Test
+    public void batchDiffAsJson() throws Exception {
+        StringWriter report = new StringWriter();
+        BatchDiff.diff(asList(TestUtil.getFile("oak-core-1.7.8.jar")), asList(TestUtil.getFile("oak-core-1.7.9.jar")),
+                new DiffOptions().setParallelism(1).setFormat(OutputFormat.NDJSON), new PrintWriter(report));
+
+        for (final String line : report.toString().split("\n")) {
+            assertThat(line, startsWith("{\"bundle\":\"org.apache.jackrabbit.oak-core\",\"path\":[\""));
+        }
+    }
+}
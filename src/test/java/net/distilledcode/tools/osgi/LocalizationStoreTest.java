@@ -0,0 +1,114 @@
+package net.distilledcode.tools.osgi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.jar.JarFile;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class LocalizationStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resolvesLocaleVariants() throws Exception {
+        Map<String, String> entries = bundle("Label", "Label DE");
+        entries.put("OSGI-INF/l10n/bundle_de_CH.properties", "label=Label CH");
+
+        try (JarFile jarFile = new JarFile(TestUtil.createJar(folder.newFile("bundle.jar"), Collections.emptyMap(), entries))) {
+            BundleIndex index = BundleIndex.create(jarFile);
+            LocalizationStore store = LocalizationStore.read(index, MetaType.readMetaTypeDescriptions(index));
+
+            Properties a = store.getProperties("org.example.A", Locale.ROOT);
+            assertThat(store.getProperties("org.example.B", Locale.ROOT), sameInstance(a));
+            assertThat(a.getProperty("label"), equalTo("Label"));
+            assertThat(store.getProperties("org.example.A", Locale.GERMAN).getProperty("label"), equalTo("Label DE"));
+            assertThat(store.getProperties("org.example.A", Locale.of("de", "CH")).getProperty("label"), equalTo("Label CH"));
+            assertThat(store.getProperties("org.example.A", Locale.of("de", "CH")).getProperty("description"), equalTo("Description"));
+            assertThat(store.getProperties("org.example.A", Locale.FRENCH).getProperty("label"), equalTo("Label"));
+            assertThat(store.getProperties("org.example.C", Locale.ROOT), nullValue());
+        }
+    }
+
+    @Test
+    public void comparesRequestedLocales() throws Exception {
+        File left = TestUtil.createJar(folder.newFile("left.jar"), Collections.emptyMap(), bundle("Label", "Label DE"));
+        File right = TestUtil.createJar(folder.newFile("right.jar"), Collections.emptyMap(), bundle("Label", "Neues Label"));
+
+        assertThat(diff(left, right, new DiffOptions()), equalTo(""));
+
+        String report = diff(left, right, new DiffOptions().setLocales(asList(Locale.GERMAN, Locale.FRENCH)));
+        assertThat(report, containsString("+ name[de] = Neues Label (String)"));
+        assertThat(report, not(containsString("[fr]")));
+    }
+
+    @Test
+    public void ignoresLocalizationEndingInProperties() throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("OSGI-INF/metatype/c.xml", metaType("org.example.C").replace("OSGI-INF/l10n/bundle", "OSGI-INF/l10n/c.properties"));
+        entries.put("OSGI-INF/l10n/c.properties", "label=Label\n");
+        File left = TestUtil.createJar(folder.newFile("left.jar"), Collections.emptyMap(), entries);
+        Map<String, String> changed = new LinkedHashMap<>(entries);
+        changed.put("OSGI-INF/metatype/c.xml", entries.get("OSGI-INF/metatype/c.xml").replace("default=\"true\"", "default=\"false\""));
+        File right = TestUtil.createJar(folder.newFile("right.jar"), Collections.emptyMap(), changed);
+        File exploded = folder.newFolder("exploded");
+        for (final Map.Entry<String, String> entry : entries.entrySet()) {
+            Path path = exploded.toPath().resolve(entry.getKey());
+            Files.createDirectories(path.getParent());
+            Files.write(path, entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+
+        for (final String[] args : new String[][] {
+                {left.getPath(), right.getPath()},
+                {"--mmap", left.getPath(), right.getPath()},
+                {exploded.getPath(), right.getPath()}}) {
+            StringWriter report = new StringWriter();
+            MetadataDiff.run(args, new PrintWriter(report));
+            assertThat(report.toString(), containsString("+ defaultValue = [false] (String[])"));
+        }
+    }
+
+    private static String diff(final File left, final File right, final DiffOptions options) throws Exception {
+        StringWriter report = new StringWriter();
+        MetadataDiff.diffBundles(left, right, options.setParallelism(1), new PrintWriter(report), 1);
+        return report.toString();
+    }
+
+    private static Map<String, String> bundle(final String label, final String germanLabel) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("OSGI-INF/metatype/a.xml", metaType("org.example.A"));
+        entries.put("OSGI-INF/metatype/b.xml", metaType("org.example.B"));
+        entries.put("OSGI-INF/l10n/bundle.properties", "label=" + label + "\ndescription=Description\n");
+        entries.put("OSGI-INF/l10n/bundle_de.properties", "label=" + germanLabel + "\n");
+        return entries;
+    }
+
+    private static String metaType(final String pid) {
+        return "<metatype:MetaData xmlns:metatype=\"http://www.osgi.org/xmlns/metatype/v1.2.0\" localization=\"OSGI-INF/l10n/bundle\">" +
+                "<OCD id=\"" + pid + "\" name=\"%label\" description=\"%description\">" +
+                "<AD id=\"enabled\" type=\"Boolean\" default=\"true\" name=\"%label\"/>" +
+                "</OCD>" +
+                "<Designate pid=\"" + pid + "\"><Object ocdref=\"" + pid + "\"/></Designate>" +
+                "</metatype:MetaData>";
+    }
+}
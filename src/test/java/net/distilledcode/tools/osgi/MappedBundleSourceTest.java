@@ -0,0 +1,129 @@
+package net.distilledcode.tools.osgi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedBundleSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsSameEntriesAsJarFile() throws Exception {
+        File file = TestUtil.getFile("oak-core-1.7.8.jar");
+        try (JarFile jarFile = new JarFile(file); MappedBundleSource source = new MappedBundleSource(file)) {
+            JarFileBundleSource jarSource = new JarFileBundleSource(jarFile);
+            List<BundleEntry> entries = new ArrayList<>();
+            source.forEachEntry(entries::add);
+            List<BundleEntry> jarEntries = new ArrayList<>();
+            jarSource.forEachEntry(jarEntries::add);
+
+            assertThat(entries.size(), equalTo(jarEntries.size()));
+            for (final BundleEntry jarEntry : jarEntries) {
+                BundleEntry entry = source.getEntry(jarEntry.getName());
+                assertThat(jarEntry.getName(), entry, notNullValue());
+                assertThat(jarEntry.getName(), entry.getCrc(), equalTo(jarEntry.getCrc()));
+                assertArrayEquals(jarEntry.getName(), readAll(jarSource, jarEntry), readAll(source, entry));
+            }
+            assertThat(source.getManifest(), equalTo(jarFile.getManifest()));
+            assertThat(source.getEntry("OSGI-INF/"), nullValue());
+        }
+    }
+
+    @Test
+    public void storedEntriesAreNotCopied() throws Exception {
+        byte[] content = "<scr:component/>".getBytes(StandardCharsets.UTF_8);
+        File file = folder.newFile("stored.jar");
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(file), new Manifest())) {
+            JarEntry entry = new JarEntry("OSGI-INF/component.xml");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setCrc(crc.getValue());
+            jar.putNextEntry(entry);
+            jar.write(content);
+            jar.closeEntry();
+        }
+
+        try (MappedBundleSource source = new MappedBundleSource(file)) {
+            ByteBuffer buffer = source.getContent(source.getEntry("OSGI-INF/component.xml"));
+            assertTrue("direct", buffer.isDirect());
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            assertArrayEquals(content, bytes);
+        }
+    }
+
+    @Test
+    public void rejectsLocalHeaderOffsetOutsideOfFile() throws Exception {
+        File file = TestUtil.createJar(folder.newFile("offset.jar"), Collections.<String, String>emptyMap(),
+                Collections.singletonMap("OSGI-INF/component.xml", "<scr:component/>"));
+        patchCentralDirectory(file, 42, 0x7FFFFFF0);
+        assertRejected(file);
+    }
+
+    @Test
+    public void rejectsSizeAboveTwoGigabytes() throws Exception {
+        File file = TestUtil.createJar(folder.newFile("size.jar"), Collections.<String, String>emptyMap(),
+                Collections.singletonMap("OSGI-INF/component.xml", "<scr:component/>"));
+        patchCentralDirectory(file, 24, 0xFFFFFFFE);
+        assertRejected(file);
+    }
+
+    private static void assertRejected(final File file) throws IOException {
+        try {
+            new MappedBundleSource(file).close();
+            fail("corrupt central directory was accepted");
+        } catch (ZipException e) {
+            assertThat(e.getMessage(), containsString("OSGI-INF/component.xml"));
+        }
+    }
+
+    // overwrites a field of the last central directory header
+    private static void patchCentralDirectory(final File file, final int fieldOffset, final int value) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int position = bytes.length - 4;
+        while (buffer.getInt(position) != 0x02014b50) {
+            position--;
+        }
+        buffer.putInt(position + fieldOffset, value);
+        Files.write(file.toPath(), bytes);
+    }
+
+    private static byte[] readAll(final BundleSource source, final BundleEntry entry) throws IOException {
+        try (InputStream inputStream = source.getInputStream(entry)) {
+            return inputStream.readAllBytes();
+        }
+    }
+}
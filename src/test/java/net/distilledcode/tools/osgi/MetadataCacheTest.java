@@ -0,0 +1,88 @@
+package net.distilledcode.tools.osgi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class MetadataCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void cachedMetadataProducesSameDiff() throws Exception {
+        File left = TestUtil.getFile("oak-core-1.7.8.jar");
+        File right = TestUtil.getFile("oak-core-1.7.9.jar");
+        MetadataCache cache = new MetadataCache(folder.newFolder("cache"));
+        DiffOptions options = new DiffOptions().setCache(cache);
+
+        String uncached = diff(left, right, new DiffOptions());
+        String first = diff(left, right, options);
+        String second = diff(left, right, options);
+
+        assertThat(first, equalTo(uncached));
+        assertThat(second, equalTo(uncached));
+        assertThat("misses", cache.getMisses(), equalTo(2));
+        assertThat("hits", cache.getHits(), equalTo(2));
+    }
+
+    @Test
+    public void cachedMetadataWithoutLocalization() throws Exception {
+        File left = TestUtil.getFile("oak-core-1.7.8.jar");
+        File right = TestUtil.getFile("oak-core-1.7.9.jar");
+        DiffOptions options = new DiffOptions().setResolveFromLocalizationProperties(false)
+                .setCache(new MetadataCache(folder.newFolder("cache")));
+
+        String uncached = diff(left, right, new DiffOptions().setResolveFromLocalizationProperties(false));
+        diff(left, right, options);
+
+        assertThat(diff(left, right, options), equalTo(uncached));
+    }
+
+    @Test
+    public void corruptEntryIsReplaced() throws Exception {
+        File bundle = TestUtil.getFile("oak-core-1.7.8.jar");
+        File directory = folder.newFolder("cache");
+        MetadataCache cache = new MetadataCache(directory);
+        File entry = new File(directory, MetadataCache.digest(bundle) + ".v" + BundleMetadataSerializer.FORMAT_VERSION + ".bin");
+        Files.write(entry.toPath(), new byte[] {1, 2, 3});
+
+        cache.get(bundle, new DiffOptions());
+        cache.get(bundle, new DiffOptions());
+
+        assertThat("misses", cache.getMisses(), equalTo(1));
+        assertThat("hits", cache.getHits(), equalTo(1));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws Exception {
+        File directory = folder.newFolder("cache");
+        File oldBundle = TestUtil.getFile("oak-core-1.7.8.jar");
+        File newBundle = TestUtil.getFile("oak-core-1.7.9.jar");
+        new MetadataCache(directory).get(oldBundle, new DiffOptions());
+        File oldEntry = directory.listFiles((dir, name) -> name.endsWith(".bin"))[0];
+        oldEntry.setLastModified(oldEntry.lastModified() - 60_000);
+
+        MetadataCache cache = new MetadataCache(directory, oldEntry.length() * 3 / 2);
+        cache.get(newBundle, new DiffOptions());
+
+        String[] entries = directory.list((dir, name) -> name.endsWith(".bin"));
+        assertThat(entries, equalTo(new String[] {MetadataCache.digest(newBundle) + ".v" + BundleMetadataSerializer.FORMAT_VERSION + ".bin"}));
+    }
+
+    private static String diff(final File left, final File right, final DiffOptions options) throws Exception {
+        StringWriter report = new StringWriter();
+        PrintWriter out = new PrintWriter(report);
+        MetadataDiff.diff(MetadataDiff.BundleMetadata.read(left, options), MetadataDiff.BundleMetadata.read(right, options), out, 1);
+        out.flush();
+        return report.toString();
+    }
+}
@@ -1,17 +1,113 @@
 package net.distilledcode.tools.osgi;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.jar.JarFile;
 
 import static net.distilledcode.tools.osgi.TestUtil.getJarFile;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
 
 public class MetadataDiffTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test // No assertions yet, mainly for fast semi-manual testing at this point
     public void testDiff() throws Exception {
         JarFile oakCore1 = getJarFile("oak-core-1.7.8.jar");
         JarFile oakCore2 = getJarFile("oak-core-1.7.9.jar");
         MetadataDiff.diff(oakCore1, oakCore2, true);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void reportMatchesGoldenOutput() throws Exception {
+        String left = TestUtil.getFile("oak-core-1.7.8.jar").getPath();
+        String right = TestUtil.getFile("oak-core-1.7.9.jar").getPath();
+        StringWriter report = new StringWriter();
+        PrintWriter out = new PrintWriter(report);
+        MetadataDiff.run(new String[] {left, right}, out);
+        out.flush();
+
+        String expected;
+        try (InputStream input = MetadataDiffTest.class.getResourceAsStream("/oak-core-1.7.8-to-1.7.9.txt")) {
+            expected = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertThat(report.toString().replace(System.lineSeparator(), "\n"), equalTo(expected));
+    }
+
+    @Test
+    public void reportMatchesGoldenOutputForTypedProperties() throws Exception {
+        File left = TestUtil.createTypedPropertiesJar(folder.newFile("left.jar"), "80\n443", "timeout=10\n");
+        File right = TestUtil.createTypedPropertiesJar(folder.newFile("right.jar"), "80\n8080\n443", "timeout=20\n");
+        StringWriter report = new StringWriter();
+        PrintWriter out = new PrintWriter(report);
+        MetadataDiff.run(new String[] {left.getPath(), right.getPath()}, out);
+        out.flush();
+
+        String expected;
+        try (InputStream input = MetadataDiffTest.class.getResourceAsStream("/typed-properties.txt")) {
+            expected = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertThat(report.toString().replace(System.lineSeparator(), "\n"), equalTo(expected));
+    }
+
+    @Test
+    public void outputDoesNotDependOnParallelism() throws Exception {
+        MetadataDiff.BundleMetadata left = new MetadataDiff.BundleMetadata(getJarFile("oak-core-1.7.8.jar"), true);
+        MetadataDiff.BundleMetadata right = new MetadataDiff.BundleMetadata(getJarFile("oak-core-1.7.9.jar"), true);
+        assertThat(diff(left, right, 8), equalTo(diff(left, right, 1)));
+    }
+
+    @Test
+    public void concurrentReadingMatchesSequentialReading() throws Exception {
+        try (JarFile oakCore1 = getJarFile("oak-core-1.7.8.jar"); JarFile oakCore2 = getJarFile("oak-core-1.7.9.jar")) {
+            MetadataDiff.BundleMetadata[] sequential = read(oakCore1, oakCore2, 1);
+            MetadataDiff.BundleMetadata[] concurrent = read(oakCore1, oakCore2, 4);
+
+            assertThat(concurrent[0].getAllClasses(), equalTo(sequential[0].getAllClasses()));
+            assertThat(concurrent[1].getAllClasses(), equalTo(sequential[1].getAllClasses()));
+            assertThat(diff(concurrent[0], concurrent[1], 1), equalTo(diff(sequential[0], sequential[1], 1)));
+        }
+    }
+
+    @Test
+    public void writesReportToOutputFile() throws Exception {
+        String left = TestUtil.getFile("oak-core-1.7.8.jar").getPath();
+        String right = TestUtil.getFile("oak-core-1.7.9.jar").getPath();
+        File report = new File(folder.getRoot(), "report.txt");
+        StringWriter stdout = new StringWriter();
+        StringWriter expected = new StringWriter();
+
+        MetadataDiff.run(new String[] {"--output", report.getPath(), left, right}, new PrintWriter(stdout));
+        PrintWriter out = new PrintWriter(expected);
+        MetadataDiff.run(new String[] {left, right}, out);
+        out.flush();
+
+        assertThat(stdout.toString(), equalTo(""));
+        assertThat(new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8), equalTo(expected.toString()));
+    }
+
+    private static MetadataDiff.BundleMetadata[] read(JarFile left, JarFile right, int parallelism) throws Exception {
+        return MetadataDiff.readConcurrently(
+                parallel -> new MetadataDiff.BundleMetadata(BundleIndex.create(left), true, ComponentFilter.ALL, parallel),
+                parallel -> new MetadataDiff.BundleMetadata(BundleIndex.create(right), true, ComponentFilter.ALL, parallel),
+                parallelism);
+    }
+
+    private static String diff(MetadataDiff.BundleMetadata left, MetadataDiff.BundleMetadata right, int parallelism) {
+        StringWriter output = new StringWriter();
+        PrintWriter out = new PrintWriter(output);
+        MetadataDiff.diff(left, right, out, parallelism);
+        out.flush();
+        return output.toString();
+    }
+}
@@ -0,0 +1,160 @@
+package net.distilledcode.tools.osgi;
+
+import org.apache.felix.metatype.AD;
+import org.apache.felix.metatype.Designate;
+import org.apache.felix.metatype.MetaData;
+import org.apache.felix.metatype.OCD;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.apache.felix.scr.impl.metadata.ServiceMetadata;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.jar.JarFile;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Cross-checks the native metadata model against felix SCR and felix MetaType,
+ * which read the same descriptors into their own model.
+ */
+public class NativeMetadataTest {
+
+    private static final Class<?> SINGLETON_LIST = Collections.singletonList(null).getClass();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void matchesFelixForOakCore() throws Exception {
+        for (final String name : new String[] {"oak-core-1.7.8.jar", "oak-core-1.7.9.jar"}) {
+            BundleIndex index = BundleIndex.create(TestUtil.getJarFile(name));
+            assertMatchesFelix(index);
+        }
+    }
+
+    @Test
+    public void matchesFelixForTypedProperties() throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("OSGI-INF/components.xml", "<components>"
+                + "<scr:component xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.3.0\" name=\"a.A\" configuration-pid=\"$ a.Shared\">"
+                + "<implementation class=\"a.A\"/>"
+                + "<property name=\"long\" type=\"Long\" value=\"42\"/>"
+                + "<property name=\"char\" type=\"Character\" value=\"65\"/>"
+                + "<property name=\"ints\" type=\"Integer\">1\n 2 \n\n3</property>"
+                + "<property name=\"strings\">a\nb</property>"
+                + "<property name=\"longs\" type=\"Long\">1\n-2</property>"
+                + "<properties entry=\"OSGI-INF/a.properties\"/>"
+                + "<service scope=\"prototype\"><provide interface=\"a.Api\"/></service>"
+                + "<reference name=\"Dependency\" interface=\"a.Dependency\" target=\"(a=b)\" field=\"dependency\"/>"
+                + "</scr:component>"
+                + "<component name=\"b.B\" enabled=\"false\" immediate=\"true\"><implementation class=\"b.B\"/></component>"
+                + "</components>");
+        entries.put("OSGI-INF/a.properties", "service.ranking=10\n");
+        entries.put("OSGI-INF/metatype/metatype.xml", "<metatype:MetaData xmlns:metatype=\"http://www.osgi.org/xmlns/metatype/v1.2.0\""
+                + " localization=\"OSGI-INF/l10n/bundle\">"
+                + "<OCD id=\"ocd\" name=\"%name\">"
+                + "<AD id=\"list\" type=\"String\" cardinality=\"3\" default=\" a\\, b , c,d,e\"/>"
+                + "<AD id=\"bounded\" type=\"Integer\" min=\"1\" max=\"5\" default=\"7\"/>"
+                + "<AD id=\"option\" type=\"Char\" default=\"y\"><Option value=\"y\" label=\"%yes\"/><Option value=\"n\" label=\"no\"/></AD>"
+                + "<AD id=\"flag\" type=\"Boolean\" required=\"false\" default=\"true\"/>"
+                + "</OCD>"
+                + "<Designate factoryPid=\"a.Shared\" merge=\"true\"><Object ocdref=\"ocd\"/></Designate>"
+                + "<Designate pid=\"b.B\" bundle=\"*\"><Object ocdref=\"ocd\"/></Designate>"
+                + "</metatype:MetaData>");
+        File jar = TestUtil.createJar(folder.newFile("typed.jar"),
+                Collections.singletonMap("Service-Component", "OSGI-INF/components.xml"), entries);
+
+        BundleIndex index = BundleIndex.create(new JarFile(jar));
+        assertMatchesFelix(index);
+
+        ComponentDescription component = DeclarativeServices.readComponentDescriptions(index).get("a.Shared");
+        assertThat(component.getProperties().get("ints"), instanceOf(int[].class));
+        assertThat(component.getProperties().get("longs"), instanceOf(long[].class));
+        assertThat(component.getProperties().get("char"), equalTo((Object) 'A'));
+        assertThat(component.getProperties().get("Dependency.target"), equalTo((Object) "(a=b)"));
+        MetaTypeDescription.AttributeDefinition list = MetaType.readMetaTypeDescriptions(index).get("a.Shared")
+                .getObjectClassDefinitions().get("ocd").getAttributeDefinitions().get("list");
+        assertArrayEquals(new String[] {"a, b", "c", "d"}, list.getDefaultValue());
+    }
+
+    @Test
+    public void splitsListsLikeFelix() {
+        for (final String value : new String[] {"", "a", " a , b ", "a\\,b,c", "a  b,\tc\\ ", "\\\\,", ",,"}) {
+            assertArrayEquals(value, AD.splitList(value), MetaTypeDescriptionParser.splitList(value));
+        }
+    }
+
+    private static void assertMatchesFelix(final BundleIndex index) throws Exception {
+        Map<String, ComponentDescription> components = DeclarativeServices.readComponentDescriptions(index);
+        Map<String, ComponentMetadata> felixComponents = DeclarativeServices.readComponentMetadata(index);
+        assertThat(components.keySet(), equalTo(felixComponents.keySet()));
+        for (final Map.Entry<String, ComponentMetadata> entry : felixComponents.entrySet()) {
+            ComponentDescription component = components.get(entry.getKey());
+            assertThat(entry.getKey(), component, equalTo(toDescription(entry.getValue())));
+            assertThat(entry.getKey(), component.getConfigurationPid().getClass(),
+                    equalTo((Object) entry.getValue().getConfigurationPid().getClass()));
+        }
+
+        Map<String, MetaTypeDescription> metaTypes = MetaType.readMetaTypeDescriptions(index);
+        Map<String, MetaData> felixMetaTypes = MetaType.readMetaData(index);
+        assertThat(metaTypes.keySet(), equalTo(felixMetaTypes.keySet()));
+        for (final Map.Entry<String, MetaData> entry : felixMetaTypes.entrySet()) {
+            assertThat(entry.getKey(), metaTypes.get(entry.getKey()), equalTo(toDescription(entry.getValue())));
+        }
+    }
+
+    private static ComponentDescription toDescription(final ComponentMetadata component) {
+        ServiceMetadata service = component.getServiceMetadata();
+        List<ComponentDescription.Reference> references = new ArrayList<>();
+        for (final ReferenceMetadata reference : component.getDependencies()) {
+            references.add(new ComponentDescription.Reference(reference.getName(), reference.getInterface(),
+                    reference.getCardinality(), reference.getBind(), reference.getUnbind(), reference.getUpdated(),
+                    reference.getField(), reference.getFieldOption(), reference.getCollectionType()));
+        }
+        // validate() defaults the configuration PID, only the type of the list tells whether it was declared
+        boolean configurationPidDeclared = component.getConfigurationPid().getClass() != SINGLETON_LIST;
+        return new ComponentDescription(component.getName(), component.isEnabled(), component.getConfigurationPid(),
+                configurationPidDeclared, component.getConfigurationPolicy(), component.getActivate(),
+                component.getModified(), component.getDeactivate(), component.getFactoryIdentifier(),
+                component.getProperties(),
+                service == null ? null : new ComponentDescription.Service(
+                        ComponentDescription.Scope.valueOf(service.getScope().name()), service.getProvides()),
+                references, component.getImplementationClassName());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MetaTypeDescription toDescription(final MetaData metaData) {
+        Map<String, MetaTypeDescription.ObjectClassDefinition> ocds = new LinkedHashMap<>();
+        if (metaData.getObjectClassDefinitions() != null) {
+            for (final OCD ocd : ((Map<String, OCD>) metaData.getObjectClassDefinitions()).values()) {
+                Map<String, MetaTypeDescription.AttributeDefinition> ads = new LinkedHashMap<>();
+                for (final AD ad : ((Map<String, AD>) ocd.getAttributeDefinitions()).values()) {
+                    ads.put(ad.getID(), new MetaTypeDescription.AttributeDefinition(ad.getID(), ad.getName(),
+                            ad.getDescription(), ad.getType(), ad.getCardinality(), ad.getDefaultValue(),
+                            ad.getMin(), ad.getMax(), ad.getOptionLabels(), ad.getOptionValues()));
+                }
+                ocds.put(ocd.getID(), new MetaTypeDescription.ObjectClassDefinition(ocd.getID(), ocd.getName(),
+                        ocd.getDescription(), ads));
+            }
+        }
+        List<MetaTypeDescription.Designate> designates = new ArrayList<>();
+        for (final Designate designate : MetaType.getDesignates(metaData)) {
+            designates.add(new MetaTypeDescription.Designate(designate.getPid(), designate.getFactoryPid(),
+                    designate.getBundleLocation(), designate.isMerge(), designate.isOptional(),
+                    Objects.requireNonNull(designate.getObject()).getOcdRef()));
+        }
+        return new MetaTypeDescription(metaData.getNamespace(), metaData.getLocalePrefix(), ocds, designates);
+    }
+}
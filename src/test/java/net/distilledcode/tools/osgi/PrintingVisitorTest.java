@@ -0,0 +1,68 @@
+package net.distilledcode.tools.osgi;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class PrintingVisitorTest {
+
+    private static final String NL = System.lineSeparator();
+
+    @Test
+    public void printsHeadersOfSectionsWithDifferencesOnly() {
+        StringWriter output = new StringWriter();
+        PrintWriter out = new PrintWriter(output);
+        PrintingVisitor visitor = new PrintingVisitor(out);
+
+        visitor.enter("a.A");
+        visitor.enter("Unchanged");
+        visitor.leave("Unchanged");
+        visitor.enter("Attributes");
+        visitor.changed("name", "old", "new");
+        visitor.added("interface", new String[] {"a.Api", "a.Spi"});
+        visitor.leave("Attributes");
+        visitor.leave("a.A");
+        out.flush();
+
+        assertThat(visitor.hasPrintedSomething(), equalTo(true));
+        assertThat(output.toString(), equalTo("a.A" + NL
+                + "    Attributes" + NL
+                + "        - name = old (String)" + NL
+                + "        + name = new (String)" + NL
+                + "        + interface = [" + NL
+                + "                a.Api," + NL
+                + "                a.Spi" + NL
+                + "          ] (String[])" + NL
+                + NL));
+    }
+
+    @Test
+    public void indentsSectionsOfAnyDepth() {
+        int depth = 40;
+        StringWriter output = new StringWriter();
+        PrintWriter out = new PrintWriter(output);
+        PrintingVisitor visitor = new PrintingVisitor(out);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            visitor.enter("s" + i);
+            expected.append(spaces(i * 4)).append("s").append(i).append(NL);
+        }
+        visitor.removed("value", 1);
+        expected.append(spaces(depth * 4)).append("- value = 1 (Integer)").append(NL).append(NL);
+        for (int i = depth - 1; i >= 0; i--) {
+            visitor.leave("s" + i);
+        }
+        out.flush();
+
+        assertThat(output.toString(), equalTo(expected.toString()));
+    }
+
+    private static String spaces(final int count) {
+        return " ".repeat(count);
+    }
+}
@@ -0,0 +1,96 @@
+package net.distilledcode.tools.osgi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class SeriesDiffTest {
+
+    private static final String COMPONENT = "org.apache.jackrabbit.oak.plugins.blob.datastore.DataStoreTextProviderService";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsEachVersionOnce() throws Exception {
+        List<File> bundles = series();
+        MemoryMetadataCache cache = new MemoryMetadataCache(4);
+
+        StringWriter report = new StringWriter();
+        boolean differences = SeriesDiff.diff(bundles, new DiffOptions().setParallelism(2).setMemoryCache(cache),
+                false, new PrintWriter(report));
+
+        assertTrue("differences", differences);
+        assertThat(cache.getMisses(), equalTo(3));
+        assertThat(cache.getHits(), equalTo(0));
+        assertThat(report.toString(), containsString("a-1.7.8.jar -> b-1.7.9.jar" + System.lineSeparator() + "    " + COMPONENT));
+        assertThat(report.toString(), containsString("b-1.7.9.jar -> c-1.7.8.jar" + System.lineSeparator() + "    " + COMPONENT));
+        assertThat(report.toString(), containsString("Compared 3 versions, 2 steps with differences"));
+    }
+
+    @Test
+    public void stepsMatchPairwiseDiffs() throws Exception {
+        List<File> bundles = series();
+
+        StringWriter pairwise = new StringWriter();
+        MetadataDiff.diffBundles(bundles.get(0), bundles.get(1), new DiffOptions(), new PrintWriter(pairwise), 1);
+
+        StringWriter report = new StringWriter();
+        SeriesDiff.diff(bundles.subList(0, 2), new DiffOptions().setParallelism(2), false, new PrintWriter(report));
+
+        // components are nested in the step, so they are no longer separated by blank lines
+        String indented = pairwise.toString().replaceAll("(?m)^(?=.)", "    ").replaceAll("(?m)^\\R", "");
+        assertThat(report.toString(), equalTo("a-1.7.8.jar -> b-1.7.9.jar" + System.lineSeparator() + indented
+                + System.lineSeparator() + "Compared 2 versions, 1 steps with differences" + System.lineSeparator()));
+    }
+
+    @Test
+    public void historyGroupsStepsByComponent() throws Exception {
+        StringWriter report = new StringWriter();
+        SeriesDiff.diff(series(), new DiffOptions().setParallelism(2), true, new PrintWriter(report));
+
+        assertThat(report.toString(), containsString(COMPONENT + System.lineSeparator()
+                + "    a-1.7.8.jar -> b-1.7.9.jar" + System.lineSeparator()
+                + "        Declarative Services"));
+        assertThat(report.toString(), containsString("    b-1.7.9.jar -> c-1.7.8.jar" + System.lineSeparator()
+                + "        Declarative Services"));
+    }
+
+    @Test
+    public void identicalVersionsHaveNoDifferences() throws Exception {
+        File bundle = TestUtil.getFile("oak-core-1.7.8.jar");
+
+        StringWriter report = new StringWriter();
+        boolean differences = SeriesDiff.diff(asList(bundle, bundle, bundle), new DiffOptions().setParallelism(1), true, new PrintWriter(report));
+
+        assertFalse("differences", differences);
+        assertThat(report.toString(), equalTo("Compared 3 versions, 0 steps with differences" + System.lineSeparator()));
+    }
+
+    // 1.7.8 -> 1.7.9 -> 1.7.8, so the second step reverts the first
+    private List<File> series() throws Exception {
+        return asList(
+                copy("oak-core-1.7.8.jar", "a-1.7.8.jar"),
+                copy("oak-core-1.7.9.jar", "b-1.7.9.jar"),
+                copy("oak-core-1.7.8.jar", "c-1.7.8.jar"));
+    }
+
+    private File copy(final String name, final String target) throws Exception {
+        File file = new File(folder.getRoot(), target);
+        Files.copy(TestUtil.getFile(name).toPath(), file.toPath());
+        return file;
+    }
+}
@@ -0,0 +1,80 @@
+package net.distilledcode.tools.osgi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class StreamingDiffTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void matchesRegularDiff() throws Exception {
+        File left = TestUtil.getFile("oak-core-1.7.8.jar");
+        File right = TestUtil.getFile("oak-core-1.7.9.jar");
+
+        assertThat(diff(left, right, new DiffOptions().setStreaming(true)), equalTo(diff(left, right, new DiffOptions())));
+        DiffOptions localized = new DiffOptions().setLocales(Collections.singletonList(Locale.GERMAN));
+        assertThat(diff(left, right, localized.setStreaming(true)), equalTo(diff(left, right, localized.setStreaming(false))));
+    }
+
+    @Test
+    public void comparesAllComponentsOfSharedDescriptors() throws Exception {
+        File left = jar("left.jar", "1");
+        File right = jar("right.jar", "2");
+
+        String streamed = diff(left, right, new DiffOptions().setStreaming(true));
+
+        assertThat(streamed, equalTo(diff(left, right, new DiffOptions())));
+        assertThat(streamed, containsString("a.A"));
+        assertThat(streamed, containsString("b.B"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsDuplicatePids() throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("OSGI-INF/a.xml", component("a.A", "1"));
+        entries.put("OSGI-INF/b.xml", component("a.A", "2"));
+        File bundle = TestUtil.createJar(new File(folder.getRoot(), "duplicate.jar"),
+                Collections.singletonMap("Service-Component", "OSGI-INF/*.xml"), entries);
+
+        diff(bundle, jar("right.jar", "1"), new DiffOptions().setStreaming(true));
+    }
+
+    private static String diff(final File left, final File right, final DiffOptions options) throws Exception {
+        StringWriter output = new StringWriter();
+        MetadataDiff.diffBundles(left, right, options, new PrintWriter(output), 1);
+        return output.toString();
+    }
+
+    // one descriptor declaring both components and one MetaType designating both
+    private File jar(final String name, final String value) throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("OSGI-INF/components.xml", "<components>" + component("b.B", value) + component("a.A", value) + "</components>");
+        entries.put("OSGI-INF/metatype/metatype.xml", "<metatype:MetaData xmlns:metatype=\"http://www.osgi.org/xmlns/metatype/v1.2.0\">"
+                + "<OCD id=\"ocd\" name=\"ocd\"><AD id=\"value\" type=\"String\" default=\"" + value + "\"/></OCD>"
+                + "<Designate pid=\"b.B\"><Object ocdref=\"ocd\"/></Designate>"
+                + "<Designate pid=\"a.A\"><Object ocdref=\"ocd\"/></Designate>"
+                + "</metatype:MetaData>");
+        return TestUtil.createJar(new File(folder.getRoot(), name),
+                Collections.singletonMap("Service-Component", "OSGI-INF/components.xml"), entries);
+    }
+
+    private static String component(final String name, final String value) {
+        return "<scr:component xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.2.0\" name=\"" + name + "\">"
+                + "<implementation class=\"" + name + "\"/><property name=\"value\" value=\"" + value + "\"/></scr:component>";
+    }
+}
@@ -0,0 +1,90 @@
+package net.distilledcode.tools.osgi;
+
+import org.apache.felix.metatype.AD;
+import org.apache.felix.metatype.MetaData;
+import org.apache.felix.metatype.OCD;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class StringPoolTest {
+
+    @Test
+    public void replacesEqualStringsByFirstInstance() {
+        StringPool pool = new StringPool();
+        String first = new String("org.osgi.service.component.ComponentFactory");
+        String second = new String(first);
+
+        assertThat(pool.intern(first), sameInstance(first));
+        assertThat(pool.intern(second), sameInstance(first));
+        assertThat(pool.intern(first), sameInstance(first));
+        assertThat(pool.intern((String) null), nullValue());
+
+        assertThat(pool.size(), equalTo(1));
+        assertThat(pool.getDuplicates(), equalTo(1L));
+        assertThat(pool.getSavedBytes(), equalTo(40L + 48));
+    }
+
+    @Test
+    public void internsArraysInPlace() {
+        StringPool pool = new StringPool();
+        String value = pool.intern(new String("optional"));
+        String[] values = {new String("optional"), new String("mandatory")};
+
+        assertThat(pool.intern(values), sameInstance(values));
+        assertThat(values[0], sameInstance(value));
+        assertThat(pool.size(), equalTo(2));
+    }
+
+    @Test
+    public void sharesStringsOfParsedBundles() throws Exception {
+        BundleIndex left = BundleIndex.create(TestUtil.getJarFile("oak-core-1.7.8.jar"));
+        BundleIndex right = BundleIndex.create(TestUtil.getJarFile("oak-core-1.7.9.jar"));
+
+        Map<String, ComponentMetadata> leftComponents = DeclarativeServices.readComponentMetadata(left);
+        Map<String, ComponentMetadata> rightComponents = DeclarativeServices.readComponentMetadata(right);
+        TreeSet<String> pids = new TreeSet<>(leftComponents.keySet());
+        pids.retainAll(rightComponents.keySet());
+        assertThat(pids.isEmpty(), equalTo(false));
+        for (final String pid : pids) {
+            String implementation = rightComponents.get(pid).getImplementationClassName();
+            if (implementation.equals(leftComponents.get(pid).getImplementationClassName())) {
+                assertThat(implementation, sameInstance(leftComponents.get(pid).getImplementationClassName()));
+            }
+        }
+
+        Map<String, MetaData> leftMetaTypes = MetaType.readMetaData(left);
+        Map<String, MetaData> rightMetaTypes = MetaType.readMetaData(right);
+        pids = new TreeSet<>(leftMetaTypes.keySet());
+        pids.retainAll(rightMetaTypes.keySet());
+        assertThat(pids.isEmpty(), equalTo(false));
+        for (final String pid : pids) {
+            OCD leftOcd = firstOcd(leftMetaTypes.get(pid));
+            OCD rightOcd = firstOcd(rightMetaTypes.get(pid));
+            if (rightOcd.getID().equals(leftOcd.getID())) {
+                assertThat(rightOcd.getID(), sameInstance(leftOcd.getID()));
+            }
+            for (final Object ad : rightOcd.getAttributeDefinitions().values()) {
+                String id = ((AD) ad).getID();
+                if (leftOcd.getAttributeDefinitions().containsKey(id)) {
+                    assertThat(id, sameInstance(((AD) leftOcd.getAttributeDefinitions().get(id)).getID()));
+                }
+            }
+        }
+        assertTrue(StringPool.SHARED.getDuplicates() > 0);
+        assertThat(StringPool.SHARED.getSavedBytes(), not(equalTo(0L)));
+    }
+
+    private static OCD firstOcd(final MetaData metaData) {
+        return (OCD) metaData.getObjectClassDefinitions().values().iterator().next();
+    }
+}
@@ -1,18 +1,62 @@
 package net.distilledcode.tools.osgi;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 public class TestUtil {
     public static JarFile getJarFile(final String name) throws URISyntaxException, IOException {
+        return new JarFile(getFile(name));
+    }
+
+    public static File getFile(final String name) throws URISyntaxException {
         URL url = MetadataDiffTest.class.getClassLoader().getResource(name);
         if (url == null) {
             throw new IllegalArgumentException("No jar file named '" + name + "' could be found.");
         }
-        File file = new File(url.toURI());
-        return new JarFile(file);
+        return new File(url.toURI());
+    }
+
+    /**
+     * Creates a bundle with a component that has the multi-valued {@code Integer} property
+     * {@code ports}, and reads further properties from the entry {@code OSGI-INF/a.properties}.
+     */
+    public static File createTypedPropertiesJar(final File file, final String ports, final String properties) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("OSGI-INF/a.xml", "<scr:component xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.3.0\" name=\"a.A\">"
+                + "<implementation class=\"a.A\"/>"
+                + "<property name=\"ports\" type=\"Integer\">" + ports + "</property>"
+                + "<properties entry=\"OSGI-INF/a.properties\"/>"
+                + "</scr:component>");
+        entries.put("OSGI-INF/a.properties", properties);
+        return createJar(file, Collections.singletonMap("Service-Component", "OSGI-INF/a.xml"), entries);
+    }
+
+    public static File createJar(final File file, final Map<String, String> headers, final Map<String, String> entries) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        for (final Map.Entry<String, String> header : headers.entrySet()) {
+            manifest.getMainAttributes().putValue(header.getKey(), header.getValue());
+        }
+        try (OutputStream out = new FileOutputStream(file); JarOutputStream jar = new JarOutputStream(out, manifest)) {
+            for (final Map.Entry<String, String> entry : entries.entrySet()) {
+                jar.putNextEntry(new JarEntry(entry.getKey()));
+                jar.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                jar.closeEntry();
+            }
+        }
+        return file;
     }
 }
@@ -0,0 +1,78 @@
+package net.distilledcode.tools.osgi;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TimingsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        Timings.activate(null);
+    }
+
+    @Test
+    public void aggregatesPhases() throws Exception {
+        Timings timings = new Timings();
+        Timings.activate(timings);
+        diff();
+        Timings.activate(null);
+
+        assertThat(timings.getCount(Timings.Phase.INDEX), equalTo(2L));
+        assertTrue("descriptors parsed", timings.getCount(Timings.Phase.DS_PARSE) > 0);
+        assertTrue("components compared", timings.getCount(Timings.Phase.COMPARISON) > 0);
+
+        StringWriter summary = new StringWriter();
+        timings.print(new PrintWriter(summary));
+        assertThat(summary.toString(), containsString("metatype-parse"));
+        assertThat(summary.toString(), containsString("Slowest descriptors:"));
+        assertThat(summary.toString(), containsString("oak-core-1.7.9.jar!/OSGI-INF/"));
+    }
+
+    @Test
+    public void emitsFlightRecorderEvents() throws Exception {
+        Path dump = folder.newFile("diff.jfr").toPath();
+        try (Recording recording = new Recording()) {
+            recording.enable("net.distilledcode.tools.osgi.Phase");
+            recording.start();
+            diff();
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        Set<String> phases = events.stream().map(event -> event.getString("phase")).collect(Collectors.toSet());
+        assertThat(phases, hasItems("index", "ds-parse", "metatype-parse", "comparison", "output"));
+        assertTrue("descriptor recorded", events.stream()
+                .filter(event -> "ds-parse".equals(event.getString("phase")))
+                .allMatch(event -> event.getString("descriptor").startsWith("OSGI-INF/")));
+    }
+
+    private static void diff() throws Exception {
+        File left = TestUtil.getFile("oak-core-1.7.8.jar");
+        File right = TestUtil.getFile("oak-core-1.7.9.jar");
+        MetadataDiff.diffBundles(left, right, new DiffOptions(), new PrintWriter(Writer.nullWriter()), 1);
+    }
+}
@@ -0,0 +1,103 @@
+package net.distilledcode.tools.osgi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class UnchangedDescriptorsTest {
+
+    private static final String METATYPE = "<metatype:MetaData xmlns:metatype=\"http://www.osgi.org/xmlns/metatype/v1.2.0\" localization=\"OSGI-INF/l10n/bundle\"/>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void skipsDescriptorsWithSameSizeAndCrc() throws Exception {
+        Map<String, String> left = new LinkedHashMap<>();
+        left.put("OSGI-INF/a.xml", "<a/>");
+        left.put("OSGI-INF/b.xml", "<b/>");
+        left.put("OSGI-INF/metatype/a.xml", METATYPE);
+        left.put("OSGI-INF/metatype/b.xml", METATYPE);
+        left.put("OSGI-INF/l10n/bundle.properties", "a=b");
+        Map<String, String> right = new LinkedHashMap<>(left);
+        right.put("OSGI-INF/b.xml", "<c/>");
+        right.put("OSGI-INF/metatype/b.xml", METATYPE.replace("v1.2.0", "v1.3.0"));
+
+        assertThat(findUnchanged(left, right, new DiffOptions()), equalTo(set("OSGI-INF/a.xml", "OSGI-INF/metatype/a.xml")));
+        assertThat(findUnchanged(left, right, new DiffOptions().setVerifyUnchangedDescriptors(true)),
+                equalTo(set("OSGI-INF/a.xml", "OSGI-INF/metatype/a.xml")));
+    }
+
+    @Test
+    public void changedLocalizationIsNotSkipped() throws Exception {
+        Map<String, String> left = new LinkedHashMap<>();
+        left.put("OSGI-INF/metatype/a.xml", METATYPE);
+        left.put("OSGI-INF/l10n/bundle.properties", "a=b");
+        Map<String, String> right = new LinkedHashMap<>(left);
+        right.put("OSGI-INF/l10n/bundle.properties", "a=c");
+
+        assertThat(findUnchanged(left, right, new DiffOptions()), equalTo(set()));
+        assertThat(findUnchanged(left, right, new DiffOptions().setResolveFromLocalizationProperties(false)),
+                equalTo(set("OSGI-INF/metatype/a.xml")));
+    }
+
+    @Test
+    public void changedPropertiesEntryIsNotSkipped() throws Exception {
+        Map<String, String> left = new LinkedHashMap<>();
+        left.put("OSGI-INF/a.xml", "<scr:component xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.4.0\" name=\"a.A\">"
+                + "<implementation class=\"a.A\"/><properties entry=\"OSGI-INF/a.properties\"/></scr:component>");
+        left.put("OSGI-INF/b.xml", "<scr:component xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.4.0\" name=\"b.B\">"
+                + "<implementation class=\"b.B\"/><factory-properties entry=\"OSGI-INF/b.properties\"/></scr:component>");
+        left.put("OSGI-INF/a.properties", "a=1");
+        left.put("OSGI-INF/b.properties", "b=1");
+        Map<String, String> right = new LinkedHashMap<>(left);
+        right.put("OSGI-INF/a.properties", "a=2");
+
+        assertThat(findUnchanged(left, right, new DiffOptions()), equalTo(set("OSGI-INF/b.xml")));
+
+        right.put("OSGI-INF/b.properties", "b=2");
+        assertThat(findUnchanged(left, right, new DiffOptions()), equalTo(set()));
+    }
+
+    @Test
+    public void skippingDoesNotChangeOutput() throws Exception {
+        File left = TestUtil.getFile("oak-core-1.7.8.jar");
+        File right = TestUtil.getFile("oak-core-1.7.9.jar");
+
+        assertThat(diff(left, right, new DiffOptions()), equalTo(diff(left, right, new DiffOptions().setSkipUnchangedDescriptors(false))));
+    }
+
+    private Set<String> findUnchanged(final Map<String, String> left, final Map<String, String> right, final DiffOptions options) throws Exception {
+        Map<String, String> headers = Collections.singletonMap("Service-Component", "OSGI-INF/*.xml");
+        try (JarFile leftJar = new JarFile(TestUtil.createJar(folder.newFile(), headers, left));
+             JarFile rightJar = new JarFile(TestUtil.createJar(folder.newFile(), headers, right))) {
+            return UnchangedDescriptors.find(BundleIndex.create(leftJar), BundleIndex.create(rightJar), options);
+        }
+    }
+
+    private static String diff(final File left, final File right, final DiffOptions options) throws Exception {
+        StringWriter report = new StringWriter();
+        PrintWriter out = new PrintWriter(report);
+        MetadataDiff.diffBundles(left, right, options, out, 1);
+        out.flush();
+        return report.toString();
+    }
+
+    private static Set<String> set(final String... values) {
+        return new HashSet<>(asList(values));
+    }
+}
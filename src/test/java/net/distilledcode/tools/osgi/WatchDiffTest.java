@@ -0,0 +1,153 @@
+package net.distilledcode.tools.osgi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class WatchDiffTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void comparesOnlyChangedComponents() throws Exception {
+        File left = jar("left.jar", "1", "1");
+        File right = jar("right.jar", "1", "1");
+        WatchDiff watchDiff = new WatchDiff(left, right, new DiffOptions());
+
+        assertThat(watchDiff.refresh(both(watchDiff)), equalTo(2));
+        assertFalse("differences", watchDiff.print(new PrintWriter(new StringWriter())));
+
+        jar("right.jar", "1", "2");
+        assertThat(watchDiff.refresh(Collections.singleton(watchDiff.getRight())), equalTo(1));
+        StringWriter report = new StringWriter();
+        assertTrue("differences", watchDiff.print(new PrintWriter(report)));
+        assertThat(report.toString(), containsString("b.B"));
+        assertThat(report.toString(), not(containsString("a.A")));
+
+        assertThat(watchDiff.refresh(Collections.singleton(watchDiff.getRight())), equalTo(0));
+    }
+
+    @Test
+    public void printsLikeFullDiff() throws Exception {
+        File left = jar("left.jar", "1", "1");
+        File right = jar("right.jar", "1", "1");
+        WatchDiff watchDiff = new WatchDiff(left, right, new DiffOptions());
+        watchDiff.refresh(both(watchDiff));
+
+        jar("left.jar", "2", "1");
+        jar("right.jar", "1", "2");
+        watchDiff.refresh(both(watchDiff));
+
+        StringWriter full = new StringWriter();
+        MetadataDiff.diffBundles(left, right, new DiffOptions(), new PrintWriter(full), 1);
+        StringWriter report = new StringWriter();
+        watchDiff.print(new PrintWriter(report));
+        assertThat(report.toString(), equalTo(full.toString()));
+    }
+
+    @Test
+    public void reparsesDescriptorWhenPropertiesEntryChanges() throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("OSGI-INF/a.A.xml", "<scr:component xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.2.0\" name=\"a.A\">"
+                + "<implementation class=\"a.A\"/><properties entry=\"OSGI-INF/a.A.properties\"/></scr:component>");
+        entries.put("OSGI-INF/a.A.properties", "value=1");
+        Map<String, String> headers = Collections.singletonMap("Service-Component", "OSGI-INF/*.xml");
+        File left = TestUtil.createJar(new File(folder.getRoot(), "left.jar"), headers, entries);
+        File right = TestUtil.createJar(new File(folder.getRoot(), "right.jar"), headers, entries);
+        WatchDiff watchDiff = new WatchDiff(left, right, new DiffOptions());
+        watchDiff.refresh(both(watchDiff));
+
+        entries.put("OSGI-INF/a.A.properties", "value=2");
+        TestUtil.createJar(right, headers, entries);
+        assertThat(watchDiff.refresh(Collections.singleton(watchDiff.getRight())), equalTo(1));
+        StringWriter report = new StringWriter();
+        assertTrue("differences", watchDiff.print(new PrintWriter(report)));
+        assertThat(report.toString(), containsString("+ value = 2"));
+    }
+
+    @Test
+    public void followsDescriptorsOfExplodedBundles() throws Exception {
+        File left = jar("left.jar", "1", "1");
+        Path right = folder.newFolder("classes").toPath();
+        Files.createDirectories(right.resolve("OSGI-INF"));
+        Files.write(right.resolve("OSGI-INF/a.A.xml"), component("a.A", "1").getBytes(StandardCharsets.UTF_8));
+        Files.write(right.resolve("OSGI-INF/b.B.xml"), component("b.B", "1").getBytes(StandardCharsets.UTF_8));
+        WatchDiff watchDiff = new WatchDiff(left, right.toFile(), new DiffOptions());
+        watchDiff.refresh(both(watchDiff));
+
+        Files.delete(right.resolve("OSGI-INF/b.B.xml"));
+        assertThat(watchDiff.refresh(Collections.singleton(watchDiff.getRight())), equalTo(1));
+        StringWriter report = new StringWriter();
+        assertTrue("differences", watchDiff.print(new PrintWriter(report)));
+        assertThat(report.toString(), containsString("b.B"));
+        assertThat(report.toString(), not(containsString("a.A")));
+    }
+
+    @Test(timeout = 60000)
+    public void printsAgainWhenBundleChanges() throws Exception {
+        File left = jar("left.jar", "1", "1");
+        File right = jar("right.jar", "1", "1");
+        StringWriter report = new StringWriter();
+        PrintWriter out = new PrintWriter(report);
+        Thread watcher = new Thread(() -> {
+            try {
+                new WatchDiff(left, right, new DiffOptions()).watch(out, new PrintWriter(new StringWriter()));
+            } catch (Exception e) {
+                // interrupted
+            }
+        });
+        watcher.start();
+        try {
+            awaitOutput(report, "No differences found");
+            jar("right.jar", "1", "2");
+            awaitOutput(report, "b.B");
+        } finally {
+            watcher.interrupt();
+            watcher.join();
+        }
+    }
+
+    private static void awaitOutput(final StringWriter report, final String expected) throws InterruptedException {
+        while (!report.toString().contains(expected)) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private static List<WatchDiff.WatchedBundle> both(final WatchDiff watchDiff) {
+        return Arrays.asList(watchDiff.getLeft(), watchDiff.getRight());
+    }
+
+    private File jar(final String name, final String a, final String b) throws Exception {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("OSGI-INF/a.A.xml", component("a.A", a));
+        entries.put("OSGI-INF/b.B.xml", component("b.B", b));
+        return TestUtil.createJar(new File(folder.getRoot(), name),
+                Collections.singletonMap("Service-Component", "OSGI-INF/*.xml"), entries);
+    }
+
+    private static String component(final String name, final String value) {
+        return "<scr:component xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.2.0\" name=\"" + name + "\">"
+                + "<implementation class=\"" + name + "\"/><property name=\"value\" value=\"" + value + "\"/></scr:component>";
+    }
+}